@@ -0,0 +1,2 @@
+call mvn -q -f benchmarks\pom.xml package || exit /b 1
+java -jar benchmarks\target\benchmarks.jar -rf json -rff bench.json %*
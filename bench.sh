@@ -0,0 +1,6 @@
+#!/bin/bash
+# Builds the JMH benchmarks with Maven and runs them, writing the results to
+# bench.json. Arguments are passed on to JMH, such as a benchmark name or
+# -p zoom=1 to run only some parameters.
+mvn -q -f benchmarks/pom.xml package || exit 1
+java -jar benchmarks/target/benchmarks.jar -rf json -rff bench.json "$@"
@@ -0,0 +1,78 @@
+package treevisualizer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import treevisualizer.Tree;
+import treevisualizer.TreeBinaryFile;
+
+/**
+ * Time to open the .treeb companion of each of the test trees and read the
+ * tree from it, as TreeLoader.loadTreeFile() does when there is one, to
+ * compare with parsing the text in LoadBenchmark. The companions are written
+ * for copies of the trees in a temporary directory, so the test-trees
+ * directory is left as it is.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryLoadBenchmark {
+	@Param({ "Test02Halves.tree", "Test03Thirds.tree", "Test04Fourths.tree",
+			"Test05Fifths.tree", "Test07Sevenths.tree", "Test08Eighths.tree",
+			"Test09BigTree.tree" })
+	public String file;
+
+	private File m_directory;
+	private File m_binaryFile;
+
+	@Setup
+	public void setup() throws IOException {
+		m_directory = Files.createTempDirectory("treevisualizer").toFile();
+		// registered first so that it is deleted after the files in it
+		m_directory.deleteOnExit();
+		File copy = new File(m_directory, file);
+		Files.copy(TestTrees.get(file).toPath(), copy.toPath());
+		m_binaryFile = TreeBinaryFile.writeCompanion(copy);
+	}
+
+	@TearDown
+	public void tearDown() {
+		// files still mapped may not be deleted until the JVM exits
+		for (File child : m_directory.listFiles()) {
+			if (!child.delete())
+				child.deleteOnExit();
+		}
+		m_directory.delete();
+	}
+
+	@Benchmark
+	public Tree<String> readTree() throws IOException {
+		TreeBinaryFile binary = TreeBinaryFile.open(m_binaryFile);
+		try {
+			return binary.readTree(null);
+		} finally {
+			binary.close();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package treevisualizer.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import treevisualizer.Tree;
+
+/**
+ * Time to build a tree in memory through Tree.Node.addChild(), breadth
+ * first, with every node but the last few having the same number of
+ * children.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildBenchmark {
+	@Param({ "1000", "100000" })
+	public int nodes;
+
+	@Param({ "2", "8" })
+	public int branching;
+
+	// labels are made ahead of time so only building the tree is measured
+	private String[] m_labels;
+
+	@Setup
+	public void setup() {
+		m_labels = new String[nodes];
+		for (int i = 0; i < nodes; i++)
+			m_labels[i] = "N" + i;
+	}
+
+	@Benchmark
+	public Tree<String> addChild() {
+		Tree<String> tree = new Tree<String>(m_labels[0]);
+		List<Tree.Node<String>> added = new ArrayList<Tree.Node<String>>(nodes);
+		added.add(tree.getRootNode());
+		int count = 1;
+		for (int parent = 0; count < nodes; parent++) {
+			Tree.Node<String> node = added.get(parent);
+			for (int i = 0; i < branching && count < nodes; i++)
+				added.add(node.addChild(m_labels[count++]));
+		}
+		return tree;
+	}
+}
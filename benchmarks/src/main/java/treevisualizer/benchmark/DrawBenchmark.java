@@ -0,0 +1,95 @@
+package treevisualizer.benchmark;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import treevisualizer.TreeController;
+import treevisualizer.TreeLoader;
+
+/**
+ * Time to draw one 800x600 frame with TreeController.draw() into an
+ * offscreen image, over a sweep of zoom levels and camera positions. The
+ * layout is warm after the first frame, so this is the cost of a frame while
+ * browsing.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawBenchmark {
+	private static Color kBackgroundColor = new Color(80, 80, 90);
+
+	@Param({ "Test05Fifths.tree", "Test09BigTree.tree" })
+	public String file;
+
+	@Param({ "0.5", "1", "3", "25", "200", "2000" })
+	public double zoom;
+
+	// the point at the middle of the screen: the root, the root's last
+	// child, or the empty space between its children
+	@Param({ "root", "child", "between" })
+	public String camera;
+
+	private TreeController<String> m_controller;
+	private BufferedImage m_image;
+	private Graphics m_graphics;
+	private long m_x;
+	private long m_y;
+
+	@Setup
+	public void setup() throws IOException {
+		m_controller = new TreeController<String>(
+				TreeLoader.parseTreeFile(TestTrees.get(file)));
+		m_controller.setZoom(zoom);
+
+		// positions at zoom 1.0, relative to the root
+		double cameraX = 0.0;
+		double cameraY = 0.0;
+		if (camera.equals("child")) {
+			cameraX = 200.0;
+		} else if (camera.equals("between")) {
+			cameraX = 100.0;
+			cameraY = 100.0;
+		}
+		m_x = Math.round(400 - cameraX * zoom);
+		m_y = Math.round(300 - cameraY * zoom);
+
+		m_image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+		m_graphics = m_image.getGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		m_graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage draw() {
+		m_graphics.setColor(kBackgroundColor);
+		m_graphics.fillRect(0, 0, 800, 600);
+		m_controller.draw(m_graphics, m_x, m_y, 800, 600);
+		return m_image;
+	}
+}
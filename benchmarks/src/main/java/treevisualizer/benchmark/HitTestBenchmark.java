@@ -0,0 +1,83 @@
+package treevisualizer.benchmark;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import treevisualizer.TreeController;
+import treevisualizer.TreeLoader;
+
+/**
+ * Time for one TreeController.getCircleAtPoint() lookup after drawing a
+ * frame, at points spread over the screen. The trees and zoom levels give
+ * from a few hundred to tens of thousands of circles on the screen.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class HitTestBenchmark {
+	private static final int kPoints = 4096;
+
+	@Param({ "Test05Fifths.tree", "Test09BigTree.tree" })
+	public String file;
+
+	@Param({ "1", "3", "25" })
+	public double zoom;
+
+	private TreeController<String> m_controller;
+	private int[] m_x;
+	private int[] m_y;
+
+	@Setup
+	public void setup() throws IOException {
+		m_controller = new TreeController<String>(
+				TreeLoader.parseTreeFile(TestTrees.get(file)));
+		m_controller.setZoom(zoom);
+		BufferedImage image = new BufferedImage(800, 600,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics g = image.getGraphics();
+		m_controller.draw(g, 400, 300, 800, 600);
+		g.dispose();
+
+		// the same points every run
+		Random random = new Random(1);
+		m_x = new int[kPoints];
+		m_y = new int[kPoints];
+		for (int i = 0; i < kPoints; i++) {
+			m_x[i] = random.nextInt(800);
+			m_y[i] = random.nextInt(600);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(kPoints)
+	public int getCircleAtPoint() {
+		int found = 0;
+		for (int i = 0; i < kPoints; i++) {
+			if (m_controller.getCircleAtPoint(m_x[i], m_y[i]) != null)
+				found++;
+		}
+		return found;
+	}
+}
@@ -0,0 +1,53 @@
+package treevisualizer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import treevisualizer.Tree;
+import treevisualizer.TreeLoader;
+
+/**
+ * Time to parse each of the test trees as text with
+ * TreeLoader.parseTreeFile(). BinaryLoadBenchmark times reading them from
+ * .treeb files instead.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+	@Param({ "Test02Halves.tree", "Test03Thirds.tree", "Test04Fourths.tree",
+			"Test05Fifths.tree", "Test07Sevenths.tree", "Test08Eighths.tree",
+			"Test09BigTree.tree" })
+	public String file;
+
+	private File m_file;
+
+	@Setup
+	public void setup() throws IOException {
+		m_file = TestTrees.get(file);
+	}
+
+	@Benchmark
+	public Tree<String> parseTreeFile() throws IOException {
+		return TreeLoader.parseTreeFile(m_file);
+	}
+}
@@ -0,0 +1,50 @@
+package treevisualizer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import treevisualizer.Tree;
+import treevisualizer.TreeLoader;
+
+/**
+ * Time to parse the test trees big enough to be split up with
+ * TreeLoader.parseTreeFileParallel(), to compare with LoadBenchmark.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelLoadBenchmark {
+	@Param({ "Test08Eighths.tree", "Test09BigTree.tree" })
+	public String file;
+
+	private File m_file;
+
+	@Setup
+	public void setup() throws IOException {
+		m_file = TestTrees.get(file);
+	}
+
+	@Benchmark
+	public Tree<String> parseTreeFileParallel() throws IOException {
+		return TreeLoader.parseTreeFileParallel(m_file);
+	}
+}
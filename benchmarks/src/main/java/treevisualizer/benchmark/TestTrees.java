@@ -0,0 +1,36 @@
+package treevisualizer.benchmark;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Finds the .tree files the benchmarks run on. They are read from the
+ * test-trees directory of the repository, which is the working directory
+ * when the benchmarks are run by bench.sh, or from the directory named by
+ * the treevisualizer.trees system property.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+final class TestTrees {
+	private TestTrees() {
+	}
+
+	/**
+	 * Get one of the test trees.
+	 *
+	 * @param name
+	 *            - File name of the tree
+	 * @return - The file
+	 * @throws FileNotFoundException
+	 *             - Throws if the file is not in the test tree directory
+	 */
+	static File get(String name) throws FileNotFoundException {
+		File directory = new File(System.getProperty("treevisualizer.trees",
+				"test-trees"));
+		File file = new File(directory, name);
+		if (!file.isFile())
+			throw new FileNotFoundException(file.getAbsolutePath());
+		return file;
+	}
+}
@@ -0,0 +1,592 @@
+package treevisualizer;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders trees to image files without a display, for thumbnails and
+ * posters. The camera works as it does in TreeVisualizer: the root is placed
+ * at the middle of the image plus the camera offset, at a zoom relative to
+ * the root.
+ *
+ * The image is drawn in horizontal bands as the image writer asks for its
+ * rows, so only a band or two is ever held in memory however large the image
+ * is. The band after the one being written is drawn ahead on the common
+ * fork/join pool. ImageIO's PNG writer asks for one row at a time, so PNG
+ * files are written this way; other formats may ask for the whole image at
+ * once.
+ *
+ * From the command line, every .tree file named, or found in a directory
+ * named, is rendered to an image beside it, several files at a time:
+ *
+ * <pre>
+ * java -cp TreeVisualizer.jar treevisualizer.BatchRenderer [-size WxH]
+ *     [-zoom Z] [-camera X,Y] [-band H] [-detail R] [-format png] [-out dir]
+ *     [-threads N] file|dir ...
+ * </pre>
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class BatchRenderer {
+	public static int kDefaultBandHeight = 256;
+	// the part of the image a tree fitted to it fills
+	private static double kFitMargin = 0.95;
+
+	private int m_width;
+	private int m_height;
+	private double m_zoom;
+	private double m_cameraX;
+	private double m_cameraY;
+	private int m_bandHeight;
+	private int m_detailThreshold;
+	private String m_format;
+	private Color m_background;
+
+	/**
+	 * Creates a BatchRenderer that renders 800x600 PNG images with the whole
+	 * tree fitted to them.
+	 */
+	public BatchRenderer() {
+		m_width = 800;
+		m_height = 600;
+		m_bandHeight = kDefaultBandHeight;
+		m_detailThreshold = TreeController.kDefaultDetailThreshold;
+		m_format = "png";
+		m_background = TreeVisualizer.kBackgroundColor;
+	}
+
+	/**
+	 * Set the size of the images rendered.
+	 *
+	 * @param width
+	 *            - Width in pixels
+	 * @param height
+	 *            - Height in pixels
+	 */
+	public void setSize(int width, int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Image size must be positive: "
+					+ width + "x" + height);
+		m_width = width;
+		m_height = height;
+	}
+
+	/**
+	 * Set the zoom factor relative to the root, or 0.0 to fit the whole tree
+	 * to the image.
+	 *
+	 * @param zoom
+	 *            - The zoom factor
+	 */
+	public void setZoom(double zoom) {
+		m_zoom = zoom;
+	}
+
+	/**
+	 * Set where the root is drawn, relative to the middle of the image.
+	 *
+	 * @param x
+	 *            - X offset in pixels
+	 * @param y
+	 *            - Y offset in pixels
+	 */
+	public void setCamera(double x, double y) {
+		m_cameraX = x;
+		m_cameraY = y;
+	}
+
+	/**
+	 * Set the height of the bands the image is drawn in. Each band is held in
+	 * memory as width * height * 4 bytes.
+	 *
+	 * @param bandHeight
+	 *            - Height in pixels
+	 */
+	public void setBandHeight(int bandHeight) {
+		m_bandHeight = Math.max(1, bandHeight);
+	}
+
+	/**
+	 * Set the level of detail, as for TreeController.setDetailThreshold().
+	 *
+	 * @param pixels
+	 *            - Radius in pixels, or 0 to draw every node
+	 */
+	public void setDetailThreshold(int pixels) {
+		m_detailThreshold = pixels;
+	}
+
+	/**
+	 * Set the ImageIO format the images are written in.
+	 *
+	 * @param format
+	 *            - Format name, such as "png"
+	 */
+	public void setFormat(String format) {
+		m_format = format;
+	}
+
+	/**
+	 * Get the ImageIO format the images are written in.
+	 *
+	 * @return - Format name, such as "png"
+	 */
+	public String getFormat() {
+		return m_format;
+	}
+
+	/**
+	 * Renders a tree to an image file.
+	 *
+	 * @param tree
+	 *            - The tree to render
+	 * @param output
+	 *            - File the image is written to
+	 * @return - Counts for the whole image
+	 * @throws IOException
+	 *             - Throws if the image could not be written, or there is no
+	 *             writer for the format.
+	 */
+	public FrameStats render(TreeModel<?> tree, File output) throws IOException {
+		long start = System.nanoTime();
+		TreeController<Object> controller = new TreeController<Object>(tree);
+		controller.setDetailThreshold(m_detailThreshold);
+		double zoom = m_zoom;
+		if (zoom <= 0.0) {
+			double radius = controller.getTreeRadius();
+			zoom = radius > 0.0 ? kFitMargin * Math.min(m_width, m_height)
+					/ (2.0 * radius) : 1.0;
+		}
+		controller.setZoom(zoom);
+		controller.startFrame();
+
+		BandImage image = new BandImage(controller,
+				(long) Math.floor(m_width / 2.0 + m_cameraX),
+				(long) Math.floor(m_height / 2.0 + m_cameraY));
+		try {
+			if (!ImageIO.write(image, m_format, output))
+				throw new IOException("No image writer for format "
+						+ m_format);
+		} finally {
+			image.finish();
+		}
+		FrameStats stats = image.m_stats;
+		stats.setFrameNanos(System.nanoTime() - start);
+		return stats;
+	}
+
+	/**
+	 * Loads a .tree file the way TreeVisualizer does: memory mapped or read
+	 * lazily if it is large.
+	 *
+	 * @param file
+	 *            - The .tree file
+	 * @return - The loaded tree
+	 * @throws IOException
+	 *             - Throws if the file could not be read or parsed.
+	 */
+	public static TreeModel<?> load(File file) throws IOException {
+		if (file.length() >= TreeVisualizer.kLazyLoadSize)
+			return LazyTree.open(file);
+		if (file.length() >= TreeVisualizer.kMappedLoadSize)
+			return TreeLoader.loadMappedTreeFile(file);
+		return TreeLoader.loadTreeFile(file);
+	}
+
+	/**
+	 * Renders .tree files from the command line.
+	 *
+	 * @param args
+	 *            - Options, then .tree files or directories holding them
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		BatchRenderer renderer = new BatchRenderer();
+		File outDir = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<File> inputs = new ArrayList<File>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("-size")) {
+					String[] size = args[++i].split("x");
+					renderer.setSize(Integer.parseInt(size[0]),
+							Integer.parseInt(size[1]));
+				} else if (arg.equals("-zoom")) {
+					renderer.setZoom(Double.parseDouble(args[++i]));
+				} else if (arg.equals("-camera")) {
+					String[] camera = args[++i].split(",");
+					renderer.setCamera(Double.parseDouble(camera[0]),
+							Double.parseDouble(camera[1]));
+				} else if (arg.equals("-band")) {
+					renderer.setBandHeight(Integer.parseInt(args[++i]));
+				} else if (arg.equals("-detail")) {
+					renderer.setDetailThreshold(Integer.parseInt(args[++i]));
+				} else if (arg.equals("-format")) {
+					renderer.setFormat(args[++i]);
+				} else if (arg.equals("-out")) {
+					outDir = new File(args[++i]);
+				} else if (arg.equals("-threads")) {
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+				} else {
+					addInputs(new File(arg), inputs);
+				}
+			}
+		} catch (RuntimeException exc) {
+			// a missing or malformed option value
+			printUsage();
+			System.exit(2);
+		}
+		if (inputs.isEmpty()) {
+			printUsage();
+			System.exit(2);
+		}
+
+		// each file is loaded and drawn on its own thread
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads,
+				inputs.size()));
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (File input : inputs)
+			results.add(pool.submit(renderer.new Job(input, outDir)));
+		pool.shutdown();
+
+		boolean failed = false;
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				System.out.println(results.get(i).get());
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				failed = true;
+				break;
+			} catch (ExecutionException exc) {
+				System.err.println(inputs.get(i) + ": " + exc.getCause());
+				failed = true;
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	private static void printUsage() {
+		System.err.println("usage: BatchRenderer [-size WxH] [-zoom Z]"
+				+ " [-camera X,Y] [-band H] [-detail R] [-format png] [-out dir]"
+				+ " [-threads N] file|dir ...");
+	}
+
+	/**
+	 * Adds a file, or the .tree files in a directory, to a list of inputs.
+	 */
+	private static void addInputs(File file, List<File> inputs) {
+		if (!file.isDirectory()) {
+			inputs.add(file);
+			return;
+		}
+		File[] files = file.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files);
+		for (File child : files) {
+			if (child.isFile() && child.getName().endsWith(".tree"))
+				inputs.add(child);
+		}
+	}
+
+	/**
+	 * Loads and renders one file, on a pool thread.
+	 */
+	private class Job implements Callable<String> {
+		private File m_input;
+		private File m_outDir;
+
+		Job(File input, File outDir) {
+			m_input = input;
+			m_outDir = outDir;
+		}
+
+		@Override
+		public String call() throws IOException {
+			String name = m_input.getName();
+			int dot = name.lastIndexOf('.');
+			if (dot > 0)
+				name = name.substring(0, dot);
+			File dir = m_outDir != null ? m_outDir : m_input
+					.getAbsoluteFile().getParentFile();
+			dir.mkdirs();
+			File output = new File(dir, name + "." + m_format);
+
+			long start = System.nanoTime();
+			TreeModel<?> tree = load(m_input);
+			long loaded = System.nanoTime();
+			FrameStats stats = render(tree, output);
+			return m_input + " -> " + output + " (" + m_width + "x"
+					+ m_height + ", load " + (loaded - start) / 1000000
+					+ " ms, draw " + stats.getFrameNanos() / 1000000 + " ms, "
+					+ stats.getOvalsDrawn() + " ovals, " + stats.getGlyphsDrawn()
+					+ " glyphs)";
+		}
+	}
+
+	/**
+	 * An image that draws its rows a band at a time when the image writer
+	 * asks for them. Bands are the image's tiles, one image wide.
+	 */
+	private class BandImage implements RenderedImage {
+		private TreeController<?> m_controller;
+		// where the anchor is in the image
+		private long m_x;
+		private long m_y;
+		private ColorModel m_colorModel;
+		private SampleModel m_sampleModel;
+
+		// the band last asked for, and the one after it being drawn ahead
+		private int m_band;
+		private BufferedImage m_image;
+		private int m_nextBand;
+		private Future<BufferedImage> m_next;
+		private TreePainter m_painter;
+		private TreePainter m_nextPainter;
+
+		// work done for the whole image
+		private FrameStats m_stats;
+
+		BandImage(TreeController<?> controller, long x, long y) {
+			m_controller = controller;
+			m_x = x;
+			m_y = y;
+			BufferedImage probe = new BufferedImage(1, 1,
+					BufferedImage.TYPE_INT_RGB);
+			m_colorModel = probe.getColorModel();
+			m_sampleModel = probe.getSampleModel()
+					.createCompatibleSampleModel(m_width, m_bandHeight);
+			m_band = -1;
+			m_nextBand = -1;
+			m_painter = new TreePainter(controller.getLabelCache());
+			m_nextPainter = new TreePainter(controller.getLabelCache());
+			m_stats = new FrameStats();
+		}
+
+		/**
+		 * Get a band, drawing it if it is not the last one asked for, and
+		 * start drawing the one after it.
+		 */
+		private synchronized BufferedImage getBand(int band) {
+			if (band == m_band)
+				return m_image;
+			BufferedImage image;
+			if (band == m_nextBand) {
+				image = join(m_next);
+				m_stats.add(m_nextPainter.getStats());
+			} else {
+				join(m_next);
+				image = drawBand(band, m_painter);
+				m_stats.add(m_painter.getStats());
+			}
+			m_band = band;
+			m_image = image;
+			m_next = null;
+			m_nextBand = -1;
+			if (band + 1 < getNumYTiles()) {
+				final int next = band + 1;
+				m_nextBand = next;
+				m_next = ForkJoinPool.commonPool().submit(
+						new Callable<BufferedImage>() {
+							@Override
+							public BufferedImage call() {
+								return drawBand(next, m_nextPainter);
+							}
+						});
+			}
+			return image;
+		}
+
+		private BufferedImage join(Future<BufferedImage> future) {
+			if (future == null)
+				return null;
+			try {
+				return future.get();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(exc);
+			} catch (ExecutionException exc) {
+				throw new IllegalStateException(exc.getCause());
+			}
+		}
+
+		private BufferedImage drawBand(int band, TreePainter painter) {
+			int top = band * m_bandHeight;
+			int height = Math.min(m_bandHeight, m_height - top);
+			BufferedImage image = new BufferedImage(m_width, height,
+					BufferedImage.TYPE_INT_RGB);
+			Graphics g = image.getGraphics();
+			g.setColor(m_background);
+			g.fillRect(0, 0, m_width, height);
+			m_controller.drawTile(g, painter, m_x, m_y - top, m_width,
+					height);
+			painter.getStats().countTile();
+			g.dispose();
+			return image;
+		}
+
+		/**
+		 * Waits for any band still being drawn ahead.
+		 */
+		synchronized void finish() {
+			join(m_next);
+			m_next = null;
+		}
+
+		@Override
+		public Raster getTile(int tileX, int tileY) {
+			int top = tileY * m_bandHeight;
+			return getBand(tileY).getRaster().createChild(0, 0, m_width,
+					Math.min(m_bandHeight, m_height - top), 0, top, null);
+		}
+
+		@Override
+		public Raster getData(Rectangle rect) {
+			int firstBand = rect.y / m_bandHeight;
+			int lastBand = (rect.y + rect.height - 1) / m_bandHeight;
+			if (firstBand == lastBand) {
+				int top = firstBand * m_bandHeight;
+				return getBand(firstBand).getRaster().createChild(rect.x,
+						rect.y - top, rect.width, rect.height, rect.x, rect.y,
+						null);
+			}
+			WritableRaster raster = m_colorModel
+					.createCompatibleWritableRaster(rect.width, rect.height)
+					.createWritableTranslatedChild(rect.x, rect.y);
+			copyData(raster);
+			return raster;
+		}
+
+		@Override
+		public Raster getData() {
+			return getData(new Rectangle(0, 0, m_width, m_height));
+		}
+
+		@Override
+		public WritableRaster copyData(WritableRaster raster) {
+			if (raster == null)
+				raster = m_colorModel.createCompatibleWritableRaster(m_width,
+						m_height);
+			Rectangle bounds = raster.getBounds().intersection(
+					new Rectangle(0, 0, m_width, m_height));
+			if (bounds.isEmpty())
+				return raster;
+			int firstBand = bounds.y / m_bandHeight;
+			int lastBand = (bounds.y + bounds.height - 1) / m_bandHeight;
+			for (int band = firstBand; band <= lastBand; band++) {
+				Rectangle part = bounds.intersection(new Rectangle(0, band
+						* m_bandHeight, m_width, m_bandHeight));
+				raster.setRect(getData(part));
+			}
+			return raster;
+		}
+
+		@Override
+		public Vector<RenderedImage> getSources() {
+			return null;
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return java.awt.Image.UndefinedProperty;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return m_colorModel;
+		}
+
+		@Override
+		public SampleModel getSampleModel() {
+			return m_sampleModel;
+		}
+
+		@Override
+		public int getWidth() {
+			return m_width;
+		}
+
+		@Override
+		public int getHeight() {
+			return m_height;
+		}
+
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+
+		@Override
+		public int getNumXTiles() {
+			return 1;
+		}
+
+		@Override
+		public int getNumYTiles() {
+			return (m_height + m_bandHeight - 1) / m_bandHeight;
+		}
+
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+
+		@Override
+		public int getTileWidth() {
+			return m_width;
+		}
+
+		@Override
+		public int getTileHeight() {
+			return m_bandHeight;
+		}
+
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package treevisualizer;
+
+import java.util.Arrays;
+
+/**
+ * A read-only tree stored in flat arrays instead of one object per node.
+ * Nodes are identified by int ids numbered breadth first from the root (id
+ * 0), so the children of a node have consecutive ids starting at its first
+ * child. Each node costs four ints: parent, first child, child count and name
+ * id. Names are shared through a NameTable.
+ *
+ * Use CompactTree in place of Tree for large trees that are only viewed. On
+ * Test09BigTree.tree it needs about 1.8MB of heap where Tree&lt;String&gt;
+ * needs about 11.6MB. It is an IntTreeModel, so its ids are not boxed to lay
+ * it out and draw it either.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class CompactTree implements IntTreeModel {
+	private int[] m_parent;
+	private int[] m_firstChild;
+	private int[] m_childCount;
+	private int[] m_nameId;
+	private NameTable m_names;
+
+	private CompactTree(int[] parent, int[] firstChild, int[] childCount,
+			int[] nameId, NameTable names) {
+		m_parent = parent;
+		m_firstChild = firstChild;
+		m_childCount = childCount;
+		m_nameId = nameId;
+		m_names = names;
+	}
+
+	/**
+	 * Get the number of nodes in the tree.
+	 *
+	 * @return - Number of nodes. Ids are in the range [0, size()).
+	 */
+	public int size() {
+		return m_parent.length;
+	}
+
+	/**
+	 * Get the parent of a node.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - Id of the parent, or -1 for the root
+	 */
+	public int getParent(int node) {
+		return m_parent[node];
+	}
+
+	/**
+	 * Get the first child of a node. The other children follow it in order.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - Id of the first child. Only meaningful if the node has
+	 *         children.
+	 */
+	public int getFirstChild(int node) {
+		return m_firstChild[node];
+	}
+
+	/**
+	 * Get the number of children of a node.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - Number of children
+	 */
+	@Override
+	public int getChildCount(int node) {
+		return m_childCount[node];
+	}
+
+	/**
+	 * Get the name id of a node.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - Id of the node's name in getNameTable()
+	 */
+	public int getNameId(int node) {
+		return m_nameId[node];
+	}
+
+	/**
+	 * Get the name of a node.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - The node's name
+	 */
+	public String getName(int node) {
+		return m_names.getName(m_nameId[node]);
+	}
+
+	/**
+	 * Get the table of distinct names used by the tree.
+	 *
+	 * @return - The name table
+	 */
+	public NameTable getNameTable() {
+		return m_names;
+	}
+
+	@Override
+	public int getRootId() {
+		return size() == 0 ? -1 : 0;
+	}
+
+	@Override
+	public int getChildId(int node, int index) {
+		return m_firstChild[node] + index;
+	}
+
+	@Override
+	public String getLabel(int node) {
+		return getName(node);
+	}
+
+	@Override
+	public boolean isShared(int node) {
+		// every node has exactly one parent
+		return false;
+	}
+
+	@Override
+	public Integer getRoot() {
+		return size() == 0 ? null : 0;
+	}
+
+	@Override
+	public int getChildCount(Integer node) {
+		return m_childCount[node];
+	}
+
+	@Override
+	public Integer getChild(Integer node, int index) {
+		return m_firstChild[node] + index;
+	}
+
+	@Override
+	public String getLabel(Integer node) {
+		return getName(node);
+	}
+
+	@Override
+	public boolean isShared(Integer node) {
+		return false;
+	}
+
+	/**
+	 * Builds a CompactTree from the tags reported by a TreeParser. Nodes are
+	 * recorded in file order while parsing and renumbered breadth first when
+	 * the tree is built.
+	 */
+	public static class Builder implements TreeParser.Handler {
+		private int[] m_parent;
+		private int[] m_nameId;
+		private int m_size;
+		private int m_currentNode;
+		private NameTable m_names;
+
+		/**
+		 * Creates an empty Builder.
+		 */
+		public Builder() {
+			m_parent = new int[1024];
+			m_nameId = new int[1024];
+			m_currentNode = -1;
+			m_names = new NameTable();
+		}
+
+		@Override
+		public void openTag(TreeParser.Tag tag) {
+			addNode(m_names.intern(tag.getBytes(), tag.getNameStart(),
+					tag.getNameEnd()));
+		}
+
+		@Override
+		public void closeTag(TreeParser.Tag tag) {
+			m_currentNode = m_parent[m_currentNode];
+		}
+
+		/**
+		 * Adds a node as the last child of the current node and makes it the
+		 * current node.
+		 *
+		 * @param nameId
+		 *            - Id of the node's name in getNameTable()
+		 */
+		public void addNode(int nameId) {
+			if (m_size == m_parent.length) {
+				m_parent = Arrays.copyOf(m_parent, m_size * 2);
+				m_nameId = Arrays.copyOf(m_nameId, m_size * 2);
+			}
+			m_parent[m_size] = m_currentNode;
+			m_nameId[m_size] = nameId;
+			m_currentNode = m_size++;
+		}
+
+		/**
+		 * Get the table names are interned into.
+		 *
+		 * @return - The name table
+		 */
+		public NameTable getNameTable() {
+			return m_names;
+		}
+
+		/**
+		 * Creates the CompactTree from the nodes added so far.
+		 *
+		 * @return - The tree
+		 */
+		public CompactTree build() {
+			int size = m_size;
+
+			// children of each node, in file order
+			int[] childCount = new int[size];
+			for (int i = 1; i < size; i++)
+				childCount[m_parent[i]]++;
+			int[] childStart = new int[size + 1];
+			for (int i = 0; i < size; i++)
+				childStart[i + 1] = childStart[i] + childCount[i];
+			int[] children = new int[Math.max(size - 1, 0)];
+			int[] fill = Arrays.copyOf(childStart, size);
+			for (int i = 1; i < size; i++)
+				children[fill[m_parent[i]]++] = i;
+
+			// breadth first order, so siblings get consecutive ids
+			int[] order = new int[size];
+			int[] newId = new int[size];
+			int[] firstChild = new int[size];
+			int tail = size == 0 ? 0 : 1;
+			for (int head = 0; head < tail; head++) {
+				int node = order[head];
+				newId[node] = head;
+				firstChild[head] = tail;
+				for (int i = childStart[node]; i < childStart[node + 1]; i++)
+					order[tail++] = children[i];
+			}
+
+			int[] parent = new int[size];
+			int[] compactChildCount = new int[size];
+			int[] nameId = new int[size];
+			for (int id = 0; id < size; id++) {
+				int node = order[id];
+				parent[id] = node == 0 ? -1 : newId[m_parent[node]];
+				compactChildCount[id] = childCount[node];
+				nameId[id] = m_nameId[node];
+			}
+			return new CompactTree(parent, firstChild, compactChildCount,
+					nameId, m_names);
+		}
+	}
+}
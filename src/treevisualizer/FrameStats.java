@@ -0,0 +1,188 @@
+package treevisualizer;
+
+/**
+ * Counts of the work done to draw one frame of a tree, and how long it took.
+ * A frame drawn from cached tiles only counts the tiles drawn for it and the
+ * pass that finds the circles on the screen.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class FrameStats {
+	private long m_frameNanos;
+	private int m_nodesVisited;
+	private int m_nodesCulled;
+	private int m_ovalsDrawn;
+	private int m_glyphsDrawn;
+	private int m_labelsDrawn;
+	private int m_labelsPending;
+	private int m_edgesTested;
+	private int m_maxDepth;
+	private int m_tilesDrawn;
+
+	/**
+	 * Creates an empty FrameStats.
+	 */
+	public FrameStats() {
+	}
+
+	/**
+	 * Creates a copy of another FrameStats.
+	 *
+	 * @param stats
+	 *            - The stats to copy
+	 */
+	public FrameStats(FrameStats stats) {
+		m_frameNanos = stats.m_frameNanos;
+		add(stats);
+	}
+
+	/**
+	 * Sets every count back to zero.
+	 */
+	void clear() {
+		m_frameNanos = 0;
+		m_nodesVisited = 0;
+		m_nodesCulled = 0;
+		m_ovalsDrawn = 0;
+		m_glyphsDrawn = 0;
+		m_labelsDrawn = 0;
+		m_labelsPending = 0;
+		m_edgesTested = 0;
+		m_maxDepth = 0;
+		m_tilesDrawn = 0;
+	}
+
+	/**
+	 * Adds the counts of another pass over the tree to these, keeping the
+	 * deeper of the two depths. The frame time is left alone.
+	 *
+	 * @param stats
+	 *            - Counts to add
+	 */
+	void add(FrameStats stats) {
+		m_nodesVisited += stats.m_nodesVisited;
+		m_nodesCulled += stats.m_nodesCulled;
+		m_ovalsDrawn += stats.m_ovalsDrawn;
+		m_glyphsDrawn += stats.m_glyphsDrawn;
+		m_labelsDrawn += stats.m_labelsDrawn;
+		m_labelsPending += stats.m_labelsPending;
+		m_edgesTested += stats.m_edgesTested;
+		m_maxDepth = Math.max(m_maxDepth, stats.m_maxDepth);
+		m_tilesDrawn += stats.m_tilesDrawn;
+	}
+
+	void setFrameNanos(long nanos) {
+		m_frameNanos = nanos;
+	}
+
+	void countNode(int depth) {
+		m_nodesVisited++;
+		if (depth > m_maxDepth)
+			m_maxDepth = depth;
+	}
+
+	void countCulled() {
+		m_nodesCulled++;
+	}
+
+	void countOval() {
+		m_ovalsDrawn++;
+	}
+
+	void countGlyph() {
+		m_glyphsDrawn++;
+	}
+
+	void countLabel() {
+		m_labelsDrawn++;
+	}
+
+	void countLabelPending() {
+		m_labelsPending++;
+	}
+
+	void countEdgeTest() {
+		m_edgesTested++;
+	}
+
+	void countTile() {
+		m_tilesDrawn++;
+	}
+
+	/**
+	 * Get the time taken to draw the frame.
+	 *
+	 * @return - Frame time in nanoseconds
+	 */
+	public long getFrameNanos() {
+		return m_frameNanos;
+	}
+
+	/**
+	 * Get the number of nodes looked at, including the ones culled.
+	 */
+	public int getNodesVisited() {
+		return m_nodesVisited;
+	}
+
+	/**
+	 * Get the number of nodes skipped, along with everything below them,
+	 * because they were entirely off the screen.
+	 */
+	public int getNodesCulled() {
+		return m_nodesCulled;
+	}
+
+	/**
+	 * Get the number of nodes drawn as circles.
+	 */
+	public int getOvalsDrawn() {
+		return m_ovalsDrawn;
+	}
+
+	/**
+	 * Get the number of subtrees drawn as a single glyph instead of node by
+	 * node.
+	 */
+	public int getGlyphsDrawn() {
+		return m_glyphsDrawn;
+	}
+
+	/**
+	 * Get the number of node labels drawn.
+	 */
+	public int getLabelsDrawn() {
+		return m_labelsDrawn;
+	}
+
+	/**
+	 * Get the number of labels left out, or drawn roughly, because they were
+	 * still being shaped in the background.
+	 */
+	public int getLabelsPending() {
+		return m_labelsPending;
+	}
+
+	/**
+	 * Get the number of times an edge was tested against a side of the
+	 * screen, for edges with both ends off the screen.
+	 */
+	public int getEdgesTested() {
+		return m_edgesTested;
+	}
+
+	/**
+	 * Get the depth of the deepest node looked at, counted from the root.
+	 */
+	public int getMaxDepth() {
+		return m_maxDepth;
+	}
+
+	/**
+	 * Get the number of cached tiles drawn for the frame.
+	 */
+	public int getTilesDrawn() {
+		return m_tilesDrawn;
+	}
+}
@@ -0,0 +1,273 @@
+package treevisualizer;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the screen holding the circles drawn in a frame, for
+ * finding the circle under a point without testing every circle. Each circle
+ * is listed in every cell its bounding box touches.
+ *
+ * The grid also keeps where every layout entry visited in the frame was
+ * drawn from, whether or not its circle was on the screen, so the part of
+ * the screen a change to the tree covers can be found.
+ *
+ * Circles, entries and cell lists are kept in flat arrays that are reused
+ * from frame to frame.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+class HitGrid {
+	private static int kCellSize = 32;
+
+	private int m_width;
+	private int m_height;
+	private int m_columns;
+	private int m_rows;
+
+	private int m_circleCount;
+	private int[] m_x;
+	private int[] m_y;
+	private int[] m_radius;
+	// nodes drawn, or their ids where m_node is null
+	private Object[] m_node;
+	private int[] m_nodeId;
+
+	// each cell is a linked list of references to circles, newest first
+	private int[] m_cellHead;
+	private int m_refCount;
+	private int[] m_refCircle;
+	private int[] m_refNext;
+
+	// entries visited, with the position and zoom they were drawn at
+	private int m_entryCount;
+	private int[] m_entry;
+	private double[] m_entryX;
+	private double[] m_entryY;
+	private double[] m_entryZoom;
+
+	/**
+	 * Creates an empty grid covering a screen.
+	 *
+	 * @param width
+	 *            - Width of the screen
+	 * @param height
+	 *            - Height of the screen
+	 */
+	HitGrid(int width, int height) {
+		m_width = width;
+		m_height = height;
+		m_columns = (width + kCellSize - 1) / kCellSize + 1;
+		m_rows = (height + kCellSize - 1) / kCellSize + 1;
+		m_cellHead = new int[m_columns * m_rows];
+		m_x = new int[256];
+		m_y = new int[256];
+		m_radius = new int[256];
+		m_node = new Object[256];
+		m_nodeId = new int[256];
+		m_refCircle = new int[1024];
+		m_refNext = new int[1024];
+		m_entry = new int[256];
+		m_entryX = new double[256];
+		m_entryY = new double[256];
+		m_entryZoom = new double[256];
+		clear();
+	}
+
+	/**
+	 * Removes every circle.
+	 */
+	void clear() {
+		Arrays.fill(m_node, 0, m_circleCount, null);
+		m_circleCount = 0;
+		m_refCount = 0;
+		m_entryCount = 0;
+		Arrays.fill(m_cellHead, -1);
+	}
+
+	int getWidth() {
+		return m_width;
+	}
+
+	int getHeight() {
+		return m_height;
+	}
+
+	int size() {
+		return m_circleCount;
+	}
+
+	/**
+	 * Adds a circle. Circles added later are drawn on top of earlier ones.
+	 *
+	 * @param x
+	 *            - X coordinate of the center
+	 * @param y
+	 *            - Y coordinate of the center
+	 * @param radius
+	 *            - Radius of the circle
+	 * @param node
+	 *            - The tree node drawn as the circle
+	 */
+	void add(int x, int y, int radius, Object node) {
+		int circle = add(x, y, radius);
+		m_node[circle] = node;
+	}
+
+	/**
+	 * Adds a circle drawn for a node of an IntTreeModel.
+	 *
+	 * @param x
+	 *            - X coordinate of the center
+	 * @param y
+	 *            - Y coordinate of the center
+	 * @param radius
+	 *            - Radius of the circle
+	 * @param node
+	 *            - Id of the tree node drawn as the circle
+	 */
+	void add(int x, int y, int radius, int node) {
+		int circle = add(x, y, radius);
+		m_node[circle] = null;
+		m_nodeId[circle] = node;
+	}
+
+	private int add(int x, int y, int radius) {
+		if (m_circleCount == m_x.length) {
+			int capacity = m_circleCount * 2;
+			m_x = Arrays.copyOf(m_x, capacity);
+			m_y = Arrays.copyOf(m_y, capacity);
+			m_radius = Arrays.copyOf(m_radius, capacity);
+			m_node = Arrays.copyOf(m_node, capacity);
+			m_nodeId = Arrays.copyOf(m_nodeId, capacity);
+		}
+		int circle = m_circleCount++;
+		m_x[circle] = x;
+		m_y[circle] = y;
+		m_radius[circle] = radius;
+
+		// the center can be far off the screen for large circles
+		int column1 = getCell((long) x - radius, m_columns);
+		int column2 = getCell((long) x + radius, m_columns);
+		int row1 = getCell((long) y - radius, m_rows);
+		int row2 = getCell((long) y + radius, m_rows);
+		for (int row = row1; row <= row2; row++) {
+			for (int column = column1; column <= column2; column++) {
+				if (m_refCount == m_refCircle.length) {
+					m_refCircle = Arrays.copyOf(m_refCircle, m_refCount * 2);
+					m_refNext = Arrays.copyOf(m_refNext, m_refCount * 2);
+				}
+				int cell = row * m_columns + column;
+				m_refCircle[m_refCount] = circle;
+				m_refNext[m_refCount] = m_cellHead[cell];
+				m_cellHead[cell] = m_refCount++;
+			}
+		}
+		return circle;
+	}
+
+	/**
+	 * Finds the circle containing a point. If several do, the one added first
+	 * (beneath the others) is returned.
+	 *
+	 * @param x
+	 *            - X coordinate of the point
+	 * @param y
+	 *            - Y coordinate of the point
+	 * @return - Index of the circle, or -1 if the point is not in a circle
+	 */
+	int find(int x, int y) {
+		if (x < 0 || y < 0)
+			return -1;
+		int column = x / kCellSize;
+		int row = y / kCellSize;
+		if (column >= m_columns || row >= m_rows)
+			return -1;
+
+		int found = -1;
+		for (int ref = m_cellHead[row * m_columns + column]; ref >= 0; ref = m_refNext[ref]) {
+			int circle = m_refCircle[ref];
+			long deltaX = x - m_x[circle];
+			long deltaY = y - m_y[circle];
+			long radius = m_radius[circle];
+			// the list is newest first, so keep going to find the oldest
+			if (deltaX * deltaX + deltaY * deltaY < radius * radius)
+				found = circle;
+		}
+		return found;
+	}
+
+	int getX(int circle) {
+		return m_x[circle];
+	}
+
+	int getY(int circle) {
+		return m_y[circle];
+	}
+
+	int getRadius(int circle) {
+		return m_radius[circle];
+	}
+
+	Object getNode(int circle) {
+		if (m_node[circle] == null)
+			return Integer.valueOf(m_nodeId[circle]);
+		return m_node[circle];
+	}
+
+	/**
+	 * Adds a layout entry that was visited, and not culled, in the frame.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @param x
+	 *            - X coordinate of its center
+	 * @param y
+	 *            - Y coordinate of its center
+	 * @param zoom
+	 *            - Zoom factor it was drawn at, relative to its size
+	 */
+	void addEntry(int entry, double x, double y, double zoom) {
+		if (m_entryCount == m_entry.length) {
+			int capacity = m_entryCount * 2;
+			m_entry = Arrays.copyOf(m_entry, capacity);
+			m_entryX = Arrays.copyOf(m_entryX, capacity);
+			m_entryY = Arrays.copyOf(m_entryY, capacity);
+			m_entryZoom = Arrays.copyOf(m_entryZoom, capacity);
+		}
+		m_entry[m_entryCount] = entry;
+		m_entryX[m_entryCount] = x;
+		m_entryY[m_entryCount] = y;
+		m_entryZoom[m_entryCount] = zoom;
+		m_entryCount++;
+	}
+
+	int getEntryCount() {
+		return m_entryCount;
+	}
+
+	int getEntry(int index) {
+		return m_entry[index];
+	}
+
+	double getEntryX(int index) {
+		return m_entryX[index];
+	}
+
+	double getEntryY(int index) {
+		return m_entryY[index];
+	}
+
+	double getEntryZoom(int index) {
+		return m_entryZoom[index];
+	}
+
+	/**
+	 * Get the cell a coordinate falls in, clamped to the grid.
+	 */
+	private static int getCell(long coordinate, int cells) {
+		if (coordinate < 0)
+			return 0;
+		return (int) Math.min(coordinate / kCellSize, cells - 1);
+	}
+}
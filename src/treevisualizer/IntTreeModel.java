@@ -0,0 +1,59 @@
+package treevisualizer;
+
+/**
+ * A TreeModel whose nodes are identified by int ids. TreeLayout reads the
+ * tree through the int methods and keeps the ids in an int array, so drawing
+ * never boxes them; the Integer methods of TreeModel are only used where a
+ * node is handed out as an Object, like TreeController.getNodeAtPoint().
+ * Both kinds of method must describe the same tree.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public interface IntTreeModel extends TreeModel<Integer> {
+	/**
+	 * Get the root node.
+	 *
+	 * @return - Id of the root node, or -1 if the tree is empty
+	 */
+	int getRootId();
+
+	/**
+	 * Get the number of children a node has.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - Number of children
+	 */
+	int getChildCount(int node);
+
+	/**
+	 * Get a child of a node.
+	 *
+	 * @param node
+	 *            - Id of the parent node
+	 * @param index
+	 *            - Index of the child, in the range [0, getChildCount(node))
+	 * @return - Id of the child node
+	 */
+	int getChildId(int node, int index);
+
+	/**
+	 * Get the text displayed for a node.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - The node's label
+	 */
+	String getLabel(int node);
+
+	/**
+	 * Returns true if a node can be reached from the root in more than one
+	 * way. See TreeModel.isShared().
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - True if the node may appear in more than one place
+	 */
+	boolean isShared(int node);
+}
@@ -0,0 +1,434 @@
+package treevisualizer;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shaped node labels, kept between frames. Each label is shaped into a
+ * GlyphVector once in a measuring font, which gives its width, and again for
+ * every size it is drawn at, rounded to a quarter point. Trees repeat the
+ * same few names constantly, so most labels on the screen are found already
+ * shaped. The least recently used labels are dropped once there are too
+ * many.
+ *
+ * In asynchronous mode a missing label is queued and shaped on a background
+ * thread instead of the one drawing, and listeners are told when the queue
+ * has been worked through so the labels can be drawn again. The most recently
+ * asked for labels are shaped first, and the oldest dropped if too many are
+ * waiting, as they are from frames long gone. Otherwise labels are shaped as
+ * they are asked for.
+ *
+ * All methods may be called from any thread.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+class LabelCache {
+	private static Font kLabelFont = new Font("Arial", Font.PLAIN, 32);
+	// labels are measured at this size, then scaled to fit their circle
+	static float kMeasureSize = 20.0f;
+	private static Font kMeasureFont = kLabelFont.deriveFont(kMeasureSize);
+	// measured labels use fractional advances, so they are as wide as the
+	// label at any size once scaled
+	private static FontRenderContext kMeasureContext = new FontRenderContext(
+			null, false, true);
+	// sizes are rounded to a quarter point
+	private static int kSizeSteps = 4;
+	private static int kMaxMeasuredLabels = 16384;
+	private static int kMaxSizedLabels = 8192;
+	private static int kMaxQueuedLabels = 4096;
+	// how long the shaping thread waits for more work before it stops
+	private static long kIdleMillis = 1000;
+
+	private Map<String, Label> m_measured;
+	private Map<SizedKey, Label> m_sized;
+	private FontRenderContext m_context;
+	// reused to look sized labels up without allocating
+	private SizedKey m_probe;
+
+	private boolean m_async;
+	// labels waiting to be shaped, newest first. Measured labels are shaped
+	// before sized ones, as nothing can be drawn without them.
+	private ArrayDeque<String> m_measureQueue;
+	private ArrayDeque<SizedKey> m_sizeQueue;
+	private Set<Object> m_queued;
+	private boolean m_shaping;
+	private List<ReadyListener> m_listeners;
+
+	/**
+	 * Creates an empty LabelCache that shapes labels as they are asked for.
+	 */
+	LabelCache() {
+		m_measured = new LinkedHashMap<String, Label>(256, 0.75f, true);
+		m_sized = new LinkedHashMap<SizedKey, Label>(256, 0.75f, true);
+		m_context = new FontRenderContext(null, false, false);
+		m_probe = new SizedKey(null, 0);
+		m_measureQueue = new ArrayDeque<String>();
+		m_sizeQueue = new ArrayDeque<SizedKey>();
+		m_queued = new HashSet<Object>();
+		m_listeners = new ArrayList<ReadyListener>();
+	}
+
+	/**
+	 * Set whether missing labels are shaped on a background thread. Labels
+	 * already queued are still shaped when this is turned off.
+	 *
+	 * @param async
+	 *            - True to return null for missing labels and shape them in
+	 *            the background, false to shape them before returning
+	 */
+	synchronized void setAsync(boolean async) {
+		m_async = async;
+	}
+
+	synchronized boolean isAsync() {
+		return m_async;
+	}
+
+	/**
+	 * Set the context labels are drawn in, which sized labels are shaped
+	 * for. Changing it drops the sized labels.
+	 *
+	 * @param context
+	 *            - Font render context of the graphics being drawn on
+	 */
+	synchronized void setContext(FontRenderContext context) {
+		if (!context.equals(m_context)) {
+			m_context = context;
+			m_sized.clear();
+			m_sizeQueue.clear();
+			m_queued.clear();
+			m_queued.addAll(m_measureQueue);
+		}
+	}
+
+	/**
+	 * Get a label in the measuring font.
+	 *
+	 * @param text
+	 *            - Text of the label
+	 * @return - The label, or null if it is being shaped in the background
+	 */
+	Label getMeasured(String text) {
+		Label label;
+		synchronized (this) {
+			label = m_measured.get(text);
+			if (label != null)
+				return label;
+			if (m_async) {
+				if (m_queued.add(text)) {
+					m_measureQueue.addFirst(text);
+					trimQueue();
+				}
+				startShaping();
+				return null;
+			}
+		}
+		label = new Label(text, kMeasureFont, kMeasureContext);
+		synchronized (this) {
+			putMeasured(text, label);
+		}
+		return label;
+	}
+
+	/**
+	 * Get a label at a size, rounded to the nearest quarter point.
+	 *
+	 * @param text
+	 *            - Text of the label
+	 * @param size
+	 *            - Font size in points
+	 * @return - The label, or null if it is being shaped in the background
+	 */
+	Label getSized(String text, float size) {
+		int step = Math.round(size * kSizeSteps);
+		Label label;
+		FontRenderContext context;
+		synchronized (this) {
+			m_probe.set(text, step);
+			label = m_sized.get(m_probe);
+			if (label != null)
+				return label;
+			if (m_async) {
+				SizedKey key = new SizedKey(text, step);
+				if (m_queued.add(key)) {
+					m_sizeQueue.addFirst(key);
+					trimQueue();
+				}
+				startShaping();
+				return null;
+			}
+			context = m_context;
+		}
+		label = new Label(text, kLabelFont.deriveFont((float) step
+				/ kSizeSteps), context);
+		synchronized (this) {
+			if (context == m_context)
+				putSized(new SizedKey(text, step), label);
+		}
+		return label;
+	}
+
+	/**
+	 * Adds a listener to be told when labels shaped in the background are
+	 * ready. It is called on the shaping thread.
+	 *
+	 * @param listener
+	 *            - The listener to add
+	 */
+	synchronized void addReadyListener(ReadyListener listener) {
+		m_listeners.add(listener);
+	}
+
+	synchronized void removeReadyListener(ReadyListener listener) {
+		m_listeners.remove(listener);
+	}
+
+	private void putMeasured(String text, Label label) {
+		m_measured.put(text, label);
+		if (m_measured.size() > kMaxMeasuredLabels)
+			removeEldest(m_measured);
+	}
+
+	private void putSized(SizedKey key, Label label) {
+		m_sized.put(key, label);
+		if (m_sized.size() > kMaxSizedLabels)
+			removeEldest(m_sized);
+	}
+
+	private static void removeEldest(Map<?, ?> map) {
+		map.remove(map.keySet().iterator().next());
+	}
+
+	/**
+	 * Drops the oldest queued labels once too many are waiting.
+	 */
+	private void trimQueue() {
+		while (m_measureQueue.size() + m_sizeQueue.size() > kMaxQueuedLabels) {
+			if (!m_sizeQueue.isEmpty())
+				m_queued.remove(m_sizeQueue.removeLast());
+			else
+				m_queued.remove(m_measureQueue.removeLast());
+		}
+	}
+
+	/**
+	 * Starts the shaping thread if it is not running, or wakes it.
+	 */
+	private void startShaping() {
+		if (m_shaping) {
+			notifyAll();
+			return;
+		}
+		m_shaping = true;
+		Thread thread = new Thread(new Shaper(), "TreeVisualizer labels");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.NORM_PRIORITY - 1);
+		thread.start();
+	}
+
+	/**
+	 * Waits up to kIdleMillis for labels to be queued.
+	 *
+	 * @return - False if none were, and the shaping thread should stop
+	 */
+	private synchronized boolean waitForLabels() {
+		if (m_measureQueue.isEmpty() && m_sizeQueue.isEmpty()) {
+			try {
+				wait(kIdleMillis);
+			} catch (InterruptedException exc) {
+				// stop if there is still nothing to do
+			}
+		}
+		if (m_measureQueue.isEmpty() && m_sizeQueue.isEmpty()) {
+			m_shaping = false;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Shapes the next queued label, without holding the lock while it is
+	 * shaped.
+	 *
+	 * @return - False if the queue is empty
+	 */
+	private boolean shapeNext() {
+		String text;
+		SizedKey key = null;
+		FontRenderContext context;
+		synchronized (this) {
+			if (!m_measureQueue.isEmpty()) {
+				text = m_measureQueue.removeFirst();
+				m_queued.remove(text);
+			} else if (!m_sizeQueue.isEmpty()) {
+				key = m_sizeQueue.removeFirst();
+				m_queued.remove(key);
+				text = key.m_text;
+			} else {
+				return false;
+			}
+			context = m_context;
+		}
+
+		if (key == null) {
+			Label label = new Label(text, kMeasureFont, kMeasureContext);
+			synchronized (this) {
+				putMeasured(text, label);
+			}
+		} else {
+			Label label = new Label(text, kLabelFont.deriveFont((float) key.m_step
+					/ kSizeSteps), context);
+			synchronized (this) {
+				if (context == m_context)
+					putSized(key, label);
+			}
+		}
+		return true;
+	}
+
+	private void fireLabelsReady() {
+		List<ReadyListener> listeners;
+		synchronized (this) {
+			listeners = new ArrayList<ReadyListener>(m_listeners);
+		}
+		for (ReadyListener listener : listeners)
+			listener.labelsReady();
+	}
+
+	/**
+	 * Shapes queued labels until the queue stays empty for kIdleMillis, and
+	 * tells the listeners each time it runs dry.
+	 */
+	private class Shaper implements Runnable {
+		@Override
+		public void run() {
+			while (waitForLabels()) {
+				while (shapeNext())
+					;
+				fireLabelsReady();
+			}
+		}
+	}
+
+	/**
+	 * Receives word from a LabelCache that labels it was asked for have been
+	 * shaped.
+	 */
+	interface ReadyListener {
+		/**
+		 * Called on the shaping thread once the labels waiting to be shaped
+		 * are ready.
+		 */
+		void labelsReady();
+	}
+
+	/**
+	 * A label shaped in one font.
+	 */
+	static class Label {
+		private GlyphVector m_glyphs;
+		private float m_width;
+		private float m_ascent;
+
+		private Label(String text, Font font, FontRenderContext context) {
+			char[] chars = text.toCharArray();
+			m_glyphs = font.layoutGlyphVector(context, chars, 0, chars.length,
+					Font.LAYOUT_LEFT_TO_RIGHT);
+			m_width = (float) m_glyphs.getLogicalBounds().getWidth();
+			m_ascent = font.getLineMetrics(chars, 0, chars.length, context)
+					.getAscent();
+		}
+
+		/**
+		 * Get the advance of the label.
+		 *
+		 * @return - Width in pixels at its font size
+		 */
+		float getWidth() {
+			return m_width;
+		}
+
+		/**
+		 * Get the ascent of the label's font.
+		 *
+		 * @return - Height above the baseline in pixels at its font size
+		 */
+		float getAscent() {
+			return m_ascent;
+		}
+
+		/**
+		 * Draws the label with its baseline starting at a point.
+		 *
+		 * @param g
+		 *            - The graphics context in which to paint
+		 * @param x
+		 *            - X coordinate of the start of the baseline
+		 * @param y
+		 *            - Y coordinate of the baseline
+		 */
+		void draw(Graphics2D g, float x, float y) {
+			g.drawGlyphVector(m_glyphs, x, y);
+		}
+
+		/**
+		 * Draws the label scaled, with its baseline starting at a point.
+		 *
+		 * @param g
+		 *            - The graphics context in which to paint
+		 * @param x
+		 *            - X coordinate of the start of the baseline
+		 * @param y
+		 *            - Y coordinate of the baseline
+		 * @param scale
+		 *            - Scale of the label
+		 */
+		void draw(Graphics2D g, float x, float y, double scale) {
+			g.translate(x, y);
+			g.scale(scale, scale);
+			g.drawGlyphVector(m_glyphs, 0.0f, 0.0f);
+			g.scale(1.0 / scale, 1.0 / scale);
+			g.translate(-x, -y);
+		}
+	}
+
+	/**
+	 * Key of a sized label: its text and size in quarter points.
+	 */
+	private static class SizedKey {
+		private String m_text;
+		private int m_step;
+
+		private SizedKey(String text, int step) {
+			set(text, step);
+		}
+
+		private void set(String text, int step) {
+			m_text = text;
+			m_step = step;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SizedKey))
+				return false;
+			SizedKey key = (SizedKey) o;
+			return key.m_step == m_step && key.m_text.equals(m_text);
+		}
+
+		@Override
+		public int hashCode() {
+			return m_text.hashCode() * 31 + m_step;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package treevisualizer;
+
+import java.util.Arrays;
+
+/**
+ * A path through a TreeLayout from the root entry down to one entry, which
+ * picks out one place that entry appears. Entries of shared nodes are reached
+ * in more than one way, so an entry alone does not say where it is.
+ *
+ * The path also keeps the direction of the edge into its last entry, which
+ * is the sum of the relative angles of every entry on it.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+class LayoutPath {
+	private int[] m_entries;
+	private int m_length;
+	private double m_cos;
+	private double m_sin;
+
+	/**
+	 * Creates a path holding only the root entry.
+	 */
+	LayoutPath() {
+		m_entries = new int[64];
+		reset();
+	}
+
+	/**
+	 * Shortens the path to only the root entry.
+	 */
+	void reset() {
+		m_entries[0] = 0;
+		m_length = 1;
+		m_cos = 1.0;
+		m_sin = 0.0;
+	}
+
+	/**
+	 * Get the number of entries on the path.
+	 *
+	 * @return - The length, which is one more than the depth of the last entry
+	 */
+	int size() {
+		return m_length;
+	}
+
+	/**
+	 * Get an entry on the path.
+	 *
+	 * @param depth
+	 *            - Depth of the entry, where the root is 0
+	 * @return - The entry
+	 */
+	int get(int depth) {
+		return m_entries[depth];
+	}
+
+	int getLast() {
+		return m_entries[m_length - 1];
+	}
+
+	/**
+	 * Get the cosine of the direction of the edge into the last entry, on the
+	 * screen.
+	 */
+	double getCos() {
+		return m_cos;
+	}
+
+	/**
+	 * Get the sine of the direction of the edge into the last entry, on the
+	 * screen.
+	 */
+	double getSin() {
+		return m_sin;
+	}
+
+	/**
+	 * Makes this path a copy of another.
+	 *
+	 * @param path
+	 *            - The path to copy
+	 */
+	void set(LayoutPath path) {
+		if (m_entries.length < path.m_length)
+			m_entries = new int[path.m_entries.length];
+		System.arraycopy(path.m_entries, 0, m_entries, 0, path.m_length);
+		m_length = path.m_length;
+		m_cos = path.m_cos;
+		m_sin = path.m_sin;
+	}
+
+	/**
+	 * Returns true if another path goes through the same entries.
+	 *
+	 * @param path
+	 *            - The other path
+	 * @return - True if the paths lead to the same place
+	 */
+	boolean isSame(LayoutPath path) {
+		if (path.m_length != m_length)
+			return false;
+		for (int depth = m_length - 1; depth >= 0; depth--) {
+			if (path.m_entries[depth] != m_entries[depth])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a child of the last entry to the end of the path.
+	 *
+	 * @param entry
+	 *            - The child entry
+	 * @param layout
+	 *            - Layout the entry is from
+	 */
+	void add(int entry, TreeLayout layout) {
+		if (m_length == m_entries.length)
+			m_entries = Arrays.copyOf(m_entries, m_length * 2);
+		m_entries[m_length++] = entry;
+		// turn by the child's angle from its parent
+		double cos = layout.getCos(entry);
+		double sin = layout.getSin(entry);
+		double pathCos = m_cos * cos - m_sin * sin;
+		m_sin = m_sin * cos + m_cos * sin;
+		m_cos = pathCos;
+	}
+
+	/**
+	 * Removes entries from the end of the path.
+	 *
+	 * @param length
+	 *            - Number of entries to keep, at least 1
+	 * @param layout
+	 *            - Layout the entries are from
+	 */
+	void truncate(int length, TreeLayout layout) {
+		while (m_length > length) {
+			int entry = m_entries[--m_length];
+			// turn back by the entry's angle from its parent
+			double cos = layout.getCos(entry);
+			double sin = layout.getSin(entry);
+			double pathCos = m_cos * cos + m_sin * sin;
+			m_sin = m_sin * cos - m_cos * sin;
+			m_cos = pathCos;
+		}
+		if (m_length == 1) {
+			// the root's direction is known exactly
+			m_cos = 1.0;
+			m_sin = 0.0;
+		}
+	}
+
+	/**
+	 * Get the position of each entry on the path among its parent's children,
+	 * which stays the same when the tree is laid out again.
+	 *
+	 * @param layout
+	 *            - Layout the entries are from
+	 * @return - Child indexes, starting with the root's child
+	 */
+	int[] getIndexes(TreeLayout layout) {
+		int[] indexes = new int[m_length - 1];
+		for (int depth = 1; depth < m_length; depth++) {
+			indexes[depth - 1] = m_entries[depth]
+					- layout.getFirstChild(m_entries[depth - 1]);
+		}
+		return indexes;
+	}
+
+	/**
+	 * Makes this path follow child indexes from the root, stopping early at
+	 * an entry that does not have the next child.
+	 *
+	 * @param indexes
+	 *            - Child indexes, as returned by getIndexes()
+	 * @param layout
+	 *            - Layout to find the entries in, which must not be empty
+	 * @return - Number of indexes followed
+	 */
+	int setIndexes(int[] indexes, TreeLayout layout) {
+		reset();
+		for (int i = 0; i < indexes.length; i++) {
+			int entry = getLast();
+			if (indexes[i] >= layout.getChildCount(entry))
+				return i;
+			add(layout.getFirstChild(entry) + indexes[i], layout);
+		}
+		return indexes.length;
+	}
+}
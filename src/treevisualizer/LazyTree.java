@@ -0,0 +1,289 @@
+package treevisualizer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A tree that reads its nodes from a .treeb file only when they are asked
+ * for. Opening it only reads the file's index, so a tree bigger than memory
+ * can be browsed; nodes are created the first time the renderer looks at
+ * their parent's children.
+ *
+ * To stay within a node budget, the children of nodes that have not been
+ * used for a while are dropped again and re-read from the file if they are
+ * needed later. The renderer asks for the root once per frame, so each call
+ * to getRoot() counts as one frame when deciding how long a node has gone
+ * unused. Nodes below the draw threshold or off the screen are never asked
+ * for their children, so they age out. Anything holding on to nodes, such as
+ * a layout, should let go of them when it is told that nodes were dropped,
+ * or the dropped nodes stay in memory alongside the ones read again.
+ *
+ * Close the tree when it is no longer viewed, to let go of the mapping of
+ * its .treeb file.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class LazyTree implements TreeModel<LazyTree.Node>, Closeable {
+	public static int kDefaultNodeBudget = 1000000;
+	// frames a node can go unused before its children may be dropped
+	private static int kEvictAge = 60;
+
+	private TreeBinaryFile m_file;
+	private Node m_root;
+	private int m_nodeBudget;
+	private int m_nodeCount;
+	private int m_frame;
+	// the last frame evict() ran in
+	private int m_evictFrame;
+	private List<EvictionListener> m_listeners;
+
+	/**
+	 * Creates a LazyTree over a .treeb file.
+	 *
+	 * @param file
+	 *            - The opened .treeb file
+	 */
+	public LazyTree(TreeBinaryFile file) {
+		m_file = file;
+		m_nodeBudget = kDefaultNodeBudget;
+		m_listeners = new ArrayList<EvictionListener>();
+		if (file.getNodeCount() > 0) {
+			m_root = new Node(0, file.getChildCount(0));
+			m_nodeCount = 1;
+		}
+	}
+
+	/**
+	 * Opens a .tree file as a LazyTree, writing its .treeb companion first if
+	 * it does not have an up to date one.
+	 *
+	 * @param treeFile
+	 *            - The .tree file
+	 * @return - The LazyTree
+	 * @throws IOException
+	 *             - Throws if a file could not be read or written.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static LazyTree open(File treeFile) throws IOException {
+		return open(treeFile, null);
+	}
+
+	/**
+	 * Opens a .tree file as a LazyTree, writing its .treeb companion first if
+	 * it does not have an up to date one, and reports the progress of writing
+	 * it.
+	 *
+	 * @param treeFile
+	 *            - The .tree file
+	 * @param listener
+	 *            - Told how much of the .tree file has been read while the
+	 *            companion is written, or null. Throwing from progress()
+	 *            stops the write.
+	 * @return - The LazyTree
+	 * @throws IOException
+	 *             - Throws if a file could not be read or written.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static LazyTree open(File treeFile,
+			TreeLoader.LoadListener<?> listener) throws IOException {
+		TreeBinaryFile binary = TreeBinaryFile.openCompanion(treeFile);
+		if (binary == null)
+			binary = TreeBinaryFile.open(TreeBinaryFile.writeCompanion(
+					treeFile, listener));
+		return new LazyTree(binary);
+	}
+
+	/**
+	 * Lets go of the tree's .treeb file. Nothing more can be read from the
+	 * tree once it is closed. See TreeBinaryFile.close().
+	 */
+	@Override
+	public void close() {
+		m_file.close();
+	}
+
+	/**
+	 * Adds a listener to be told whenever nodes are dropped.
+	 *
+	 * @param listener
+	 *            - The listener to add
+	 */
+	public void addEvictionListener(EvictionListener listener) {
+		m_listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addEvictionListener().
+	 *
+	 * @param listener
+	 *            - The listener to remove
+	 */
+	public void removeEvictionListener(EvictionListener listener) {
+		m_listeners.remove(listener);
+	}
+
+	/**
+	 * Set the number of nodes kept in memory before unused subtrees are
+	 * dropped. Nodes in use in the current frame are never dropped, so the
+	 * budget can be exceeded when that many nodes are visible at once.
+	 *
+	 * @param nodeBudget
+	 *            - Number of nodes to keep in memory
+	 */
+	public void setNodeBudget(int nodeBudget) {
+		m_nodeBudget = nodeBudget;
+	}
+
+	/**
+	 * Get the number of nodes currently in memory.
+	 *
+	 * @return - Number of nodes read from the file and not yet dropped
+	 */
+	public int getNodeCount() {
+		return m_nodeCount;
+	}
+
+	@Override
+	public Node getRoot() {
+		m_frame++;
+		if (m_nodeCount > m_nodeBudget)
+			evict();
+		if (m_root != null)
+			m_root.m_lastUsed = m_frame;
+		return m_root;
+	}
+
+	@Override
+	public int getChildCount(Node node) {
+		node.m_lastUsed = m_frame;
+		return node.m_childCount;
+	}
+
+	@Override
+	public Node getChild(Node node, int index) {
+		node.m_lastUsed = m_frame;
+		if (node.m_children == null)
+			loadChildren(node);
+		Node child = node.m_children[index];
+		child.m_lastUsed = m_frame;
+		return child;
+	}
+
+	@Override
+	public String getLabel(Node node) {
+		return m_file.getName(node.m_index);
+	}
+
+	@Override
+	public boolean isShared(Node node) {
+		// a .treeb file gives every node exactly one parent
+		return false;
+	}
+
+	private void loadChildren(Node node) {
+		// once a frame has evicted, what is left is in use, so evicting again
+		// would walk the whole tree for nothing
+		if (m_nodeCount + node.m_childCount > m_nodeBudget
+				&& m_evictFrame != m_frame)
+			evict();
+
+		int[] indexes = m_file.getChildren(node.m_index);
+		Node[] children = new Node[indexes.length];
+		for (int i = 0; i < indexes.length; i++)
+			children[i] = new Node(indexes[i], m_file.getChildCount(indexes[i]));
+		node.m_children = children;
+		m_nodeCount += children.length;
+	}
+
+	/**
+	 * Drops the children of nodes that have gone unused the longest until the
+	 * tree is back under three quarters of its budget.
+	 */
+	private void evict() {
+		m_evictFrame = m_frame;
+		int target = m_nodeBudget / 4 * 3;
+		int dropped = 0;
+		for (int age = kEvictAge; age >= 1 && m_nodeCount > target; age /= 2) {
+			int count = evict(m_root, m_frame - age);
+			m_nodeCount -= count;
+			dropped += count;
+		}
+		if (dropped > 0) {
+			for (EvictionListener listener : m_listeners)
+				listener.nodesEvicted();
+		}
+	}
+
+	/**
+	 * Drops the children of every node in a subtree last used before a
+	 * frame.
+	 *
+	 * @return - Number of nodes dropped
+	 */
+	private int evict(Node node, int usedBefore) {
+		if (node.m_children == null)
+			return 0;
+		if (node.m_lastUsed < usedBefore) {
+			int count = countLoaded(node) - 1;
+			node.m_children = null;
+			return count;
+		}
+		int count = 0;
+		for (Node child : node.m_children)
+			count += evict(child, usedBefore);
+		return count;
+	}
+
+	private static int countLoaded(Node node) {
+		int count = 1;
+		if (node.m_children != null) {
+			for (Node child : node.m_children)
+				count += countLoaded(child);
+		}
+		return count;
+	}
+
+	/**
+	 * Told when a LazyTree drops nodes. Called on the thread that asked for
+	 * the node that made the tree go over its budget, which may be in the
+	 * middle of drawing a frame.
+	 */
+	public interface EvictionListener {
+		/**
+		 * Called after the children of some nodes are dropped. Dropped nodes
+		 * are never handed out again; asking for the children of their
+		 * parents reads new nodes from the file.
+		 */
+		void nodesEvicted();
+	}
+
+	/**
+	 * A node of a LazyTree.
+	 */
+	public static class Node {
+		private int m_index;
+		private int m_childCount;
+		private Node[] m_children;
+		private int m_lastUsed;
+
+		private Node(int index, int childCount) {
+			m_index = index;
+			m_childCount = childCount;
+		}
+
+		/**
+		 * Get the number of this node in the .treeb file.
+		 *
+		 * @return - The node number
+		 */
+		public int getIndex() {
+			return m_index;
+		}
+	}
+}
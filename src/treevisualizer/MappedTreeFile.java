@@ -0,0 +1,220 @@
+package treevisualizer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory mapping of a .tree file. Files larger than a single
+ * mapping allows are mapped as several consecutive segments.
+ *
+ * Node names can be kept as Name references into the mapping, so the text of
+ * the file lives in the page cache instead of on the heap and is only decoded
+ * when a name is actually used.
+ *
+ * Close the file once nothing reads from it. Java cannot unmap a file
+ * directly, so closing only drops the buffers, and the mapping is released
+ * when they are garbage collected. Until then the file stays open, which on
+ * Windows stops it from being replaced or deleted, so unmapping is best
+ * effort.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class MappedTreeFile implements Closeable {
+	// a MappedByteBuffer is indexed by int, so segments must stay under 2GB
+	private static long kSegmentSize = 1L << 30;
+
+	// null once closed
+	private MappedByteBuffer[] m_segments;
+	private long m_length;
+
+	/**
+	 * Maps a file into memory.
+	 *
+	 * @param file
+	 *            - File to be mapped
+	 * @throws IOException
+	 *             - Throws if the file could not be opened or mapped.
+	 */
+	public MappedTreeFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			m_length = channel.size();
+			int segmentCount = (int) ((m_length + kSegmentSize - 1) / kSegmentSize);
+			m_segments = new MappedByteBuffer[segmentCount];
+			for (int i = 0; i < segmentCount; i++) {
+				long position = i * kSegmentSize;
+				long size = Math.min(kSegmentSize, m_length - position);
+				m_segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						position, size);
+			}
+		} finally {
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get the size of the mapped file.
+	 *
+	 * @return - Length of the file in bytes
+	 */
+	public long length() {
+		return m_length;
+	}
+
+	/**
+	 * Get the number of segments the file is mapped as.
+	 *
+	 * @return - Number of segments
+	 */
+	public int getSegmentCount() {
+		return getSegments().length;
+	}
+
+	/**
+	 * Get a segment of the mapping. Segments are in file order and each
+	 * starts where the previous one ends.
+	 *
+	 * @param index
+	 *            - Index of the segment
+	 * @return - A new buffer over the segment, positioned at its start
+	 */
+	public ByteBuffer getSegment(int index) {
+		return getSegments()[index].duplicate();
+	}
+
+	/**
+	 * Reads a single byte of the file.
+	 *
+	 * @param offset
+	 *            - Byte offset in the file
+	 * @return - The byte
+	 */
+	public byte get(long offset) {
+		return getSegments()[(int) (offset / kSegmentSize)]
+				.get((int) (offset % kSegmentSize));
+	}
+
+	/**
+	 * Get a range of the file as a series of buffers, one per segment it
+	 * spans.
+	 *
+	 * @param start
+	 *            - Byte offset of the start of the range
+	 * @param end
+	 *            - Byte offset after the end of the range
+	 * @return - Buffers over the range, in file order
+	 */
+	public ByteBuffer[] getRange(long start, long end) {
+		int first = (int) (start / kSegmentSize);
+		int last = (int) (Math.max(start, end - 1) / kSegmentSize);
+		ByteBuffer[] buffers = new ByteBuffer[last - first + 1];
+		for (int i = first; i <= last; i++) {
+			ByteBuffer segment = getSegment(i);
+			long segmentStart = i * kSegmentSize;
+			long segmentEnd = Math.min(end, segmentStart + segment.limit());
+			segment.limit((int) (segmentEnd - segmentStart));
+			segment.position((int) (Math.max(start, segmentStart) - segmentStart));
+			buffers[i - first] = segment;
+		}
+		return buffers;
+	}
+
+	/**
+	 * Decodes a range of the file as text.
+	 *
+	 * @param offset
+	 *            - Byte offset of the text in the file
+	 * @param length
+	 *            - Length of the text in bytes
+	 * @return - The decoded text
+	 */
+	public String decode(long offset, int length) {
+		byte[] bytes = new byte[length];
+		int copied = 0;
+		while (copied < length) {
+			long position = offset + copied;
+			ByteBuffer segment = getSegment((int) (position / kSegmentSize));
+			segment.position((int) (position % kSegmentSize));
+			int count = Math.min(length - copied, segment.remaining());
+			segment.get(bytes, copied, count);
+			copied += count;
+		}
+		return new String(bytes, TreeParser.kCharset);
+	}
+
+	/**
+	 * Drops the mapping, so it can be released when the buffers are garbage
+	 * collected. Buffers already got from getSegment() or getRange() stay
+	 * readable, and keep the mapping, until they are dropped too. Reading the
+	 * file after it is closed throws IllegalStateException, as does decoding
+	 * a Name in it.
+	 */
+	@Override
+	public void close() {
+		m_segments = null;
+	}
+
+	private MappedByteBuffer[] getSegments() {
+		MappedByteBuffer[] segments = m_segments;
+		if (segments == null)
+			throw new IllegalStateException("The mapped file is closed");
+		return segments;
+	}
+
+	/**
+	 * Creates a reference to text in the file that is decoded on demand.
+	 *
+	 * @param offset
+	 *            - Byte offset of the text in the file
+	 * @param length
+	 *            - Length of the text in bytes
+	 * @return - A Name for the text
+	 */
+	public Name createName(long offset, int length) {
+		return new Name(this, offset, length);
+	}
+
+	/**
+	 * Node name stored as a position in a MappedTreeFile. The text is decoded
+	 * every time it is asked for and never kept.
+	 */
+	public static class Name implements CharSequence {
+		private MappedTreeFile m_file;
+		private long m_offset;
+		private int m_length;
+
+		private Name(MappedTreeFile file, long offset, int length) {
+			m_file = file;
+			m_offset = offset;
+			m_length = length;
+		}
+
+		@Override
+		public int length() {
+			return toString().length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return toString().charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return m_file.decode(m_offset, m_length);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package treevisualizer;
+
+import java.util.Arrays;
+
+/**
+ * Interns node names. Each distinct name is stored and decoded once and
+ * identified by a small integer id, so trees that repeat the same names
+ * millions of times only keep one copy of each.
+ *
+ * Names are looked up by their encoded bytes, so interning a name that is
+ * already in the table does not allocate.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class NameTable {
+	private String[] m_names;
+	private byte[][] m_bytes;
+	private int[] m_hashes;
+	private int m_size;
+
+	// open addressing table of name id + 1, 0 marks an empty slot
+	private int[] m_slots;
+
+	/**
+	 * Creates an empty NameTable.
+	 */
+	public NameTable() {
+		m_names = new String[16];
+		m_bytes = new byte[16][];
+		m_hashes = new int[16];
+		m_slots = new int[32];
+	}
+
+	/**
+	 * Returns the id of an encoded name, adding it to the table if it is not
+	 * already there.
+	 *
+	 * @param bytes
+	 *            - Buffer holding the name encoded with TreeParser.kCharset
+	 * @param start
+	 *            - Index of the first byte of the name
+	 * @param end
+	 *            - Index after the last byte of the name
+	 * @return - Id of the name
+	 */
+	public int intern(byte[] bytes, int start, int end) {
+		int hash = 1;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + bytes[i];
+
+		int mask = m_slots.length - 1;
+		int slot = mix(hash) & mask;
+		while (m_slots[slot] != 0) {
+			int id = m_slots[slot] - 1;
+			if (m_hashes[id] == hash && equalBytes(m_bytes[id], bytes, start, end))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+
+		int id = add(Arrays.copyOfRange(bytes, start, end), hash);
+		m_slots[slot] = id + 1;
+		if (m_size * 2 > m_slots.length)
+			rehash();
+		return id;
+	}
+
+	/**
+	 * Returns the id of a name, adding it to the table if it is not already
+	 * there.
+	 *
+	 * @param name
+	 *            - The name
+	 * @return - Id of the name
+	 */
+	public int intern(String name) {
+		byte[] bytes = name.getBytes(TreeParser.kCharset);
+		return intern(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Get a name by its id.
+	 *
+	 * @param id
+	 *            - Id returned by intern()
+	 * @return - The name
+	 */
+	public String getName(int id) {
+		return m_names[id];
+	}
+
+	/**
+	 * Get the number of distinct names in the table. Ids are in the range
+	 * [0, size()).
+	 *
+	 * @return - Number of names
+	 */
+	public int size() {
+		return m_size;
+	}
+
+	private int add(byte[] bytes, int hash) {
+		if (m_size == m_names.length) {
+			int capacity = m_size * 2;
+			m_names = Arrays.copyOf(m_names, capacity);
+			m_bytes = Arrays.copyOf(m_bytes, capacity);
+			m_hashes = Arrays.copyOf(m_hashes, capacity);
+		}
+		m_names[m_size] = new String(bytes, TreeParser.kCharset);
+		m_bytes[m_size] = bytes;
+		m_hashes[m_size] = hash;
+		return m_size++;
+	}
+
+	private void rehash() {
+		m_slots = new int[m_slots.length * 2];
+		int mask = m_slots.length - 1;
+		for (int id = 0; id < m_size; id++) {
+			int slot = mix(m_hashes[id]) & mask;
+			while (m_slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			m_slots[slot] = id + 1;
+		}
+	}
+
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		return hash * 0x85ebca6b;
+	}
+
+	private static boolean equalBytes(byte[] name, byte[] bytes, int start,
+			int end) {
+		if (name.length != end - start)
+			return false;
+		for (int i = 0; i < name.length; i++) {
+			if (name[i] != bytes[start + i])
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,164 @@
+package treevisualizer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the times of the most recent frames drawn by a TreeController, and
+ * the counts of the last one, for percentiles of the frame time. Add it to a
+ * controller with addFrameListener(), and register() it to read it over JMX.
+ * Frames are recorded on the drawing thread and may be read from any other.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class RenderMetrics implements TreeController.FrameListener,
+		RenderMetricsMXBean {
+	// percentiles are taken over this many of the latest frames
+	private static int kWindowSize = 512;
+
+	private long[] m_frameNanos;
+	private long m_frameCount;
+	private FrameStats m_last;
+	// reused to sort the window for percentiles
+	private long[] m_sorted;
+
+	/**
+	 * Creates RenderMetrics with no frames recorded.
+	 */
+	public RenderMetrics() {
+		m_frameNanos = new long[kWindowSize];
+		m_sorted = new long[kWindowSize];
+		m_last = new FrameStats();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as
+	 * "treevisualizer:type=RenderMetrics".
+	 *
+	 * @throws JMException
+	 *             - If the name is taken or the metrics can't be registered.
+	 */
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, new ObjectName(
+				"treevisualizer:type=RenderMetrics"));
+	}
+
+	@Override
+	public synchronized void frameDrawn(FrameStats stats) {
+		m_frameNanos[(int) (m_frameCount % kWindowSize)] = stats
+				.getFrameNanos();
+		m_frameCount++;
+		m_last = stats;
+	}
+
+	/**
+	 * Get the counts for the last frame recorded.
+	 *
+	 * @return - The last frame's stats, or empty stats before the first
+	 */
+	public synchronized FrameStats getLastFrame() {
+		return m_last;
+	}
+
+	@Override
+	public synchronized long getFrameCount() {
+		return m_frameCount;
+	}
+
+	@Override
+	public double getFrameTimeP50() {
+		return getFrameTimePercentile(50.0);
+	}
+
+	@Override
+	public double getFrameTimeP95() {
+		return getFrameTimePercentile(95.0);
+	}
+
+	@Override
+	public double getFrameTimeP99() {
+		return getFrameTimePercentile(99.0);
+	}
+
+	/**
+	 * Get a percentile of the times of the recent frames, the time that that
+	 * percent of them took no longer than.
+	 *
+	 * @param percent
+	 *            - Percentile, from 0 to 100
+	 * @return - The frame time in milliseconds, or 0.0 if no frames were drawn
+	 */
+	public synchronized double getFrameTimePercentile(double percent) {
+		int count = (int) Math.min(m_frameCount, kWindowSize);
+		if (count == 0)
+			return 0.0;
+		System.arraycopy(m_frameNanos, 0, m_sorted, 0, count);
+		Arrays.sort(m_sorted, 0, count);
+		// nearest rank
+		int rank = (int) Math.ceil(percent / 100.0 * count);
+		int index = Math.min(Math.max(rank - 1, 0), count - 1);
+		return m_sorted[index] / 1e6;
+	}
+
+	@Override
+	public synchronized double getLastFrameTime() {
+		return m_last.getFrameNanos() / 1e6;
+	}
+
+	@Override
+	public synchronized int getLastNodesVisited() {
+		return m_last.getNodesVisited();
+	}
+
+	@Override
+	public synchronized int getLastNodesCulled() {
+		return m_last.getNodesCulled();
+	}
+
+	@Override
+	public synchronized int getLastOvalsDrawn() {
+		return m_last.getOvalsDrawn();
+	}
+
+	@Override
+	public synchronized int getLastGlyphsDrawn() {
+		return m_last.getGlyphsDrawn();
+	}
+
+	@Override
+	public synchronized int getLastLabelsDrawn() {
+		return m_last.getLabelsDrawn();
+	}
+
+	@Override
+	public synchronized int getLastLabelsPending() {
+		return m_last.getLabelsPending();
+	}
+
+	@Override
+	public synchronized int getLastEdgesTested() {
+		return m_last.getEdgesTested();
+	}
+
+	@Override
+	public synchronized int getLastMaxDepth() {
+		return m_last.getMaxDepth();
+	}
+
+	@Override
+	public synchronized int getLastTilesDrawn() {
+		return m_last.getTilesDrawn();
+	}
+
+	@Override
+	public synchronized void reset() {
+		m_frameCount = 0;
+		m_last = new FrameStats();
+	}
+}
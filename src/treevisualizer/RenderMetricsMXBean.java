@@ -0,0 +1,58 @@
+package treevisualizer;
+
+/**
+ * Management interface of RenderMetrics, so frame times and counts can be
+ * watched from JConsole or any other JMX client.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public interface RenderMetricsMXBean {
+	/**
+	 * Get the number of frames drawn since the metrics were created or reset.
+	 */
+	long getFrameCount();
+
+	/**
+	 * Get the median time of the recent frames, in milliseconds.
+	 */
+	double getFrameTimeP50();
+
+	/**
+	 * Get the 95th percentile time of the recent frames, in milliseconds.
+	 */
+	double getFrameTimeP95();
+
+	/**
+	 * Get the 99th percentile time of the recent frames, in milliseconds.
+	 */
+	double getFrameTimeP99();
+
+	/**
+	 * Get the time of the last frame, in milliseconds.
+	 */
+	double getLastFrameTime();
+
+	int getLastNodesVisited();
+
+	int getLastNodesCulled();
+
+	int getLastOvalsDrawn();
+
+	int getLastGlyphsDrawn();
+
+	int getLastLabelsDrawn();
+
+	int getLastLabelsPending();
+
+	int getLastEdgesTested();
+
+	int getLastMaxDepth();
+
+	int getLastTilesDrawn();
+
+	/**
+	 * Forgets every frame drawn so far.
+	 */
+	void reset();
+}
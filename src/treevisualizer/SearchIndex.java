@@ -0,0 +1,496 @@
+package treevisualizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Index of the node names in a tree, for finding nodes by name. Each node is
+ * given an id, in preorder, and the index keeps its name and where it is
+ * among its parent's children, so the path to it from the root can be found
+ * without the tree. Names are interned, so a tree that repeats the same few
+ * names keeps each once, with the list of nodes that have it.
+ *
+ * Queries match any part of a name, ignoring case. The distinct names are
+ * indexed by the trigrams (runs of three characters) in them, so a query of
+ * three or more characters only checks the names that have its rarest
+ * trigram. Shorter queries check every distinct name. Exact matches come
+ * first, then names that start with the query, then the rest, shorter names
+ * first.
+ *
+ * Nodes can be added to the end of the tree while it is searched. All
+ * methods are synchronized. An index made by buildLater() indexes its tree
+ * the first time it is used, so the names of a tree that is never searched
+ * are never copied onto the heap.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class SearchIndex {
+	private static int kTrigramLength = 3;
+
+	// per node, by id
+	private int m_size;
+	private int[] m_parents;
+	private int[] m_childIndexes;
+	private int[] m_childCounts;
+	private int[] m_nameIds;
+
+	// per distinct name, by name id
+	private Map<String, Integer> m_nameIdsByName;
+	private List<String> m_names;
+	private List<String> m_lowerNames;
+	private List<IntList> m_nameNodes;
+	// name ids by the trigrams of the lowercase names
+	private TrigramMap m_trigrams;
+	// the tree to index on first use, from buildLater()
+	private TreeModel<?> m_unindexedTree;
+
+	/**
+	 * Creates an empty SearchIndex.
+	 */
+	public SearchIndex() {
+		m_parents = new int[64];
+		m_childIndexes = new int[64];
+		m_childCounts = new int[64];
+		m_nameIds = new int[64];
+		m_nameIdsByName = new HashMap<String, Integer>();
+		m_names = new ArrayList<String>();
+		m_lowerNames = new ArrayList<String>();
+		m_nameNodes = new ArrayList<IntList>();
+		m_trigrams = new TrigramMap();
+	}
+
+	/**
+	 * Indexes every node of a tree. A shared node is indexed once, at the
+	 * first place it appears in preorder.
+	 *
+	 * @param model
+	 *            - The tree, which must not change while it is indexed
+	 * @return - The index
+	 */
+	public static <N> SearchIndex build(TreeModel<N> model) {
+		SearchIndex index = new SearchIndex();
+		index.indexTree(model);
+		return index;
+	}
+
+	/**
+	 * Creates an index of a tree that is only built the first time the index
+	 * is used, on the thread that uses it. Until then the index holds nothing
+	 * but the tree. Used for trees whose names are kept off the heap, such as
+	 * memory mapped ones, which are often viewed without being searched.
+	 *
+	 * @param model
+	 *            - The tree, which must not change until it is indexed
+	 * @return - The index
+	 */
+	public static SearchIndex buildLater(TreeModel<?> model) {
+		SearchIndex index = new SearchIndex();
+		index.m_unindexedTree = model;
+		return index;
+	}
+
+	/**
+	 * Builds the index now if it was made by buildLater() and has not been
+	 * used yet.
+	 */
+	private void indexTree() {
+		if (m_unindexedTree == null)
+			return;
+		TreeModel<?> model = m_unindexedTree;
+		m_unindexedTree = null;
+		indexTree(model);
+	}
+
+	private <N> void indexTree(TreeModel<N> model) {
+		N root = model.getRoot();
+		if (root == null)
+			return;
+		Map<N, Boolean> visited = new IdentityHashMap<N, Boolean>();
+		// nodes still to index, with their parent's id and child index
+		List<N> nodes = new ArrayList<N>();
+		IntList parents = new IntList();
+		IntList childIndexes = new IntList();
+		nodes.add(root);
+		parents.add(-1);
+		childIndexes.add(0);
+		while (!nodes.isEmpty()) {
+			int last = nodes.size() - 1;
+			N node = nodes.remove(last);
+			int parent = parents.m_values[last];
+			int childIndex = childIndexes.m_values[last];
+			parents.m_size = last;
+			childIndexes.m_size = last;
+			if (model.isShared(node) && visited.put(node, Boolean.TRUE) != null)
+				continue;
+
+			int childCount = model.getChildCount(node);
+			int id = add(parent, childIndex, model.getLabel(node));
+			m_childCounts[id] = childCount;
+			// pushed last to first, so they come off in order
+			for (int i = childCount - 1; i >= 0; i--) {
+				nodes.add(model.getChild(node, i));
+				parents.add(id);
+				childIndexes.add(i);
+			}
+		}
+	}
+
+	/**
+	 * Adds a node after every node already indexed, as the last child of
+	 * its parent.
+	 *
+	 * @param parent
+	 *            - Id of the parent, or -1 for the root
+	 * @param name
+	 *            - Name of the node
+	 * @return - Id of the new node
+	 */
+	public synchronized int add(int parent, String name) {
+		indexTree();
+		int childIndex = 0;
+		if (parent >= 0)
+			childIndex = m_childCounts[parent]++;
+		return add(parent, childIndex, name);
+	}
+
+	private synchronized int add(int parent, int childIndex, String name) {
+		if (m_size == m_parents.length) {
+			int length = m_size * 2;
+			m_parents = Arrays.copyOf(m_parents, length);
+			m_childIndexes = Arrays.copyOf(m_childIndexes, length);
+			m_childCounts = Arrays.copyOf(m_childCounts, length);
+			m_nameIds = Arrays.copyOf(m_nameIds, length);
+		}
+		int id = m_size++;
+		m_parents[id] = parent;
+		m_childIndexes[id] = childIndex;
+		m_childCounts[id] = 0;
+		int nameId = internName(name);
+		m_nameIds[id] = nameId;
+		m_nameNodes.get(nameId).add(id);
+		return id;
+	}
+
+	/**
+	 * Finds the id of a name, adding it and its trigrams if it is new.
+	 */
+	private int internName(String name) {
+		Integer nameId = m_nameIdsByName.get(name);
+		if (nameId != null)
+			return nameId;
+		nameId = m_names.size();
+		m_nameIdsByName.put(name, nameId);
+		m_names.add(name);
+		String lowerName = name.toLowerCase(Locale.ROOT);
+		m_lowerNames.add(lowerName);
+		m_nameNodes.add(new IntList());
+		for (int i = 0; i + kTrigramLength <= lowerName.length(); i++) {
+			IntList names = m_trigrams.getOrAdd(getTrigram(lowerName, i));
+			// a name repeating a trigram is only listed once
+			if (names.m_size == 0 || names.m_values[names.m_size - 1] != nameId)
+				names.add(nameId);
+		}
+		return nameId;
+	}
+
+	private static long getTrigram(String text, int start) {
+		return ((long) text.charAt(start) << 32)
+				| ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+	}
+
+	/**
+	 * Finds the nodes whose names contain some text, ignoring case.
+	 *
+	 * @param query
+	 *            - Text to find
+	 * @param maxResults
+	 *            - Most node ids to return
+	 * @return - Ids of matching nodes, best matches first, and the number of
+	 *         nodes that matched in all
+	 */
+	public synchronized Results search(String query, int maxResults) {
+		indexTree();
+		String lowerQuery = query.toLowerCase(Locale.ROOT);
+		if (lowerQuery.isEmpty())
+			return new Results(new int[0], 0);
+
+		// check the names with the query's rarest trigram, or every name
+		IntList candidates = null;
+		for (int i = 0; i + kTrigramLength <= lowerQuery.length(); i++) {
+			IntList names = m_trigrams.get(getTrigram(lowerQuery, i));
+			if (names == null)
+				return new Results(new int[0], 0);
+			if (candidates == null || names.m_size < candidates.m_size)
+				candidates = names;
+		}
+		// keep the best maxResults names, as each has at least one node.
+		// The heap's head is the worst of them.
+		PriorityQueue<Match> best = new PriorityQueue<Match>();
+		int total = 0;
+		int candidateCount = candidates != null ? candidates.m_size : m_names
+				.size();
+		for (int i = 0; i < candidateCount; i++) {
+			int nameId = candidates != null ? candidates.m_values[i] : i;
+			String name = m_lowerNames.get(nameId);
+			if (!name.contains(lowerQuery))
+				continue;
+			total += m_nameNodes.get(nameId).m_size;
+			Match match = new Match(nameId, name, getRank(name, lowerQuery));
+			if (best.size() < maxResults) {
+				best.add(match);
+			} else if (maxResults > 0 && best.peek().compareTo(match) < 0) {
+				best.poll();
+				best.add(match);
+			}
+		}
+		List<Match> matches = new ArrayList<Match>(best);
+		Collections.sort(matches, Collections.reverseOrder());
+
+		int[] nodes = new int[Math.min(total, maxResults)];
+		int count = 0;
+		for (int i = 0; i < matches.size() && count < nodes.length; i++) {
+			IntList nameNodes = m_nameNodes.get(matches.get(i).m_nameId);
+			int copied = Math.min(nameNodes.m_size, nodes.length - count);
+			System.arraycopy(nameNodes.m_values, 0, nodes, count, copied);
+			count += copied;
+		}
+		return new Results(nodes, total);
+	}
+
+	private static int getRank(String name, String query) {
+		if (name.length() == query.length())
+			return 0;
+		return name.startsWith(query) ? 1 : 2;
+	}
+
+	/**
+	 * Get the path to a node from the root.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - Child indexes on the way down from the root, as taken by
+	 *         TreeController.locateNode()
+	 */
+	public synchronized int[] getPath(int node) {
+		indexTree();
+		int depth = getDepth(node);
+		int[] path = new int[depth];
+		for (int i = depth - 1; i >= 0; i--) {
+			path[i] = m_childIndexes[node];
+			node = m_parents[node];
+		}
+		return path;
+	}
+
+	/**
+	 * Get the depth of a node.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - Number of ancestors, which is 0 for the root
+	 */
+	public synchronized int getDepth(int node) {
+		indexTree();
+		int depth = 0;
+		while (m_parents[node] >= 0) {
+			node = m_parents[node];
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * Get the parent of a node.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - Id of the parent, or -1 for the root
+	 */
+	public synchronized int getParent(int node) {
+		indexTree();
+		return m_parents[node];
+	}
+
+	/**
+	 * Get the name of a node.
+	 *
+	 * @param node
+	 *            - Id of the node
+	 * @return - The name it was indexed with
+	 */
+	public synchronized String getName(int node) {
+		indexTree();
+		return m_names.get(m_nameIds[node]);
+	}
+
+	/**
+	 * Get the number of nodes indexed.
+	 *
+	 * @return - Number of nodes
+	 */
+	public synchronized int size() {
+		indexTree();
+		return m_size;
+	}
+
+	/**
+	 * Get the number of distinct names indexed.
+	 *
+	 * @return - Number of names
+	 */
+	public synchronized int getNameCount() {
+		indexTree();
+		return m_names.size();
+	}
+
+	/**
+	 * Nodes found by search().
+	 */
+	public static class Results {
+		private int[] m_nodes;
+		private int m_total;
+
+		private Results(int[] nodes, int total) {
+			m_nodes = nodes;
+			m_total = total;
+		}
+
+		/**
+		 * Get the number of node ids returned.
+		 *
+		 * @return - At most the maxResults asked for
+		 */
+		public int getCount() {
+			return m_nodes.length;
+		}
+
+		/**
+		 * Get a node id.
+		 *
+		 * @param index
+		 *            - Index of the result, best first
+		 * @return - Id of the node
+		 */
+		public int getNode(int index) {
+			return m_nodes[index];
+		}
+
+		/**
+		 * Get the number of nodes that matched, including those not
+		 * returned.
+		 *
+		 * @return - Number of matching nodes
+		 */
+		public int getTotal() {
+			return m_total;
+		}
+	}
+
+	/**
+	 * A name that matched a query. Better matches compare greater.
+	 */
+	private static class Match implements Comparable<Match> {
+		private int m_nameId;
+		private String m_name;
+		private int m_rank;
+
+		private Match(int nameId, String name, int rank) {
+			m_nameId = nameId;
+			m_name = name;
+			m_rank = rank;
+		}
+
+		@Override
+		public int compareTo(Match match) {
+			if (m_rank != match.m_rank)
+				return match.m_rank - m_rank;
+			if (m_name.length() != match.m_name.length())
+				return match.m_name.length() - m_name.length();
+			int order = match.m_name.compareTo(m_name);
+			return order != 0 ? order : match.m_nameId - m_nameId;
+		}
+	}
+
+	/**
+	 * Lists of name ids by trigram, in an open addressed hash table so the
+	 * trigrams of every name are looked up without boxing them.
+	 */
+	private static class TrigramMap {
+		private long[] m_keys = new long[1024];
+		private IntList[] m_values = new IntList[1024];
+		private int m_size;
+
+		private IntList get(long key) {
+			int mask = m_keys.length - 1;
+			for (int i = hash(key) & mask; m_values[i] != null; i = (i + 1)
+					& mask) {
+				if (m_keys[i] == key)
+					return m_values[i];
+			}
+			return null;
+		}
+
+		/**
+		 * Get the list of a trigram, adding an empty one if it has none.
+		 */
+		private IntList getOrAdd(long key) {
+			int mask = m_keys.length - 1;
+			int i = hash(key) & mask;
+			for (; m_values[i] != null; i = (i + 1) & mask) {
+				if (m_keys[i] == key)
+					return m_values[i];
+			}
+			IntList values = new IntList();
+			m_keys[i] = key;
+			m_values[i] = values;
+			// kept at most half full
+			if (++m_size * 2 > m_keys.length)
+				grow();
+			return values;
+		}
+
+		private void grow() {
+			long[] keys = m_keys;
+			IntList[] values = m_values;
+			m_keys = new long[keys.length * 2];
+			m_values = new IntList[keys.length * 2];
+			int mask = m_keys.length - 1;
+			for (int j = 0; j < keys.length; j++) {
+				if (values[j] == null)
+					continue;
+				int i = hash(keys[j]) & mask;
+				while (m_values[i] != null)
+					i = (i + 1) & mask;
+				m_keys[i] = keys[j];
+				m_values[i] = values[j];
+			}
+		}
+
+		private static int hash(long key) {
+			key *= 0x9E3779B97F4A7C15L;
+			return (int) (key >>> 32);
+		}
+	}
+
+	/**
+	 * A growable list of ints.
+	 */
+	private static class IntList {
+		private int[] m_values = new int[4];
+		private int m_size;
+
+		private void add(int value) {
+			if (m_size == m_values.length)
+				m_values = Arrays.copyOf(m_values, m_size * 2);
+			m_values[m_size++] = value;
+		}
+	}
+}
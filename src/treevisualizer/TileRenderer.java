@@ -0,0 +1,540 @@
+package treevisualizer;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Draws a TreeController's tree from square tiles cached in offscreen images.
+ * Tiles are cut from the tree drawn at one zoom level with the anchor at a
+ * fixed position, so panning only draws the tiles that scroll into view and
+ * copies the rest.
+ *
+ * When the zoom changes, tiles at the new zoom level are drawn a few at a
+ * time. Until they are all ready the screen shows tiles from the cached zoom
+ * level closest to it, scaled to fit, and draw() returns false so the caller
+ * can paint again. The least recently used tiles are dropped when the cache
+ * goes over its memory limit.
+ *
+ * In parallel mode the missing tiles are drawn on the common fork/join pool,
+ * each culled separately against the controller's shared layout, and then
+ * copied to the screen on the calling thread.
+ *
+ * Each frame is reported to the controller's FrameListeners, with the work of
+ * finding the circles on the screen and of drawing any missing tiles.
+ *
+ * When the tree changes, applyChanges() keeps the tiles of the last screen
+ * that the changes did not touch, so only the changed part of the screen is
+ * drawn again.
+ *
+ * Tiles drawn while some of their labels were still being shaped in the
+ * background are dropped once the labels are ready, so they are drawn again
+ * with them.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class TileRenderer {
+	public static int kTileSize = 256;
+	public static long kDefaultCacheSize = 64L * 1024 * 1024;
+	// time a frame may spend drawing tiles when scaled ones can stand in
+	private static long kFrameBudgetNanos = 8000000L;
+
+	private TreeController<?> m_controller;
+	private Color m_background;
+
+	private LinkedHashMap<Tile, BufferedImage> m_tiles;
+	private long m_cacheSize;
+	private long m_maxCacheSize;
+	private int m_treeVersion;
+	private int m_anchorVersion;
+	private int m_labelVersion;
+	// tiles drawn with labels still pending
+	private List<Tile> m_incompleteTiles;
+	// reused to look tiles up without allocating
+	private Tile m_probe;
+	private int m_missingCount;
+	private long[] m_missingColumns;
+	private long[] m_missingRows;
+	// the zoom and tiles of the last frame
+	private double m_lastZoom;
+	private long m_lastFirstColumn;
+	private long m_lastLastColumn;
+	private long m_lastFirstRow;
+	private long m_lastLastRow;
+
+	private boolean m_parallel;
+	// painters for drawing on the calling thread and on pool threads
+	private TreePainter m_painter;
+	private ThreadLocal<TreePainter> m_painters;
+
+	// work done for the frame being drawn
+	private FrameStats m_stats;
+
+	/**
+	 * Creates a TileRenderer for a controller's tree.
+	 *
+	 * @param controller
+	 *            - Draws the tiles, and sets the tree and zoom
+	 * @param background
+	 *            - Color behind the tree
+	 */
+	public TileRenderer(TreeController<?> controller, Color background) {
+		m_controller = controller;
+		m_background = background;
+		// access order, so iteration starts at the least recently used tile
+		m_tiles = new LinkedHashMap<Tile, BufferedImage>(64, 0.75f, true);
+		m_maxCacheSize = kDefaultCacheSize;
+		m_treeVersion = controller.getTreeVersion();
+		m_anchorVersion = controller.getAnchorVersion();
+		m_labelVersion = controller.getLabelVersion();
+		m_incompleteTiles = new ArrayList<Tile>();
+		m_probe = new Tile(0.0, 0, 0);
+		m_missingColumns = new long[64];
+		m_missingRows = new long[64];
+		m_painter = new TreePainter(controller.getLabelCache());
+		m_stats = new FrameStats();
+		m_painters = new ThreadLocal<TreePainter>() {
+			@Override
+			protected TreePainter initialValue() {
+				return new TreePainter(m_controller.getLabelCache());
+			}
+		};
+	}
+
+	/**
+	 * Set whether missing tiles are drawn on the common fork/join pool, one
+	 * per thread, instead of on the calling thread. The calling thread waits
+	 * for them either way and copies them to the screen itself.
+	 *
+	 * @param parallel
+	 *            - True to draw tiles in parallel
+	 */
+	public void setParallel(boolean parallel) {
+		m_parallel = parallel;
+	}
+
+	/**
+	 * Get whether missing tiles are drawn in parallel.
+	 *
+	 * @return - True if tiles are drawn on the common fork/join pool
+	 */
+	public boolean isParallel() {
+		return m_parallel;
+	}
+
+	/**
+	 * Set the most memory the cached tiles may use.
+	 *
+	 * @param bytes
+	 *            - Memory limit in bytes
+	 */
+	public void setCacheSize(long bytes) {
+		m_maxCacheSize = bytes;
+		evict();
+	}
+
+	/**
+	 * Get the memory used by the cached tiles.
+	 *
+	 * @return - Size of the cached tiles in bytes
+	 */
+	public long getCacheSize() {
+		return m_cacheSize;
+	}
+
+	/**
+	 * Drops every cached tile.
+	 */
+	public void clear() {
+		m_tiles.clear();
+		m_incompleteTiles.clear();
+		m_cacheSize = 0;
+	}
+
+	/**
+	 * Applies the changes made to the controller's tree since the last frame,
+	 * and drops the tiles they make out of date. Only tiles of the last
+	 * frame's screen that the changes did not touch are kept. Call before the
+	 * controller's updateAnchor(), as the changes can move the anchor.
+	 */
+	public void applyChanges() {
+		if (!m_controller.hasPendingChanges())
+			return;
+		Rectangle2D dirty = m_controller.applyChanges();
+		// a new tree or anchor version clears every tile anyway
+		if (m_controller.getTreeVersion() != m_treeVersion
+				|| m_controller.getAnchorVersion() != m_anchorVersion)
+			return;
+		double zoom = m_controller.getZoom();
+		Iterator<Map.Entry<Tile, BufferedImage>> it = m_tiles.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			Map.Entry<Tile, BufferedImage> entry = it.next();
+			Tile tile = entry.getKey();
+			boolean keep = tile.m_zoom == zoom && tile.m_zoom == m_lastZoom
+					&& tile.m_column >= m_lastFirstColumn
+					&& tile.m_column <= m_lastLastColumn
+					&& tile.m_row >= m_lastFirstRow
+					&& tile.m_row <= m_lastLastRow;
+			if (keep && dirty != null)
+				keep = !dirty.intersects(tile.m_column * kTileSize, tile.m_row
+						* kTileSize, kTileSize, kTileSize);
+			if (!keep) {
+				m_cacheSize -= getSize(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Draws the tree at the controller's zoom, and indexes the circles on the
+	 * screen for the controller's getCircleAtPoint().
+	 *
+	 * @param g
+	 *            - The graphics context in which to paint.
+	 * @param x
+	 *            - X coordinate of the center of the anchor node.
+	 * @param y
+	 *            - Y coordinate of the center of the anchor node.
+	 * @param width
+	 *            - Width of the screen
+	 * @param height
+	 *            - Height of the screen
+	 * @return - True if the screen is complete, false if some of it was drawn
+	 *         from another zoom level and should be painted again
+	 */
+	public boolean draw(Graphics g, long x, long y, int width, int height) {
+		long start = System.nanoTime();
+		m_stats = new FrameStats();
+		// tiles are placed relative to the anchor, so a new one makes them
+		// all out of date
+		if (m_controller.getTreeVersion() != m_treeVersion
+				|| m_controller.getAnchorVersion() != m_anchorVersion) {
+			clear();
+			m_treeVersion = m_controller.getTreeVersion();
+			m_anchorVersion = m_controller.getAnchorVersion();
+		}
+		// read before drawing, so labels that become ready while tiles are
+		// drawn without them are caught next frame
+		int labelVersion = m_controller.getLabelVersion();
+		if (labelVersion != m_labelVersion) {
+			dropIncompleteTiles();
+			m_labelVersion = labelVersion;
+		}
+		m_controller.index(x, y, width, height);
+		m_stats.add(m_controller.getIndexStats());
+
+		double zoom = m_controller.getZoom();
+		// tile coordinates are counted from the anchor's position
+		long firstColumn = Math.floorDiv(-x, kTileSize);
+		long lastColumn = Math.floorDiv(width - 1 - x, kTileSize);
+		long firstRow = Math.floorDiv(-y, kTileSize);
+		long lastRow = Math.floorDiv(height - 1 - y, kTileSize);
+		m_lastZoom = zoom;
+		m_lastFirstColumn = firstColumn;
+		m_lastLastColumn = lastColumn;
+		m_lastFirstRow = firstRow;
+		m_lastLastRow = lastRow;
+
+		// stand in for missing tiles with the nearest zoom level's, if the
+		// frame would take too long to draw every missing tile
+		double fallbackZoom = 0.0;
+		if (countMissing(zoom, firstColumn, lastColumn, firstRow, lastRow) > 0) {
+			fallbackZoom = findNearestZoom(zoom);
+			if (fallbackZoom != 0.0)
+				drawScaled(g, x, y, width, height, zoom, fallbackZoom);
+			else {
+				g.setColor(m_background);
+				g.fillRect(0, 0, width, height);
+			}
+		}
+
+		// copy the cached tiles and make a list of the missing ones
+		m_missingCount = 0;
+		for (long row = firstRow; row <= lastRow; row++) {
+			for (long column = firstColumn; column <= lastColumn; column++) {
+				BufferedImage image = getTile(zoom, column, row);
+				if (image != null) {
+					g.drawImage(image, (int) (x + column * kTileSize),
+							(int) (y + row * kTileSize), null);
+				} else {
+					addMissing(column, row);
+				}
+			}
+		}
+
+		// draw the missing tiles a batch at a time, one tile per thread
+		long deadline = System.nanoTime() + kFrameBudgetNanos;
+		int batchSize = m_parallel ? ForkJoinPool.commonPool()
+				.getParallelism() : 1;
+		int next = 0;
+		while (next < m_missingCount) {
+			if (fallbackZoom != 0.0 && System.nanoTime() > deadline)
+				break;
+			int end = Math.min(next + batchSize, m_missingCount);
+			if (m_parallel)
+				renderTilesParallel(zoom, next, end);
+			else
+				renderTile(zoom, m_missingColumns[next], m_missingRows[next],
+						m_painter);
+			for (int i = next; i < end; i++) {
+				BufferedImage image = getTile(zoom, m_missingColumns[i],
+						m_missingRows[i]);
+				g.drawImage(image, (int) (x + m_missingColumns[i] * kTileSize),
+						(int) (y + m_missingRows[i] * kTileSize), null);
+			}
+			next = end;
+		}
+		evict();
+		m_stats.setFrameNanos(System.nanoTime() - start);
+		m_controller.frameDrawn(m_stats);
+		return next == m_missingCount;
+	}
+
+	private void addMissing(long column, long row) {
+		if (m_missingCount == m_missingColumns.length) {
+			m_missingColumns = Arrays.copyOf(m_missingColumns,
+					m_missingCount * 2);
+			m_missingRows = Arrays.copyOf(m_missingRows, m_missingCount * 2);
+		}
+		m_missingColumns[m_missingCount] = column;
+		m_missingRows[m_missingCount] = row;
+		m_missingCount++;
+	}
+
+	/**
+	 * Draws a range of the missing tiles on the common fork/join pool and
+	 * waits for them.
+	 */
+	private void renderTilesParallel(double zoom, int start, int end) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<TileTask> tasks = new ArrayList<TileTask>();
+		for (int i = start; i < end; i++)
+			tasks.add(new TileTask(zoom, m_missingColumns[i], m_missingRows[i]));
+		for (TileTask task : tasks)
+			pool.execute(task);
+		// tiles are added to the cache here, on the calling thread
+		for (TileTask task : tasks) {
+			addTile(task.m_zoom, task.m_column, task.m_row, task.join(),
+					task.m_tileStats);
+			m_stats.add(task.m_tileStats);
+		}
+	}
+
+	/**
+	 * Counts the tiles of a rectangle of tiles that are not cached.
+	 */
+	private int countMissing(double zoom, long firstColumn, long lastColumn,
+			long firstRow, long lastRow) {
+		int missing = 0;
+		for (long row = firstRow; row <= lastRow; row++) {
+			for (long column = firstColumn; column <= lastColumn; column++) {
+				m_probe.set(zoom, column, row);
+				if (!m_tiles.containsKey(m_probe))
+					missing++;
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Finds the cached zoom level, other than the given one, nearest to it
+	 * in scale.
+	 *
+	 * @return - The nearest zoom, or 0.0 if no other level is cached
+	 */
+	private double findNearestZoom(double zoom) {
+		double nearest = 0.0;
+		double nearestDistance = Double.MAX_VALUE;
+		for (Tile tile : m_tiles.keySet()) {
+			if (tile.m_zoom == zoom)
+				continue;
+			double distance = Math.abs(Math.log(tile.m_zoom / zoom));
+			if (distance < nearestDistance) {
+				nearest = tile.m_zoom;
+				nearestDistance = distance;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Fills the screen with the cached tiles of another zoom level, scaled to
+	 * the current zoom.
+	 */
+	private void drawScaled(Graphics g, long x, long y, int width, int height,
+			double zoom, double tileZoom) {
+		g.setColor(m_background);
+		g.fillRect(0, 0, width, height);
+
+		double scale = zoom / tileZoom;
+		double scaledSize = kTileSize * scale;
+		long firstColumn = (long) Math.floor(-x / scaledSize);
+		long lastColumn = (long) Math.floor((width - 1 - x) / scaledSize);
+		long firstRow = (long) Math.floor(-y / scaledSize);
+		long lastRow = (long) Math.floor((height - 1 - y) / scaledSize);
+		// a level too far out to cover the screen with a few tiles is no use
+		if ((lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > 1024)
+			return;
+
+		for (long row = firstRow; row <= lastRow; row++) {
+			for (long column = firstColumn; column <= lastColumn; column++) {
+				m_probe.set(tileZoom, column, row);
+				BufferedImage image = m_tiles.get(m_probe);
+				if (image == null)
+					continue;
+				int left = (int) Math.round(x + column * scaledSize);
+				int top = (int) Math.round(y + row * scaledSize);
+				int right = (int) Math.round(x + (column + 1) * scaledSize);
+				int bottom = (int) Math.round(y + (row + 1) * scaledSize);
+				g.drawImage(image, left, top, right - left, bottom - top, null);
+			}
+		}
+	}
+
+	private BufferedImage getTile(double zoom, long column, long row) {
+		m_probe.set(zoom, column, row);
+		return m_tiles.get(m_probe);
+	}
+
+	/**
+	 * Draws a tile and adds it to the cache.
+	 */
+	private void renderTile(double zoom, long column, long row,
+			TreePainter painter) {
+		addTile(zoom, column, row, drawTile(column, row, painter),
+				painter.getStats());
+		m_stats.add(painter.getStats());
+	}
+
+	/**
+	 * Draws a tile at the controller's zoom. Safe to call from several
+	 * threads at once with different painters.
+	 */
+	private BufferedImage drawTile(long column, long row, TreePainter painter) {
+		BufferedImage image = new BufferedImage(kTileSize, kTileSize,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics g = image.getGraphics();
+		g.setColor(m_background);
+		g.fillRect(0, 0, kTileSize, kTileSize);
+		m_controller.drawTile(g, painter, -column * kTileSize, -row
+				* kTileSize, kTileSize, kTileSize);
+		painter.getStats().countTile();
+		g.dispose();
+		return image;
+	}
+
+	private void addTile(double zoom, long column, long row,
+			BufferedImage image, FrameStats tileStats) {
+		Tile tile = new Tile(zoom, column, row);
+		m_tiles.put(tile, image);
+		m_cacheSize += getSize(image);
+		if (tileStats.getLabelsPending() > 0)
+			m_incompleteTiles.add(tile);
+	}
+
+	/**
+	 * Drops the tiles drawn with labels that were still pending.
+	 */
+	private void dropIncompleteTiles() {
+		for (Tile tile : m_incompleteTiles) {
+			// the tile may already have been evicted
+			BufferedImage image = m_tiles.remove(tile);
+			if (image != null)
+				m_cacheSize -= getSize(image);
+		}
+		m_incompleteTiles.clear();
+	}
+
+	/**
+	 * Drops the least recently used tiles until the cache is within its
+	 * limit.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Tile, BufferedImage>> it = m_tiles.entrySet()
+				.iterator();
+		while (m_cacheSize > m_maxCacheSize && it.hasNext()) {
+			m_cacheSize -= getSize(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	private static long getSize(BufferedImage image) {
+		return (long) image.getWidth() * image.getHeight() * 4;
+	}
+
+	/**
+	 * Draws one tile on a pool thread, with that thread's painter.
+	 */
+	private class TileTask extends RecursiveTask<BufferedImage> {
+		private static final long serialVersionUID = 1L;
+
+		private double m_zoom;
+		private long m_column;
+		private long m_row;
+		// the painter's counts, copied before it draws another tile
+		private FrameStats m_tileStats;
+
+		TileTask(double zoom, long column, long row) {
+			m_zoom = zoom;
+			m_column = column;
+			m_row = row;
+		}
+
+		@Override
+		protected BufferedImage compute() {
+			TreePainter painter = m_painters.get();
+			BufferedImage image = drawTile(m_column, m_row, painter);
+			m_tileStats = new FrameStats(painter.getStats());
+			return image;
+		}
+	}
+
+	/**
+	 * Key of a cached tile: the zoom it was drawn at and its column and row,
+	 * counted in tiles from the anchor.
+	 */
+	private static class Tile {
+		private double m_zoom;
+		private long m_column;
+		private long m_row;
+
+		private Tile(double zoom, long column, long row) {
+			set(zoom, column, row);
+		}
+
+		private void set(double zoom, long column, long row) {
+			m_zoom = zoom;
+			m_column = column;
+			m_row = row;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Tile))
+				return false;
+			Tile tile = (Tile) o;
+			return tile.m_zoom == m_zoom && tile.m_column == m_column
+					&& tile.m_row == m_row;
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(m_zoom);
+			long hash = bits ^ (bits >>> 32);
+			hash = hash * 31 + m_column;
+			hash = hash * 31 + m_row;
+			return (int) (hash ^ (hash >>> 32));
+		}
+	}
+}
@@ -1,18 +1,32 @@
 package treevisualizer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
  * A Tree structure that holds Nodes, each of which stores data of type T.
  * 
+ * A node can be added as a child of more than one node, or of one of its own
+ * descendants, to make fractal trees. Such a tree is a graph and may have
+ * cycles, so walking it by following children may never end; getNodes() and
+ * hasCycles() visit each node once.
+ * 
+ * Nodes can be inserted, removed, moved and renamed through the Tree, which
+ * tells its TreeListeners about each change. Changes made through a Node
+ * directly, such as addChild(), are not published. A Tree is not safe to
+ * change while it is being drawn, so a tree being viewed should only be
+ * changed on the thread that draws it, such as the event dispatch thread.
+ * 
  * @author Elliot Hatch and Samuel Davidson
  * @version March 19, 2014
  * @param <T>
  *            - Data type stored in the Tree
  */
-public class Tree<T> {
+public class Tree<T> implements TreeModel<Tree.Node<T>> {
 	private Node<T> m_root;
+	private List<TreeListener> m_listeners;
 
 	/**
 	 * Creates an instance of a Tree with a root node.
@@ -22,6 +36,135 @@ public class Tree<T> {
 	 */
 	public Tree(T rootData) {
 		m_root = new Node<T>(rootData, null);
+		m_listeners = new ArrayList<TreeListener>();
+	}
+
+	/**
+	 * Adds a listener to be told about every change made through the Tree.
+	 * 
+	 * @param listener
+	 *            - The listener to add
+	 */
+	public void addTreeListener(TreeListener listener) {
+		m_listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addTreeListener().
+	 * 
+	 * @param listener
+	 *            - The listener to remove
+	 */
+	public void removeTreeListener(TreeListener listener) {
+		m_listeners.remove(listener);
+	}
+
+	/**
+	 * Creates a node and inserts it among a node's children.
+	 * 
+	 * @param parent
+	 *            - The node to add a child to
+	 * @param index
+	 *            - Index of the new child, in the range [0, number of
+	 *            children]
+	 * @param data
+	 *            - Data stored in the new node
+	 * @return - The new node
+	 */
+	public Node<T> insertChild(Node<T> parent, int index, T data) {
+		Node<T> child = new Node<T>(data, parent);
+		child.m_references++;
+		parent.m_children.add(index, child);
+		fireChildrenChanged(parent);
+		return child;
+	}
+
+	/**
+	 * Inserts a node, along with any children it already has, among a
+	 * node's children.
+	 *
+	 * @param parent
+	 *            - The node to add a child to
+	 * @param index
+	 *            - Index of the new child, in the range [0, number of
+	 *            children]
+	 * @param child
+	 *            - Node to be added. It becomes the child's parent if it does
+	 *            not have one yet.
+	 * @return - The node added
+	 */
+	public Node<T> insertChild(Node<T> parent, int index, Node<T> child) {
+		if (child.m_parent == null)
+			child.m_parent = parent;
+		child.m_references++;
+		parent.m_children.add(index, child);
+		fireChildrenChanged(parent);
+		return child;
+	}
+
+	/**
+	 * Removes one of a node's children, along with its subtree. A shared
+	 * node stays wherever else it appears.
+	 * 
+	 * @param parent
+	 *            - The node to remove a child from
+	 * @param index
+	 *            - Index of the child
+	 * @return - The node removed
+	 */
+	public Node<T> removeChild(Node<T> parent, int index) {
+		Node<T> child = parent.m_children.remove(index);
+		child.m_references--;
+		if (child.m_parent == parent)
+			child.m_parent = null;
+		fireChildrenChanged(parent);
+		return child;
+	}
+
+	/**
+	 * Moves one of a node's children, along with its subtree, to another
+	 * place in the tree. Moving a node below itself makes a cycle.
+	 * 
+	 * @param parent
+	 *            - The node the child is moved from
+	 * @param index
+	 *            - Index of the child
+	 * @param newParent
+	 *            - The node the child is moved to, which may be the same
+	 * @param newIndex
+	 *            - Index of the child among newParent's children once it has
+	 *            been removed from parent
+	 * @return - The node moved
+	 */
+	public Node<T> moveChild(Node<T> parent, int index, Node<T> newParent,
+			int newIndex) {
+		Node<T> child = parent.m_children.remove(index);
+		newParent.m_children.add(newIndex, child);
+		if (child.m_parent == parent)
+			child.m_parent = newParent;
+		fireChildrenChanged(parent);
+		if (newParent != parent)
+			fireChildrenChanged(newParent);
+		return child;
+	}
+
+	/**
+	 * Replaces the data stored in a node, which changes its label.
+	 * 
+	 * @param node
+	 *            - The node
+	 * @param data
+	 *            - New data stored in the node
+	 */
+	public void rename(Node<T> node, T data) {
+		node.m_data = data;
+		for (TreeListener listener : m_listeners)
+			listener.dataChanged(node);
+	}
+
+	private void fireChildrenChanged(Node<T> node) {
+		for (TreeListener listener : m_listeners)
+			listener.childrenChanged(node);
 	}
 
 	/**
@@ -33,6 +176,129 @@ public class Tree<T> {
 		return m_root;
 	}
 
+	/**
+	 * Replaces the root node.
+	 * 
+	 * @param root
+	 *            - New root node, along with any children it already has
+	 */
+	void setRootNode(Node<T> root) {
+		m_root = root;
+	}
+
+	@Override
+	public Node<T> getRoot() {
+		return m_root;
+	}
+
+	@Override
+	public int getChildCount(Node<T> node) {
+		return node.getChildren().size();
+	}
+
+	@Override
+	public Node<T> getChild(Node<T> node, int index) {
+		return node.getChildren().get(index);
+	}
+
+	@Override
+	public String getLabel(Node<T> node) {
+		return String.valueOf(node.getData());
+	}
+
+	@Override
+	public boolean isShared(Node<T> node) {
+		// the root is reached once more as the root
+		int references = node.m_references + (node == m_root ? 1 : 0);
+		return references > 1;
+	}
+
+	/**
+	 * Get every node in the tree once, however many places it appears in.
+	 * 
+	 * @return - The nodes in breadth first order, starting with the root
+	 */
+	public List<Node<T>> getNodes() {
+		List<Node<T>> nodes = new ArrayList<Node<T>>();
+		// only shared nodes can be reached twice, so only they are tracked
+		IdentityHashMap<Node<T>, Boolean> seen = new IdentityHashMap<Node<T>, Boolean>();
+		nodes.add(m_root);
+		seen.put(m_root, Boolean.TRUE);
+		for (int i = 0; i < nodes.size(); i++) {
+			for (Node<T> child : nodes.get(i).getChildren()) {
+				if (!isShared(child) || seen.put(child, Boolean.TRUE) == null)
+					nodes.add(child);
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Returns true if a node is one of its own descendants, so the tree goes
+	 * on forever.
+	 * 
+	 * @return - True if the tree has a cycle
+	 */
+	public boolean hasCycles() {
+		// shared nodes on the current path map to true and finished ones to
+		// false. Only a shared node can be reached again, so cycles always
+		// pass through one.
+		IdentityHashMap<Node<T>, Boolean> state = new IdentityHashMap<Node<T>, Boolean>();
+		// depth first, without recursion, since trees can be very deep
+		List<Node<T>> path = new ArrayList<Node<T>>();
+		int[] nextChild = new int[64];
+		path.add(m_root);
+		state.put(m_root, Boolean.TRUE);
+		while (!path.isEmpty()) {
+			int depth = path.size() - 1;
+			Node<T> node = path.get(depth);
+			if (nextChild[depth] == node.getChildren().size()) {
+				path.remove(depth);
+				nextChild[depth] = 0;
+				if (isShared(node))
+					state.put(node, Boolean.FALSE);
+				continue;
+			}
+			Node<T> child = node.getChildren().get(nextChild[depth]++);
+			if (isShared(child)) {
+				Boolean onPath = state.get(child);
+				if (onPath != null) {
+					if (onPath)
+						return true;
+					continue;
+				}
+				state.put(child, Boolean.TRUE);
+			}
+			if (path.size() == nextChild.length)
+				nextChild = Arrays.copyOf(nextChild, path.size() * 2);
+			path.add(child);
+		}
+		return false;
+	}
+
+	/**
+	 * Receives the changes made through a Tree's methods, right after each is
+	 * made, on the thread that made it.
+	 */
+	public interface TreeListener {
+		/**
+		 * Called after children are added to, removed from or moved within a
+		 * node. The subtrees of the node's other children are unchanged.
+		 * 
+		 * @param node
+		 *            - The node whose children changed
+		 */
+		void childrenChanged(Node<?> node);
+
+		/**
+		 * Called after the data stored in a node is replaced.
+		 * 
+		 * @param node
+		 *            - The node whose data changed
+		 */
+		void dataChanged(Node<?> node);
+	}
+
 	/**
 	 * Nodes stored in a Tree structure that hold data. Each node acts as a
 	 * tree.
@@ -44,6 +310,8 @@ public class Tree<T> {
 		private T m_data;
 		private Node<T> m_parent;
 		private List<Node<T>> m_children;
+		// number of times the node has been added as a child
+		private int m_references;
 
 		/**
 		 * Creates an instance of a Node with data and a parent.
@@ -68,19 +336,22 @@ public class Tree<T> {
 		 */
 		public Node<T> addChild(T data) {
 			Node<T> child = new Node<T>(data, this);
+			child.m_references++;
 			m_children.add(child);
 			return child;
 		}
 
 		/**
 		 * Adds a node as a child of this node. Nodes already in the tree can be
-		 * added so fractal trees can be made.
+		 * added so fractal trees can be made, and are then shared by every
+		 * place they appear.
 		 * 
 		 * @param node
 		 *            - Node to be added as a child.
 		 * @return - The node added
 		 */
 		public Node<T> addChild(Node<T> node) {
+			node.m_references++;
 			m_children.add(node);
 			return node;
 		}
@@ -113,6 +384,16 @@ public class Tree<T> {
 			return m_children;
 		}
 
+		/**
+		 * Set the parent of a Node that was created without one.
+		 * 
+		 * @param parent
+		 *            - The Node's parent
+		 */
+		void setParent(Node<T> parent) {
+			m_parent = parent;
+		}
+
 		/**
 		 * Set new data in the Node. Overwrites old data.
 		 * 
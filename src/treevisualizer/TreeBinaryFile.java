@@ -0,0 +1,971 @@
+package treevisualizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Binary companion format for .tree files, stored next to the .tree file with
+ * a .treeb extension. Opening a .treeb file only reads its header; any node,
+ * and any string, can then be read directly without scanning the rest of the
+ * file, so a file far bigger than memory can be opened at once.
+ *
+ * Layout, all numbers big endian:
+ * <ul>
+ * <li>Header: magic, version, length and modification time of the .tree file
+ * it was made from, node count, string count, the offsets of the three
+ * sections, and the layout of the .tree text: layout flags and the number of
+ * characters in one level of indentation.</li>
+ * <li>Nodes: one fixed size record per node in file order: subtree size and
+ * child count as ints, one byte of formatting flags, and the id and name
+ * string numbers as ints. A node's first child is the next node and each
+ * following child comes a subtree size later.</li>
+ * <li>Strings: ids and names, each as a varint byte length followed by UTF-8
+ * bytes. Strings that repeat often are stored once.</li>
+ * <li>String index: the offset of every string from the start of the strings,
+ * 8 bytes each.</li>
+ * </ul>
+ *
+ * A .treeb file is written in a single pass over the .tree text that only
+ * keeps the open nodes in memory. Each record is written when its node opens
+ * and its sizes are filled in when it closes.
+ *
+ * The .tree text is expected to have one tag per line, each level indented by
+ * the same run of tabs or spaces. The indentation, the line ending and
+ * whether the last line ends with one are taken from the .tree file, so
+ * converting back to text round trips exactly. A file laid out any other way
+ * still gets a .treeb file, marked as inexact, which converts back to text in
+ * that layout instead.
+ *
+ * A .treeb file is never written in place, as it may still be mapped by an
+ * earlier TreeBinaryFile, which some systems do not allow. Closing a
+ * TreeBinaryFile lets go of its mapping, but the file is only unmapped once
+ * the mapping is garbage collected; if the old file is still mapped when a
+ * new one is written, writeCompanion() returns the new one where it was
+ * written instead.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class TreeBinaryFile implements Closeable {
+	public static final String kExtension = ".treeb";
+
+	private static int kMagic = 0x54524542; // "TREB"
+	private static int kVersion = 3;
+	private static int kHeaderSize = 64;
+	// subtree size, child count, flags, id and name
+	private static int kRecordSize = 17;
+	private static int kFlagsOffset = 8;
+	private static int kIdOffset = 9;
+	private static int kNameOffset = 13;
+	// records kept in memory while writing, so most are complete before they
+	// reach the file
+	private static int kRecordBufferSize = 64 * 1024;
+	// distinct strings remembered while writing; strings repeated further
+	// apart than this are stored again
+	private static int kStringCacheSize = 64 * 1024;
+	// decoded strings kept while reading, by string number
+	private static int kDecodedCacheSize = 4096;
+
+	// closing tag has a space before its '>', as in "</1 >"
+	private static int kFlagClosingSpace = 1;
+
+	// layout flags: lines end with "\r\n", the last line ends with one too,
+	// levels are indented with spaces rather than tabs, and the text does
+	// not match the layout exactly
+	private static int kLayoutCrlf = 1;
+	private static int kLayoutFinalNewline = 2;
+	private static int kLayoutSpaces = 4;
+	private static int kLayoutInexact = 8;
+	// bytes of a .tree file searched for its first line ending
+	private static int kLayoutScanSize = 64 * 1024;
+
+	private MappedTreeFile m_file;
+	private long m_sourceLength;
+	private long m_sourceModified;
+	private int m_nodeCount;
+	private long m_nodesOffset;
+	private long m_stringsOffset;
+	private long m_stringIndexOffset;
+	private int m_layout;
+	private int m_indentWidth;
+	// recently decoded strings, by string number modulo the cache size
+	private DecodedString[] m_decoded;
+
+	private TreeBinaryFile(File file) throws IOException {
+		// checked before mapping, so files of other versions are never mapped
+		readHeader(file);
+		m_file = new MappedTreeFile(file);
+		m_sourceLength = readLong(8);
+		m_sourceModified = readLong(16);
+		m_nodeCount = readInt(24);
+		m_nodesOffset = readLong(32);
+		m_stringsOffset = readLong(40);
+		m_stringIndexOffset = readLong(48);
+		m_layout = readInt(56);
+		m_indentWidth = readInt(60);
+		m_decoded = new DecodedString[kDecodedCacheSize];
+	}
+
+	/**
+	 * Opens a .treeb file.
+	 *
+	 * @param file
+	 *            - The .treeb file
+	 * @return - The opened file
+	 * @throws IOException
+	 *             - Throws if the file could not be read or is not a .treeb
+	 *             file.
+	 */
+	public static TreeBinaryFile open(File file) throws IOException {
+		return new TreeBinaryFile(file);
+	}
+
+	/**
+	 * Opens the .treeb companion of a .tree file, if there is one that was
+	 * made from the .tree file as it is now.
+	 *
+	 * @param treeFile
+	 *            - The .tree file
+	 * @return - The opened companion, or null if there is no usable one
+	 */
+	public static TreeBinaryFile openCompanion(File treeFile) {
+		File binaryFile = getCompanionFile(treeFile);
+		if (!binaryFile.isFile())
+			return null;
+		try {
+			// out of date companions are not mapped, so they can be replaced
+			DataInputStream header = readHeader(binaryFile);
+			if (header.readLong() == treeFile.length()
+					&& header.readLong() == treeFile.lastModified())
+				return open(binaryFile);
+		} catch (IOException exc) {
+			// unreadable companions are ignored and rewritten when asked
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the header of a .treeb file without mapping it.
+	 *
+	 * @return - The header after its magic and version
+	 */
+	private static DataInputStream readHeader(File file) throws IOException {
+		byte[] header = new byte[kHeaderSize];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < kHeaderSize)
+				throw new IOException(file + " is not a " + kExtension + " file");
+			raf.readFully(header);
+		} finally {
+			raf.close();
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+		if (in.readInt() != kMagic || in.readInt() != kVersion)
+			throw new IOException(file + " is not a " + kExtension + " file");
+		return in;
+	}
+
+	/**
+	 * Lets go of the file's mapping. Nothing can be read from the file once
+	 * it is closed. See MappedTreeFile.close().
+	 */
+	@Override
+	public void close() {
+		m_file.close();
+	}
+
+	/**
+	 * Get the path of the .treeb companion of a .tree file.
+	 *
+	 * @param treeFile
+	 *            - The .tree file
+	 * @return - The companion file, which might not exist
+	 */
+	public static File getCompanionFile(File treeFile) {
+		String name = treeFile.getName();
+		if (name.endsWith(".tree"))
+			name = name.substring(0, name.length() - ".tree".length());
+		return new File(treeFile.getParentFile(), name + kExtension);
+	}
+
+	/**
+	 * Returns true if this file was made from a .tree file as it is now.
+	 *
+	 * @param treeFile
+	 *            - The .tree file
+	 * @return - True if the .tree file has not changed since
+	 */
+	public boolean isMadeFrom(File treeFile) {
+		return treeFile.length() == m_sourceLength
+				&& treeFile.lastModified() == m_sourceModified;
+	}
+
+	/**
+	 * Returns true if writeText() gives back the .tree file byte for byte.
+	 *
+	 * @return - False if the .tree file was not laid out as the format
+	 *         expects
+	 */
+	public boolean isExact() {
+		return (m_layout & kLayoutInexact) == 0;
+	}
+
+	/**
+	 * Get the number of nodes in the tree. Nodes are numbered in file order,
+	 * so the root is node 0.
+	 *
+	 * @return - Number of nodes
+	 */
+	public int getNodeCount() {
+		return m_nodeCount;
+	}
+
+	/**
+	 * Get the name of a node.
+	 *
+	 * @param node
+	 *            - Number of the node
+	 * @return - The node's name
+	 */
+	public String getName(int node) {
+		return getString(readInt(getRecordOffset(node) + kNameOffset));
+	}
+
+	/**
+	 * Get the number of children of a node.
+	 *
+	 * @param node
+	 *            - Number of the node
+	 * @return - Number of children
+	 */
+	public int getChildCount(int node) {
+		return readInt(getRecordOffset(node) + 4);
+	}
+
+	/**
+	 * Get the number of nodes in a node's subtree.
+	 *
+	 * @param node
+	 *            - Number of the node
+	 * @return - Number of nodes, including the node itself
+	 */
+	public int getSubtreeSize(int node) {
+		return readInt(getRecordOffset(node));
+	}
+
+	/**
+	 * Finds the children of a node.
+	 *
+	 * @param node
+	 *            - Number of the node
+	 * @return - Numbers of the node's children, in order
+	 */
+	public int[] getChildren(int node) {
+		int[] children = new int[getChildCount(node)];
+		int child = node + 1;
+		for (int i = 0; i < children.length; i++) {
+			children[i] = child;
+			child += getSubtreeSize(child);
+		}
+		return children;
+	}
+
+	/**
+	 * Reads the whole tree.
+	 *
+	 * @param listener
+	 *            - Notified of each node and of progress, may be null
+	 * @return - Fully constructed Tree<String>
+	 * @throws IOException
+	 *             - Throws if the listener cancelled loading.
+	 */
+	public Tree<String> readTree(TreeLoader.LoadListener<? super String> listener)
+			throws IOException {
+		if (m_nodeCount == 0)
+			return new Tree<String>(null);
+
+		Tree<String> tree = null;
+		// open nodes and how many children each still has to read
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Tree.Node<String>[] openNodes = new Tree.Node[16];
+		int[] remaining = new int[16];
+		int depth = -1;
+		for (int i = 0; i < m_nodeCount; i++) {
+			long record = getRecordOffset(i);
+			int childCount = readInt(record + 4);
+			String name = getString(readInt(record + kNameOffset));
+
+			Tree.Node<String> node;
+			if (tree == null) {
+				tree = new Tree<String>(name);
+				node = tree.getRootNode();
+			} else {
+				while (remaining[depth] == 0)
+					depth--;
+				remaining[depth]--;
+				node = openNodes[depth].addChild(name);
+			}
+			depth++;
+			if (depth == openNodes.length) {
+				openNodes = Arrays.copyOf(openNodes, depth * 2);
+				remaining = Arrays.copyOf(remaining, depth * 2);
+			}
+			openNodes[depth] = node;
+			remaining[depth] = childCount;
+
+			if (listener != null) {
+				listener.nodeLoaded(node, depth);
+				if ((i & 0xffff) == 0)
+					listener.progress(record, m_file.length());
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Writes the tree out in the .tree text format. The text is identical to
+	 * the .tree file this file was made from, unless it is not exact.
+	 *
+	 * @param out
+	 *            - Stream the text is written to
+	 * @throws IOException
+	 *             - Throws if the stream could not be written.
+	 */
+	public void writeText(OutputStream out) throws IOException {
+		TextWriter writer = new TextWriter(out, m_layout, m_indentWidth);
+		// remaining child counts of the open nodes
+		int[] remaining = new int[16];
+		int depth = -1;
+		for (int i = 0; i < m_nodeCount; i++) {
+			long record = getRecordOffset(i);
+			int childCount = readInt(record + 4);
+			int flags = m_file.get(record + kFlagsOffset);
+			String id = getString(readInt(record + kIdOffset));
+			String name = getString(readInt(record + kNameOffset));
+
+			while (depth >= 0 && remaining[depth] == 0)
+				depth--;
+			if (depth >= 0)
+				remaining[depth]--;
+			depth++;
+			writer.openTag(depth, id, name, flags);
+
+			if (depth == remaining.length)
+				remaining = Arrays.copyOf(remaining, depth * 2);
+			remaining[depth] = childCount;
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Writes the .treeb companion of a .tree file, replacing any old one. The
+	 * .tree file's layout is stored with it; if the text does not follow the
+	 * layout exactly, the companion is marked as inexact.
+	 *
+	 * The companion is written to a temporary file first and then moved into
+	 * place. If the old companion is still mapped and cannot be replaced, the
+	 * temporary file is returned instead, which is deleted when the JVM exits.
+	 *
+	 * @param treeFile
+	 *            - The .tree file
+	 * @return - The companion file
+	 * @throws IOException
+	 *             - Throws if a file could not be read or written.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static File writeCompanion(File treeFile) throws IOException {
+		return writeCompanion(treeFile, null);
+	}
+
+	/**
+	 * Writes the .treeb companion of a .tree file like writeCompanion(File),
+	 * reporting progress as the .tree file is read. The file is parsed in one
+	 * pass while a second stream over it is compared with the text its layout
+	 * gives, and only the parse is reported.
+	 *
+	 * @param treeFile
+	 *            - The .tree file
+	 * @param listener
+	 *            - Told how much has been read, or null. Throwing from
+	 *            progress() stops the write and leaves any old companion in
+	 *            place.
+	 * @return - The companion file
+	 * @throws IOException
+	 *             - Throws if a file could not be read or written.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static File writeCompanion(File treeFile,
+			TreeLoader.LoadListener<?> listener) throws IOException {
+		File binaryFile = getCompanionFile(treeFile);
+		File directory = binaryFile.getAbsoluteFile().getParentFile();
+		long sourceLength = treeFile.length();
+		long sourceModified = treeFile.lastModified();
+		int[] layout = findLayout(treeFile);
+
+		File tempFile = File.createTempFile(binaryFile.getName(), ".tmp",
+				directory);
+		// in case the JVM exits while it is written, or it cannot be moved
+		tempFile.deleteOnExit();
+		InputStream in = null;
+		InputStream expected = null;
+		CompanionWriter writer = null;
+		boolean written = false;
+		try {
+			in = new FileInputStream(treeFile);
+			if (listener != null)
+				in = new TreeLoader.ProgressInputStream(in, sourceLength,
+						listener);
+			expected = new BufferedInputStream(new FileInputStream(treeFile));
+			ComparingOutputStream comparison = new ComparingOutputStream(
+					expected);
+			writer = new CompanionWriter(tempFile, directory, new TextWriter(
+					comparison, layout[0], layout[1]));
+			new TreeParser(writer).parse(in);
+			writer.finishText();
+			if (!comparison.matches() || expected.read() != -1)
+				layout[0] |= kLayoutInexact;
+			writer.finish(sourceLength, sourceModified, layout[0], layout[1]);
+			written = true;
+		} finally {
+			if (writer != null)
+				writer.close();
+			if (in != null)
+				in.close();
+			if (expected != null)
+				expected.close();
+			// deleted once closed, which some systems need
+			if (!written)
+				tempFile.delete();
+		}
+
+		try {
+			Files.move(tempFile.toPath(), binaryFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			return binaryFile;
+		} catch (IOException exc) {
+			// the old companion is in use
+			return tempFile;
+		}
+	}
+
+	/**
+	 * Finds the layout of a .tree file from its first line ending, the
+	 * indentation of the line after it, and the end of the file.
+	 *
+	 * @return - Layout flags and the width of one level of indentation
+	 */
+	private static int[] findLayout(File treeFile) throws IOException {
+		int flags = 0;
+		int indentWidth = 1;
+		RandomAccessFile raf = new RandomAccessFile(treeFile, "r");
+		try {
+			byte[] start = new byte[(int) Math.min(kLayoutScanSize,
+					raf.length())];
+			raf.readFully(start);
+			int newline = 0;
+			while (newline < start.length && start[newline] != '\n')
+				newline++;
+			if (newline > 0 && newline < start.length
+					&& start[newline - 1] == '\r')
+				flags |= kLayoutCrlf;
+			// the line after the root is its first child, if it has any
+			int indent = newline + 1;
+			if (indent < start.length && start[indent] == ' ')
+				flags |= kLayoutSpaces;
+			while (indent < start.length
+					&& start[indent] == ((flags & kLayoutSpaces) != 0 ? ' '
+							: '\t'))
+				indent++;
+			if (indent > newline + 1)
+				indentWidth = indent - newline - 1;
+
+			if (raf.length() > 0) {
+				raf.seek(raf.length() - 1);
+				if (raf.read() == '\n')
+					flags |= kLayoutFinalNewline;
+			}
+		} finally {
+			raf.close();
+		}
+		return new int[] { flags, indentWidth };
+	}
+
+	/**
+	 * Converts between .tree and .treeb files from the command line. Each
+	 * .tree file argument gets a .treeb companion; each .treeb file argument
+	 * is written back out as text to standard output.
+	 *
+	 * @param args
+	 *            - Files to convert
+	 * @throws IOException
+	 *             - Throws if a file could not be converted.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String arg : args) {
+			File file = new File(arg);
+			if (arg.endsWith(kExtension)) {
+				open(file).writeText(System.out);
+				System.out.flush();
+			} else if (!open(writeCompanion(file)).isExact()) {
+				System.err.println(arg + ": layout cannot be stored exactly,"
+						+ " converting back gives the text in another layout");
+			}
+		}
+	}
+
+	private String getString(int index) {
+		int slot = index % m_decoded.length;
+		DecodedString decoded = m_decoded[slot];
+		if (decoded == null || decoded.m_index != index) {
+			long[] position = { m_stringsOffset
+					+ readLong(m_stringIndexOffset + 8L * index) };
+			int length = (int) readVarint(position);
+			decoded = new DecodedString(index, m_file.decode(position[0],
+					length));
+			m_decoded[slot] = decoded;
+		}
+		return decoded.m_string;
+	}
+
+	private long getRecordOffset(int node) {
+		return m_nodesOffset + (long) kRecordSize * node;
+	}
+
+	private int readInt(long offset) {
+		return ((m_file.get(offset) & 0xff) << 24)
+				| ((m_file.get(offset + 1) & 0xff) << 16)
+				| ((m_file.get(offset + 2) & 0xff) << 8)
+				| (m_file.get(offset + 3) & 0xff);
+	}
+
+	private long readLong(long offset) {
+		return ((long) readInt(offset) << 32)
+				| (readInt(offset + 4) & 0xffffffffL);
+	}
+
+	/**
+	 * Reads a varint and advances position[0] past it.
+	 */
+	private long readVarint(long[] position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = m_file.get(position[0]++);
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Writes a varint.
+	 *
+	 * @return - Number of bytes written
+	 */
+	private static int writeVarint(DataOutputStream out, long value)
+			throws IOException {
+		int count = 1;
+		while ((value & ~0x7fL) != 0) {
+			out.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+			count++;
+		}
+		out.write((int) value);
+		return count;
+	}
+
+	/**
+	 * A string decoded from the file, with its number. Replaced as a whole,
+	 * so threads reading the cache at once never see a mismatched pair.
+	 */
+	private static class DecodedString {
+		private final int m_index;
+		private final String m_string;
+
+		DecodedString(int index, String string) {
+			m_index = index;
+			m_string = string;
+		}
+	}
+
+	/**
+	 * Writes the nodes of a .tree file to a .treeb file as they are parsed.
+	 * Only the open nodes are kept, with a window of the latest records. A
+	 * node's record is written with empty sizes when it opens, and filled in
+	 * when it closes: in the window if it is still there, or in the file.
+	 * The text each node gives in the .tree layout is written to a
+	 * TextWriter as it goes, to check that the layout is exact.
+	 */
+	private static class CompanionWriter implements TreeParser.Handler {
+		private RandomAccessFile m_raf;
+		private FileChannel m_channel;
+		private StringSpool m_strings;
+		private TextWriter m_text;
+		// records from node m_windowStart on that are not in the file yet
+		private ByteBuffer m_window;
+		private int m_windowStart;
+		private ByteBuffer m_patch;
+		private long m_nodeCount;
+		// the open nodes and their child counts so far, by depth
+		private int[] m_openNodes = new int[16];
+		private int[] m_childCounts = new int[16];
+		private int m_depth = -1;
+
+		CompanionWriter(File file, File tempDirectory, TextWriter text)
+				throws IOException {
+			m_raf = new RandomAccessFile(file, "rw");
+			m_channel = m_raf.getChannel();
+			m_strings = new StringSpool(tempDirectory);
+			m_text = text;
+			m_window = ByteBuffer.allocate(kRecordBufferSize * kRecordSize);
+			m_patch = ByteBuffer.allocate(kFlagsOffset + 1);
+		}
+
+		@Override
+		public void openTag(TreeParser.Tag tag) throws IOException {
+			if (m_nodeCount == Integer.MAX_VALUE)
+				throw new IOException("too many nodes for a " + kExtension
+						+ " file");
+			byte[] bytes = tag.getBytes();
+			int id = m_strings.intern(bytes, tag.getIdStart(), tag.getIdEnd());
+			int name = m_strings.intern(bytes, tag.getNameStart(),
+					tag.getNameEnd());
+			if (!m_window.hasRemaining())
+				flushWindow();
+			m_window.putInt(0);
+			m_window.putInt(0);
+			m_window.put((byte) 0);
+			m_window.putInt(id);
+			m_window.putInt(name);
+
+			if (m_depth >= 0)
+				m_childCounts[m_depth]++;
+			m_depth++;
+			if (m_depth == m_openNodes.length) {
+				m_openNodes = Arrays.copyOf(m_openNodes, m_depth * 2);
+				m_childCounts = Arrays.copyOf(m_childCounts, m_depth * 2);
+			}
+			m_openNodes[m_depth] = (int) m_nodeCount++;
+			m_childCounts[m_depth] = 0;
+			m_text.openTag(m_depth, tag.getId(), tag.getName(), 0);
+		}
+
+		@Override
+		public void closeTag(TreeParser.Tag tag) throws IOException {
+			int flags = 0;
+			if (tag.getLength() > 0 && tag.getBytes()[tag.getLength() - 1] == ' ')
+				flags |= kFlagClosingSpace;
+			m_text.setFlags(m_depth, flags);
+			closeNode(flags);
+		}
+
+		/**
+		 * Fills in the record of the innermost open node and closes it.
+		 */
+		private void closeNode(int flags) throws IOException {
+			int node = m_openNodes[m_depth];
+			int subtreeSize = (int) (m_nodeCount - node);
+			int childCount = m_childCounts[m_depth];
+			m_depth--;
+			if (node >= m_windowStart) {
+				int position = (node - m_windowStart) * kRecordSize;
+				m_window.putInt(position, subtreeSize);
+				m_window.putInt(position + 4, childCount);
+				m_window.put(position + kFlagsOffset, (byte) flags);
+			} else {
+				m_patch.clear();
+				m_patch.putInt(subtreeSize);
+				m_patch.putInt(childCount);
+				m_patch.put((byte) flags);
+				m_patch.flip();
+				long position = kHeaderSize + (long) kRecordSize * node;
+				while (m_patch.hasRemaining())
+					position += m_channel.write(m_patch, position);
+			}
+		}
+
+		private void flushWindow() throws IOException {
+			m_window.flip();
+			long position = kHeaderSize + (long) kRecordSize * m_windowStart;
+			while (m_window.hasRemaining())
+				position += m_channel.write(m_window, position);
+			m_windowStart += m_window.limit() / kRecordSize;
+			m_window.clear();
+		}
+
+		/**
+		 * Finishes the comparison text once the .tree file has been parsed.
+		 */
+		void finishText() throws IOException {
+			m_text.finish();
+		}
+
+		/**
+		 * Closes any nodes left open and writes the strings and the header.
+		 */
+		void finish(long sourceLength, long sourceModified, int layout,
+				int indentWidth) throws IOException {
+			while (m_depth >= 0)
+				closeNode(0);
+			flushWindow();
+			long stringsOffset = kHeaderSize + (long) kRecordSize * m_nodeCount;
+			long stringIndexOffset = m_strings.copyTo(m_channel, stringsOffset);
+
+			ByteBuffer header = ByteBuffer.allocate(kHeaderSize);
+			header.putInt(kMagic);
+			header.putInt(kVersion);
+			header.putLong(sourceLength);
+			header.putLong(sourceModified);
+			header.putInt((int) m_nodeCount);
+			header.putInt(m_strings.size());
+			header.putLong(kHeaderSize);
+			header.putLong(stringsOffset);
+			header.putLong(stringIndexOffset);
+			header.putInt(layout);
+			header.putInt(indentWidth);
+			header.flip();
+			long position = 0;
+			while (header.hasRemaining())
+				position += m_channel.write(header, position);
+		}
+
+		void close() throws IOException {
+			m_strings.close();
+			m_raf.close();
+		}
+	}
+
+	/**
+	 * Collects the strings of a .treeb file while it is written, in
+	 * temporary files beside it, and numbers them. A string seen again
+	 * within the last kStringCacheSize distinct strings gets the same number.
+	 */
+	private static class StringSpool {
+		private File m_stringsFile;
+		private File m_indexFile;
+		private DataOutputStream m_strings;
+		private DataOutputStream m_index;
+		private long m_stringsLength;
+		private int m_size;
+		// the strings remembered, and their numbers by id in the table
+		private NameTable m_cache;
+		private int[] m_numbers;
+
+		StringSpool(File directory) throws IOException {
+			m_stringsFile = File.createTempFile("strings", ".tmp", directory);
+			m_stringsFile.deleteOnExit();
+			m_indexFile = File.createTempFile("index", ".tmp", directory);
+			m_indexFile.deleteOnExit();
+			m_strings = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(m_stringsFile)));
+			m_index = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(m_indexFile)));
+			m_cache = new NameTable();
+			m_numbers = new int[kStringCacheSize];
+		}
+
+		/**
+		 * Returns the number of an encoded string, storing it if it is not
+		 * remembered.
+		 */
+		int intern(byte[] bytes, int start, int end) throws IOException {
+			if (m_cache.size() == kStringCacheSize)
+				m_cache = new NameTable();
+			int cached = m_cache.size();
+			int id = m_cache.intern(bytes, start, end);
+			if (id < cached)
+				return m_numbers[id];
+
+			m_index.writeLong(m_stringsLength);
+			int length = end - start;
+			m_stringsLength += writeVarint(m_strings, length) + length;
+			m_strings.write(bytes, start, length);
+			m_numbers[id] = m_size;
+			return m_size++;
+		}
+
+		int size() {
+			return m_size;
+		}
+
+		/**
+		 * Copies the strings and their index into a file.
+		 *
+		 * @return - Offset of the index, which follows the strings
+		 */
+		long copyTo(FileChannel channel, long position) throws IOException {
+			m_strings.close();
+			m_index.close();
+			position = copy(m_stringsFile, channel, position);
+			long indexOffset = position;
+			copy(m_indexFile, channel, position);
+			return indexOffset;
+		}
+
+		private static long copy(File file, FileChannel channel, long position)
+				throws IOException {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel source = in.getChannel();
+				long size = source.size();
+				for (long copied = 0; copied < size;)
+					copied += channel.transferFrom(source, position + copied,
+							size - copied);
+				return position + size;
+			} finally {
+				in.close();
+			}
+		}
+
+		void close() throws IOException {
+			m_strings.close();
+			m_index.close();
+			m_stringsFile.delete();
+			m_indexFile.delete();
+		}
+	}
+
+	/**
+	 * Writes nodes out as .tree text in a layout, one tag per line. Each node
+	 * is given with its depth, in file order, and the tags of the nodes before
+	 * it that it is not inside are closed first.
+	 */
+	private static class TextWriter {
+		private OutputStream m_out;
+		private byte[] m_newline;
+		private byte[] m_indent;
+		private boolean m_finalNewline;
+		private boolean m_started;
+		// ids and closing flags of the open nodes
+		private String[] m_openIds = new String[16];
+		private int[] m_openFlags = new int[16];
+		private int m_depth = -1;
+
+		TextWriter(OutputStream out, int layout, int indentWidth) {
+			m_out = new BufferedOutputStream(out);
+			m_newline = (layout & kLayoutCrlf) != 0 ? new byte[] { '\r', '\n' }
+					: new byte[] { '\n' };
+			m_indent = new byte[indentWidth];
+			Arrays.fill(m_indent, (byte) ((layout & kLayoutSpaces) != 0 ? ' '
+					: '\t'));
+			m_finalNewline = (layout & kLayoutFinalNewline) != 0;
+		}
+
+		void openTag(int depth, String id, String name, int flags)
+				throws IOException {
+			while (m_depth >= depth)
+				closeTag();
+			if (m_started)
+				m_out.write(m_newline);
+			m_started = true;
+			writeIndent(depth);
+			m_out.write('<');
+			m_out.write(id.getBytes(TreeParser.kCharset));
+			m_out.write(' ');
+			m_out.write(name.getBytes(TreeParser.kCharset));
+			m_out.write('>');
+
+			m_depth = depth;
+			if (depth == m_openIds.length) {
+				m_openIds = Arrays.copyOf(m_openIds, depth * 2);
+				m_openFlags = Arrays.copyOf(m_openFlags, depth * 2);
+			}
+			m_openIds[depth] = id;
+			m_openFlags[depth] = flags;
+		}
+
+		/**
+		 * Sets the closing flags of an open node, for nodes whose closing tag
+		 * is only read after they are opened.
+		 */
+		void setFlags(int depth, int flags) {
+			m_openFlags[depth] = flags;
+		}
+
+		void finish() throws IOException {
+			while (m_depth >= 0)
+				closeTag();
+			if (m_started && m_finalNewline)
+				m_out.write(m_newline);
+			m_out.flush();
+		}
+
+		private void closeTag() throws IOException {
+			m_out.write(m_newline);
+			writeIndent(m_depth);
+			m_out.write('<');
+			m_out.write('/');
+			m_out.write(m_openIds[m_depth].getBytes(TreeParser.kCharset));
+			if ((m_openFlags[m_depth] & kFlagClosingSpace) != 0)
+				m_out.write(' ');
+			m_out.write('>');
+			m_depth--;
+		}
+
+		private void writeIndent(int depth) throws IOException {
+			for (int i = 0; i < depth; i++)
+				m_out.write(m_indent);
+		}
+	}
+
+	/**
+	 * Compares the bytes written to it against a stream.
+	 */
+	private static class ComparingOutputStream extends OutputStream {
+		private InputStream m_expected;
+		private boolean m_matches = true;
+		private byte[] m_buffer = new byte[8192];
+
+		ComparingOutputStream(InputStream expected) {
+			m_expected = expected;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (m_matches && m_expected.read() != (b & 0xff))
+				m_matches = false;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length)
+				throws IOException {
+			if (m_buffer.length < length)
+				m_buffer = new byte[length];
+			int read = 0;
+			while (m_matches && read < length) {
+				int count = m_expected.read(m_buffer, read, length - read);
+				if (count < 0)
+					m_matches = false;
+				else
+					read += count;
+			}
+			for (int i = 0; m_matches && i < length; i++) {
+				if (m_buffer[i] != bytes[offset + i])
+					m_matches = false;
+			}
+		}
+
+		boolean matches() {
+			return m_matches;
+		}
+	}
+}
@@ -1,16 +1,36 @@
 package treevisualizer;
 
-import java.awt.BasicStroke;
-import java.awt.Color;
-import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Controller class that holds onto an instance of Tree and knows how to draw
- * it.
+ * it. Any other TreeModel, such as a CompactTree, can be drawn as well.
+ * 
+ * The camera is placed relative to an anchor node rather than the root: the
+ * zoom is relative to the anchor's size and draw() is told where the
+ * anchor's center is. The anchor starts at the root, and updateAnchor()
+ * moves it to a node near the middle of the screen when the view drifts far
+ * from it, so zooming can go on as deep as the tree does, through cycles and
+ * all, without coordinates growing or losing precision.
+ * 
+ * Each frame drawn is measured, and FrameListeners are told how long it took
+ * and how much of the tree it looked at and drew.
+ * 
+ * Changes made to a Tree through its methods are collected as they happen,
+ * and UpdateListeners are told once that there are changes to draw. They are
+ * applied to the layout together before the next frame, or by
+ * applyChanges(), which also finds the part of the screen they cover.
+ * 
+ * Labels are shaped by a LabelCache shared by everything that draws the
+ * tree. With asynchronous labels they are shaped in the background, and
+ * UpdateListeners are told when they are ready to be drawn.
  * 
  * @author Elliot Hatch and Samuel Davidson
  * @version March 19, 2014
@@ -19,15 +39,65 @@ import java.util.List;
  */
 public class TreeController<T> {
 
-	private Tree<T> m_tree;
+	private TreeModel<?> m_tree;
+	private TreeLayout m_layout;
 
 	public static int kPrimaryNodeRadius = 50;
-	private static int kPrimaryNodeDistance = 200;
-	private static int kMinimumRadiusText = 10;
-	private static int kMinimumRadiusDraw = 2;
-
-	private ArrayList<Circle> m_drawnCircles;
+	static int kPrimaryNodeDistance = 200;
+	public static int kDefaultDetailThreshold = 16;
+	// the anchor is kept while its radius is in this range and it is within
+	// this distance of the middle of the screen
+	private static double kMinAnchorRadius = 1.0 / 1024.0;
+	private static double kMaxAnchorRadius = 1 << 20;
+	private static double kMaxAnchorDistance = 1 << 20;
+	// zooming stops when the anchor is this large, which only happens when
+	// there is nothing to re-anchor to, deep inside a single circle
+	private static double kMaxZoomRadius = 1e9;
+
+	private HitGrid m_drawnCircles;
 	private double m_zoom;
+	private int m_detailThreshold;
+	private int m_treeVersion;
+	private TreePainter m_painter;
+	private LabelCache m_labels;
+	// changes whenever labels shaped in the background are ready
+	private volatile int m_labelVersion;
+
+	private LayoutPath m_anchor;
+	// changes whenever the anchor moves
+	private int m_anchorVersion;
+	// reused to find the path to a new anchor
+	private LayoutPath m_nextAnchor;
+	// base 10 logarithm of the anchor's size relative to the root
+	private double m_anchorLogSize;
+	// the last move of the anchor not yet reported by updateAnchor()
+	private boolean m_anchorMoved;
+	private double m_anchorOffsetX;
+	private double m_anchorOffsetY;
+	private double m_anchorScale;
+	// where the anchor was in the last draw(), and whether the painter's
+	// nearest circle is from that draw
+	private long m_drawX;
+	private long m_drawY;
+	private double m_drawZoom;
+	private int m_drawWidth;
+	private int m_drawHeight;
+	private boolean m_indexed;
+
+	private List<FrameListener> m_frameListeners;
+	private FrameStats m_lastFrameStats;
+
+	// changes to the tree not yet applied to the layout, guarded by
+	// m_changedChildren
+	private Set<Object> m_changedChildren;
+	private Set<Object> m_changedLabels;
+	private Tree<?> m_listenedTree;
+	private Tree.TreeListener m_treeListener;
+	private LazyTree m_listenedLazyTree;
+	private LazyTree.EvictionListener m_evictionListener;
+	// set when the lazy tree being drawn drops nodes the layout may hold
+	private volatile boolean m_evicted;
+	private List<UpdateListener> m_updateListeners;
 
 	/**
 	 * Creates an instance of TreeController
@@ -35,10 +105,57 @@ public class TreeController<T> {
 	 * @param tree
 	 *            - The Tree data structure to be drawn
 	 */
-	public TreeController(Tree<T> tree) {
-		m_tree = tree;
+	public TreeController(Tree<? extends T> tree) {
+		this((TreeModel<?>) tree);
+	}
+
+	/**
+	 * Creates an instance of TreeController for any TreeModel, such as a
+	 * LazyTree.
+	 * 
+	 * @param model
+	 *            - The tree to be drawn
+	 */
+	public TreeController(TreeModel<?> model) {
 		m_zoom = 1.0;
-		m_drawnCircles = new ArrayList<Circle>();
+		m_detailThreshold = kDefaultDetailThreshold;
+		// sized to the screen by the first draw()
+		m_drawnCircles = new HitGrid(0, 0);
+		m_labels = new LabelCache();
+		m_labels.addReadyListener(new LabelCache.ReadyListener() {
+			@Override
+			public void labelsReady() {
+				m_labelVersion++;
+				for (UpdateListener listener : m_updateListeners)
+					listener.updatePending();
+			}
+		});
+		m_painter = new TreePainter(m_labels);
+		m_anchor = new LayoutPath();
+		m_nextAnchor = new LayoutPath();
+		m_frameListeners = new ArrayList<FrameListener>();
+		m_lastFrameStats = new FrameStats();
+		m_changedChildren = newNodeSet();
+		m_changedLabels = newNodeSet();
+		m_updateListeners = new ArrayList<UpdateListener>();
+		m_treeListener = new Tree.TreeListener() {
+			@Override
+			public void childrenChanged(Tree.Node<?> node) {
+				nodeChanged(node, m_changedChildren);
+			}
+
+			@Override
+			public void dataChanged(Tree.Node<?> node) {
+				nodeChanged(node, m_changedLabels);
+			}
+		};
+		m_evictionListener = new LazyTree.EvictionListener() {
+			@Override
+			public void nodesEvicted() {
+				m_evicted = true;
+			}
+		};
+		setTreeModel(model);
 	}
 
 	/**
@@ -47,13 +164,440 @@ public class TreeController<T> {
 	 * @param tree
 	 *            - The new tree
 	 */
-	public void setTree(Tree<T> tree) {
-		m_tree = tree;
+	public void setTree(Tree<? extends T> tree) {
+		setTreeModel(tree);
+	}
+
+	/**
+	 * Get the tree being drawn.
+	 * 
+	 * @return - The Tree or TreeModel last set
+	 */
+	public TreeModel<?> getTreeModel() {
+		return m_tree;
+	}
+
+	/**
+	 * Sets a TreeModel that will be drawn instead of a Tree. The tree is laid
+	 * out again from scratch. The anchor stays at the same path from the root
+	 * if the new tree has it, and otherwise moves up to the deepest node on
+	 * the path that it does have.
+	 * 
+	 * @param model
+	 *            - The new tree
+	 */
+	public void setTreeModel(TreeModel<?> model) {
+		if (m_listenedTree != null)
+			m_listenedTree.removeTreeListener(m_treeListener);
+		m_listenedTree = null;
+		if (model instanceof Tree) {
+			m_listenedTree = (Tree<?>) model;
+			m_listenedTree.addTreeListener(m_treeListener);
+		}
+		if (m_listenedLazyTree != null)
+			m_listenedLazyTree.removeEvictionListener(m_evictionListener);
+		m_listenedLazyTree = null;
+		if (model instanceof LazyTree) {
+			m_listenedLazyTree = (LazyTree) model;
+			m_listenedLazyTree.addEvictionListener(m_evictionListener);
+		}
+		m_evicted = false;
+		clearChanges();
+		m_tree = model;
+		relayout(model);
+	}
+
+	/**
+	 * Tells the controller that nodes have been added to or removed from the
+	 * tree being drawn without going through the Tree's methods, so its
+	 * layout is out of date. The tree is laid out again from scratch.
+	 */
+	public void treeChanged() {
+		clearChanges();
+		relayout(m_tree);
+	}
+
+	/**
+	 * Applies the changes made to the tree since the last frame to the
+	 * layout, laying out again only the children of the nodes that changed.
+	 * The anchor moves up out of any subtree that was laid out again.
+	 * 
+	 * The part of the screen the changes cover is found from where the
+	 * changed nodes were drawn in the last draw() or index(), and is given
+	 * relative to the anchor's center at the current zoom, which is where
+	 * tiles are placed. Changes elsewhere are not on that screen. If the
+	 * anchor moved, or nothing has been drawn around the current anchor, the
+	 * tree version changes instead, so everything is drawn again.
+	 * 
+	 * @return - The area of the last screen that changed, or null if none
+	 *         of it did, or if everything must be drawn again
+	 */
+	public Rectangle2D applyChanges() {
+		Set<Object> childrenChanged;
+		Set<Object> labelsChanged;
+		synchronized (m_changedChildren) {
+			if (m_changedChildren.isEmpty() && m_changedLabels.isEmpty())
+				return null;
+			childrenChanged = newNodeSet();
+			childrenChanged.addAll(m_changedChildren);
+			labelsChanged = newNodeSet();
+			labelsChanged.addAll(m_changedLabels);
+			m_changedChildren.clear();
+			m_changedLabels.clear();
+		}
+		if (m_layout.size() == 0) {
+			m_treeVersion++;
+			return null;
+		}
+
+		// the anchor's entries below a node whose children changed are
+		// dropped from the layout
+		int anchorVersion = m_anchorVersion;
+		for (int depth = 0; depth < m_anchor.size() - 1; depth++) {
+			if (childrenChanged.contains(m_layout.getNode(m_anchor.get(depth)))) {
+				moveAnchorUp(m_anchor.size() - 1 - depth);
+				break;
+			}
+		}
+
+		// the subtrees of changed nodes cover the larger of their extents
+		// before and after the change
+		boolean located = m_indexed && anchorVersion == m_anchorVersion;
+		Rectangle2D dirty = null;
+		if (located)
+			dirty = findChanged(childrenChanged, labelsChanged, null);
+		m_layout.nodesChanged(childrenChanged, labelsChanged);
+		if (located)
+			dirty = findChanged(childrenChanged, labelsChanged, dirty);
+		// the circles found by the last paint are no use for anchoring now
+		m_indexed = false;
+
+		if (!located) {
+			m_treeVersion++;
+			return null;
+		}
+		if (dirty != null) {
+			double scale = m_zoom / m_drawZoom;
+			dirty.setRect((dirty.getX() - m_drawX) * scale,
+					(dirty.getY() - m_drawY) * scale, dirty.getWidth() * scale,
+					dirty.getHeight() * scale);
+		}
+		return dirty;
+	}
+
+	/**
+	 * Adds the parts of the last screen covered by changed nodes, at their
+	 * current extents in the layout, to a rectangle in screen coordinates.
+	 */
+	private Rectangle2D findChanged(Set<Object> childrenChanged,
+			Set<Object> labelsChanged, Rectangle2D dirty) {
+		HitGrid drawn = m_drawnCircles;
+		for (int i = 0; i < drawn.getEntryCount(); i++) {
+			int entry = drawn.getEntry(i);
+			Object node = m_layout.getNode(entry);
+			double radius;
+			if (childrenChanged.contains(node))
+				radius = m_layout.getExtent(entry);
+			else if (labelsChanged.contains(node))
+				radius = kPrimaryNodeRadius;
+			else
+				continue;
+			double zoom = drawn.getEntryZoom(i);
+			// the stroke reaches past the circles by half its width
+			radius = radius * zoom + kPrimaryNodeRadius * zoom / 40.0 + 1.0;
+			double x = drawn.getEntryX(i) - radius;
+			double y = drawn.getEntryY(i) - radius;
+			if (dirty == null)
+				dirty = new Rectangle2D.Double(x, y, radius * 2, radius * 2);
+			else
+				dirty.add(new Rectangle2D.Double(x, y, radius * 2, radius * 2));
+		}
+		return dirty;
+	}
+
+	/**
+	 * Records a change to the tree, and tells the UpdateListeners if it is
+	 * the first since the changes were last applied.
+	 */
+	private void nodeChanged(Object node, Set<Object> changed) {
+		boolean first;
+		synchronized (m_changedChildren) {
+			first = m_changedChildren.isEmpty() && m_changedLabels.isEmpty();
+			changed.add(node);
+		}
+		if (first) {
+			for (UpdateListener listener : m_updateListeners)
+				listener.updatePending();
+		}
+	}
+
+	/**
+	 * Returns true if the tree has changed since the changes were last
+	 * applied.
+	 */
+	boolean hasPendingChanges() {
+		synchronized (m_changedChildren) {
+			return !m_changedChildren.isEmpty() || !m_changedLabels.isEmpty();
+		}
+	}
+
+	private void clearChanges() {
+		synchronized (m_changedChildren) {
+			m_changedChildren.clear();
+			m_changedLabels.clear();
+		}
+	}
+
+	private static Set<Object> newNodeSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	}
+
+	/**
+	 * Lays a tree out again from scratch, keeping the anchor's path.
+	 */
+	private void relayout(TreeModel<?> model) {
+		TreeLayout layout = new TreeLayout(model);
+		if (m_layout != null && m_layout.size() > 0) {
+			int[] indexes = m_anchor.getIndexes(m_layout);
+			int kept = 0;
+			m_nextAnchor.reset();
+			if (layout.size() > 0)
+				kept = m_nextAnchor.setIndexes(indexes, layout);
+			// measured in the old layout, where the anchor still is
+			moveAnchorUp(indexes.length - kept);
+			m_anchor.set(m_nextAnchor);
+		}
+		m_layout = layout;
+		m_drawnCircles.clear();
+		m_indexed = false;
+		m_treeVersion++;
+	}
+
+	/**
+	 * Moves the anchor up to one of its ancestors in the current layout.
+	 */
+	private void moveAnchorUp(int levels) {
+		if (levels == 0)
+			return;
+		double offsetX = 0.0;
+		double offsetY = 0.0;
+		double scale = 1.0;
+		for (int i = 0; i < levels; i++) {
+			double parentScale = scale / m_layout.getScale(m_anchor.getLast());
+			offsetX -= kPrimaryNodeDistance * parentScale * m_anchor.getCos();
+			offsetY -= kPrimaryNodeDistance * parentScale * m_anchor.getSin();
+			scale = parentScale;
+			m_anchor.truncate(m_anchor.size() - 1, m_layout);
+		}
+		moveAnchor(offsetX, offsetY, scale);
 	}
 
 	/**
-	 * Takes a point and returns the Circle the point is contained in. The list
-	 * of circles it chooses from is refreshed every draw() call and coordinates
+	 * Changes the zoom to match a move of the anchor, whose path has already
+	 * been changed, adding the move to any not yet reported by
+	 * updateAnchor().
+	 * 
+	 * @param offsetX
+	 *            - X coordinate of the new anchor relative to the old one, at
+	 *            zoom 1.0
+	 * @param offsetY
+	 *            - Y coordinate of the new anchor relative to the old one
+	 * @param scale
+	 *            - Size of the new anchor relative to the old one
+	 */
+	private void moveAnchor(double offsetX, double offsetY, double scale) {
+		if (!m_anchorMoved) {
+			m_anchorOffsetX = 0.0;
+			m_anchorOffsetY = 0.0;
+			m_anchorScale = 1.0;
+			m_anchorMoved = true;
+		}
+		m_anchorOffsetX += offsetX * m_anchorScale;
+		m_anchorOffsetY += offsetY * m_anchorScale;
+		m_anchorScale *= scale;
+		m_anchorVersion++;
+		m_anchorLogSize += Math.log10(scale);
+		m_zoom *= scale;
+	}
+
+	/**
+	 * Moves the anchor to the node nearest the middle of the screen in the
+	 * last draw() if the current anchor has grown or shrunk too much or gone
+	 * too far from the screen. The caller must then move its camera to match
+	 * using getAnchorOffsetX(), getAnchorOffsetY() and getAnchorScale(); the
+	 * zoom is changed here. Changes to the tree can also move the anchor, so
+	 * this should be called before each frame.
+	 * 
+	 * @return - True if the anchor moved since the last call
+	 */
+	public boolean updateAnchor() {
+		double radius = kPrimaryNodeRadius * m_zoom;
+		double distance = Math.hypot(m_drawX - m_drawWidth / 2.0, m_drawY
+				- m_drawHeight / 2.0);
+		if (m_indexed
+				&& (radius < kMinAnchorRadius || radius > kMaxAnchorRadius || distance > kMaxAnchorDistance)) {
+			m_nextAnchor.set(m_anchor);
+			if (m_painter.getNearestEntry() >= 0)
+				m_painter.getNearestPath(m_nextAnchor, m_layout);
+			if (!m_nextAnchor.isSame(m_anchor)) {
+				m_anchor.set(m_nextAnchor);
+				// measured at the zoom of the last draw, which may have
+				// changed since
+				moveAnchor((m_painter.getNearestX() - m_drawX)
+						/ m_drawZoom, (m_painter.getNearestY() - m_drawY)
+						/ m_drawZoom, m_painter.getNearestZoom() / m_drawZoom);
+				m_indexed = false;
+			}
+		}
+		boolean moved = m_anchorMoved;
+		m_anchorMoved = false;
+		return moved;
+	}
+
+	/**
+	 * Get the X coordinate of the anchor relative to the one before the last
+	 * move reported by updateAnchor(). A camera keeping the old anchor at
+	 * (x,y) with zoom z should keep the new one at (x + z * offsetX, y + z *
+	 * offsetY) with zoom z * getAnchorScale().
+	 * 
+	 * @return - The X offset at zoom 1.0
+	 */
+	public double getAnchorOffsetX() {
+		return m_anchorOffsetX;
+	}
+
+	/**
+	 * Get the Y coordinate of the anchor relative to the one before the last
+	 * move reported by updateAnchor().
+	 * 
+	 * @return - The Y offset at zoom 1.0
+	 */
+	public double getAnchorOffsetY() {
+		return m_anchorOffsetY;
+	}
+
+	/**
+	 * Get the size of the anchor relative to the one before the last move
+	 * reported by updateAnchor().
+	 * 
+	 * @return - The new anchor's size, where the old one's is 1.0
+	 */
+	public double getAnchorScale() {
+		return m_anchorScale;
+	}
+
+	/**
+	 * Moves the anchor back to the root, without reporting the move to
+	 * updateAnchor(). For when the camera is reset as well.
+	 */
+	public void resetAnchor() {
+		m_anchor.reset();
+		m_anchorVersion++;
+		m_anchorLogSize = 0.0;
+		m_anchorMoved = false;
+		m_indexed = false;
+	}
+
+	/**
+	 * Get a number that changes whenever the anchor moves, so anything drawn
+	 * relative to an older anchor is out of date.
+	 * 
+	 * @return - The version of the anchor
+	 */
+	int getAnchorVersion() {
+		return m_anchorVersion;
+	}
+
+	/**
+	 * Finds the circle of a node given by its path from the root, whether or
+	 * not it has been drawn. The part of the tree on the way to it is laid
+	 * out if it has not been. The circle is placed relative to the anchor's
+	 * center at the current zoom, like the area returned by applyChanges().
+	 * 
+	 * @param indexes
+	 *            - Child indexes on the way down from the root, as returned
+	 *            by SearchIndex.getPath()
+	 * @return - The node's circle, or null if the tree does not have the path
+	 */
+	public Ellipse2D locateNode(int[] indexes) {
+		if (m_layout.size() == 0)
+			return null;
+		// up from the anchor to the deepest entry it shares with the path
+		int[] anchorIndexes = m_anchor.getIndexes(m_layout);
+		int common = 0;
+		while (common < anchorIndexes.length && common < indexes.length
+				&& anchorIndexes[common] == indexes[common])
+			common++;
+		double x = 0.0;
+		double y = 0.0;
+		double scale = 1.0;
+		double cos = m_anchor.getCos();
+		double sin = m_anchor.getSin();
+		for (int depth = m_anchor.size() - 1; depth > common; depth--) {
+			int entry = m_anchor.get(depth);
+			double parentScale = scale / m_layout.getScale(entry);
+			x -= kPrimaryNodeDistance * parentScale * cos;
+			y -= kPrimaryNodeDistance * parentScale * sin;
+			scale = parentScale;
+			// turn back to the edge into the parent, as LayoutPath does
+			double entryCos = m_layout.getCos(entry);
+			double entrySin = m_layout.getSin(entry);
+			double parentCos = cos * entryCos + sin * entrySin;
+			sin = sin * entryCos - cos * entrySin;
+			cos = parentCos;
+		}
+		if (common == 0) {
+			cos = 1.0;
+			sin = 0.0;
+		}
+
+		// and down to the node
+		int entry = m_anchor.get(common);
+		for (int i = common; i < indexes.length; i++) {
+			if (indexes[i] >= m_layout.getChildCount(entry))
+				return null;
+			int child = m_layout.getFirstChild(entry) + indexes[i];
+			double childCos = m_layout.getCos(child);
+			double childSin = m_layout.getSin(child);
+			double pathCos = cos * childCos - sin * childSin;
+			sin = sin * childCos + cos * childSin;
+			cos = pathCos;
+			x += kPrimaryNodeDistance * scale * cos;
+			y += kPrimaryNodeDistance * scale * sin;
+			scale *= m_layout.getScale(child);
+			entry = child;
+		}
+		double radius = kPrimaryNodeRadius * scale * m_zoom;
+		return new Ellipse2D.Double(x * m_zoom - radius, y * m_zoom - radius,
+				radius * 2.0, radius * 2.0);
+	}
+
+	/**
+	 * Moves the anchor to a node given by its path from the root, so the
+	 * view can be moved to it precisely however deep it is. The move is
+	 * reported by updateAnchor() like any other, and the zoom is changed to
+	 * match.
+	 *
+	 * @param indexes
+	 *            - Child indexes on the way down from the root, as returned
+	 *            by SearchIndex.getPath()
+	 * @return - False if the tree does not have the path, and the anchor was
+	 *         not moved
+	 */
+	public boolean moveAnchorTo(int[] indexes) {
+		Ellipse2D circle = locateNode(indexes);
+		if (circle == null)
+			return false;
+		m_anchor.setIndexes(indexes, m_layout);
+		moveAnchor(circle.getCenterX() / m_zoom, circle.getCenterY() / m_zoom,
+				circle.getWidth() / 2.0 / (kPrimaryNodeRadius * m_zoom));
+		m_indexed = false;
+		return true;
+	}
+
+	/**
+	 * Takes a point and returns the Circle the point is contained in. The
+	 * circles it chooses from are refreshed every draw() call and coordinates
 	 * are relative to the Graphic passed to draw(). If there is no circle,
 	 * returns null, if two circles are overlapping, it returns the circle first
 	 * drawn (beneath).
@@ -66,253 +610,306 @@ public class TreeController<T> {
 	 *         circle.
 	 */
 	public Circle getCircleAtPoint(int x, int y) {
-		for (Circle c : m_drawnCircles) {
-			if (isPointInCircle(x, y, c)) {
-				return c;
-			}
-		}
-		return null;
+		int circle = m_drawnCircles.find(x, y);
+		if (circle < 0)
+			return null;
+		return new Circle(m_drawnCircles.getX(circle),
+				m_drawnCircles.getY(circle), m_drawnCircles.getRadius(circle),
+				m_drawnCircles.getNode(circle));
 	}
 
 	/**
-	 * Returns true if the (x,y) coordinate is inside the circle
+	 * Takes a point and returns the node drawn there in the last draw() call,
+	 * choosing the same circle as getCircleAtPoint().
 	 * 
 	 * @param x
-	 *            - X coordinate of point
+	 *            - X coordinate
 	 * @param y
-	 *            - Y coordinate of point
-	 * @param c
-	 *            - The circle tested
-	 * @return - True if (x,y) is inside the circle, otherwise false
+	 *            - Y Coordinate
+	 * @return - The node in getTreeModel()'s terms, which is a Tree.Node when a
+	 *         Tree is drawn, or null if the point is not in a circle.
 	 */
-	private boolean isPointInCircle(int x, int y, Circle c) {
-		double deltaX = x - c.x;
-		double deltaY = y - c.y;
-		double distanceFromCenter = Math.pow(
-				Math.pow(deltaX, 2) + Math.pow(deltaY, 2), 0.5);
-		return (distanceFromCenter < c.radius);
+	public Object getNodeAtPoint(int x, int y) {
+		int circle = m_drawnCircles.find(x, y);
+		if (circle < 0)
+			return null;
+		return m_drawnCircles.getNode(circle);
 	}
 
 	/**
-	 * Draw the entire tree.
+	 * Draw the part of the tree that is on a screen. The circles drawn are
+	 * the ones getCircleAtPoint() chooses from until the next draw. The frame
+	 * is reported to the FrameListeners.
 	 * 
 	 * @param g
 	 *            - The graphics context in which to paint.
 	 * @param x
-	 *            - X coordinate of the center of the root node.
+	 *            - X coordinate of the center of the anchor node.
 	 * @param y
-	 *            - Y coordinate of the center of the root node.
+	 *            - Y coordinate of the center of the anchor node.
+	 * @param width
+	 *            - Width of the screen
+	 * @param height
+	 *            - Height of the screen
+	 */
+	public void draw(Graphics g, long x, long y, int width, int height) {
+		long start = System.nanoTime();
+		paint(g, x, y, width, height);
+		FrameStats stats = new FrameStats(m_painter.getStats());
+		stats.setFrameNanos(System.nanoTime() - start);
+		frameDrawn(stats);
+	}
+
+	/**
+	 * Draws or indexes the part of the tree that is on a screen.
 	 */
-	public void draw(Graphics g, long x, long y) {
-		Tree.Node<T> rootNode = m_tree.getRootNode();
+	private void paint(Graphics g, long x, long y, int width, int height) {
+		m_painter.getStats().clear();
+		if (m_drawnCircles.getWidth() != width
+				|| m_drawnCircles.getHeight() != height)
+			m_drawnCircles = new HitGrid(width, height);
 		m_drawnCircles.clear();
-		g.setFont(new Font("Arial", Font.PLAIN, 32));
-		drawNode(g, x, y, rootNode, 0, 1.0, 0.0, true);
+		if (m_tree == null)
+			return;
+		startFrame();
+		m_painter.paint(g, m_layout, m_anchor, m_zoom, x, y, width, height,
+				m_detailThreshold, m_drawnCircles);
+		m_drawX = x;
+		m_drawY = y;
+		m_drawZoom = m_zoom;
+		m_drawWidth = width;
+		m_drawHeight = height;
+		m_indexed = true;
 	}
 
 	/**
-	 * Draws a node and recursively draws its children.
+	 * Tells the tree a new frame is being drawn, and starts the layout again
+	 * if it has grown too large or holds nodes a lazy tree has dropped. Must
+	 * not be called while other threads are drawing tiles.
+	 */
+	void startFrame() {
+		// changes not applied by the caller are drawn from scratch, as where
+		// they are on the screen is not asked for
+		if (hasPendingChanges()) {
+			applyChanges();
+			m_treeVersion++;
+		}
+		// the model counts frames by calls to getRoot()
+		m_tree.getRoot();
+		// laying out the visible nodes again also marks them as used, so the
+		// lazy tree drops the ones off the screen first
+		if (m_layout.isFull() || m_evicted) {
+			m_evicted = false;
+			int[] indexes = m_anchor.getIndexes(m_layout);
+			m_layout.clear();
+			m_anchor.setIndexes(indexes, m_layout);
+			m_treeVersion++;
+		}
+	}
+
+	/**
+	 * Finds the circles that draw() would draw, for getCircleAtPoint(),
+	 * without drawing anything. For when the screen is filled some other way,
+	 * such as from cached tiles.
+	 * 
+	 * @param x
+	 *            - X coordinate of the center of the anchor node.
+	 * @param y
+	 *            - Y coordinate of the center of the anchor node.
+	 * @param width
+	 *            - Width of the screen
+	 * @param height
+	 *            - Height of the screen
+	 */
+	public void index(long x, long y, int width, int height) {
+		paint(null, x, y, width, height);
+	}
+
+	/**
+	 * Get the work done by the last index(), which is reused by the next
+	 * draw() or index().
+	 */
+	FrameStats getIndexStats() {
+		return m_painter.getStats();
+	}
+
+	/**
+	 * Draws the part of the tree in a rectangle without changing which
+	 * circles getCircleAtPoint() chooses from. Used to draw tiles of a larger
+	 * screen. Tiles can be drawn on several threads at once, each with its
+	 * own painter, as long as the tree and zoom do not change meanwhile.
 	 * 
 	 * @param g
 	 *            - The graphics context in which to paint.
+	 * @param painter
+	 *            - Painter only used by the calling thread
 	 * @param x
-	 *            - X coordinate of the center of the node.
+	 *            - X coordinate of the center of the anchor node.
 	 * @param y
-	 *            - Y coordinate of the center of the node.
-	 * @param node
-	 *            - The Node to draw.
-	 * @param depth
-	 *            - The depth of the node in the tree. Root is depth 0.
-	 * @param nodeSizePercent
-	 *            - Percent size of default node size to draw this node.
-	 * @param angleRadians
-	 *            - Angle from parent.
-	 * @param isRoot
-	 *            - Is this the root node? (Must be answered true/false, not
-	 *            yes/no)
-	 */
-	private void drawNode(Graphics g, long x, long y, Tree.Node<T> node,
-			int depth, double nodeSizePercent, double angleRadians,
-			boolean isRoot) {
-		// safe cast - every graphics object in swift is a graphics2D object
-		Graphics2D g2 = (Graphics2D) g;
-
-		long radius = (long) ((double) kPrimaryNodeRadius * nodeSizePercent * m_zoom);
-
-		boolean doDrawOval = true;
-		// don't draw shapes off the edge of the screen
-		if (x + radius < 0 || x - radius > 800 || y + radius < 0
-				|| y - radius > 600)
-			doDrawOval = false;
-
-		float hue = (float) (depth % 7) / 7.0f;
-		Color fillColor = new Color(Color.HSBtoRGB(hue, 0.5f, 1.0f));
-		Color outlineColor = new Color(Color.HSBtoRGB(hue, 1.0f, 0.8f));
-
-		if (doDrawOval) {
-			g2.setStroke(new BasicStroke(radius / 20.f));
-			g.setColor(fillColor);
-			g.fillOval((int) (x - radius), (int) (y - radius),
-					(int) radius * 2, (int) radius * 2);
-			g.setColor(outlineColor);
-			g.drawOval((int) (x - radius), (int) (y - radius),
-					(int) radius * 2, (int) radius * 2);
-
-			m_drawnCircles.add(new Circle((int) x, (int) y, (int) radius));
-		}
+	 *            - Y coordinate of the center of the anchor node.
+	 * @param width
+	 *            - Width of the rectangle, which starts at (0,0)
+	 * @param height
+	 *            - Height of the rectangle
+	 */
+	void drawTile(Graphics g, TreePainter painter, long x, long y, int width,
+			int height) {
+		if (m_tree != null)
+			painter.paint(g, m_layout, m_anchor, m_zoom, x, y, width, height,
+					m_detailThreshold, null);
+	}
 
-		// don't draw the children if radius is smaller than the threshold
-		if (radius < kMinimumRadiusDraw) {
-			return;
-		}
+	/**
+	 * Reports a frame drawn some other way than draw(), such as from cached
+	 * tiles, to the FrameListeners.
+	 *
+	 * @param stats
+	 *            - Counts for the whole frame, which the listeners may keep
+	 */
+	void frameDrawn(FrameStats stats) {
+		m_lastFrameStats = stats;
+		for (FrameListener listener : m_frameListeners)
+			listener.frameDrawn(stats);
+	}
 
-		// only draw text if radius is larger than the threshold
-		if (radius >= kMinimumRadiusText && doDrawOval) {
-			String str = node.getData().toString();
-
-			// determine font size to use
-			float fontSize = 20.0f;
-			Font oldFont = g.getFont().deriveFont(fontSize);
-			int oldTextWidth = g.getFontMetrics(oldFont).stringWidth(str);
-			fontSize = ((float) radius / oldTextWidth) * fontSize;
-			Font newFont = g.getFont().deriveFont(fontSize);
-			g.setFont(newFont);
-			int textWidth = g.getFontMetrics(newFont).stringWidth(str);
-			int textHeight = g.getFontMetrics(newFont).getAscent();
-			g.setColor(Color.BLACK);
-			// Draw the node text
-			g.drawString(str, (int) x - textWidth / 2, (int) y + textHeight / 2);
-		}
+	/**
+	 * Get the counts for the last frame drawn.
+	 *
+	 * @return - The last frame's stats, or empty stats before the first
+	 */
+	public FrameStats getLastFrameStats() {
+		return m_lastFrameStats;
+	}
 
-		// Children Drawing:
+	/**
+	 * Adds a listener to be told about every frame drawn.
+	 *
+	 * @param listener
+	 *            - The listener to add
+	 */
+	public void addFrameListener(FrameListener listener) {
+		m_frameListeners.add(listener);
+	}
 
-		List<Tree.Node<T>> children = node.getChildren();
+	/**
+	 * Removes a listener added with addFrameListener().
+	 *
+	 * @param listener
+	 *            - The listener to remove
+	 */
+	public void removeFrameListener(FrameListener listener) {
+		m_frameListeners.remove(listener);
+	}
 
-		if (children.size() == 0)
-			return;
+	/**
+	 * Adds a listener to be told when the tree has changed and should be
+	 * drawn again.
+	 *
+	 * @param listener
+	 *            - The listener to add
+	 */
+	public void addUpdateListener(UpdateListener listener) {
+		m_updateListeners.add(listener);
+	}
 
-		// non-root nodes calculate angles as if the parent edge is a node
-		int isRootInt = 1;
-		if (isRoot)
-			isRootInt = 0;
-		int numChildren = children.size() + isRootInt;
-
-		double childrenAngle = (2.0 * Math.PI) / ((double) numChildren);
-
-		// if the angle is greater than 180 degrees, cap it out at 180.
-		// This forces the correct size of children when the root only has one
-		// child
-		if (childrenAngle > Math.PI)
-			childrenAngle = Math.PI;
-
-		// calculate size of children nodes
-		double childrenSideLength = 2.0 * kPrimaryNodeDistance
-				* Math.sin(childrenAngle / 2.0);
-		double newDistance = childrenSideLength * 0.32;
-		double childNodeSizePercent = (newDistance / kPrimaryNodeDistance)
-				* nodeSizePercent;
-
-		long childRadius = (long) ((double) kPrimaryNodeRadius
-				* childNodeSizePercent * m_zoom);
-		long edgeLength = (long) (((double) kPrimaryNodeDistance
-				* nodeSizePercent * m_zoom) - ((double) radius + (double) childRadius));
-		// draw the edges and children nodes
-		for (int i = 0; i < children.size(); i++) {
-
-			double currentAngle = childrenAngle * (i + 1) + angleRadians;
-			long lineX1 = (long) ((double) radius * Math.cos(currentAngle)) + x;
-			long lineY1 = (long) ((double) radius * Math.sin(currentAngle)) + y;
-
-			long lineX2 = (long) ((double) (radius + edgeLength) * Math
-					.cos(currentAngle)) + x;
-			long lineY2 = (long) ((double) (radius + edgeLength) * Math
-					.sin(currentAngle)) + y;
-
-			// only draw edges that appear on the screen
-			boolean doDrawLine = true;
-			if (((lineX1 < 0 || lineX1 > 800) && (lineY1 < 0 || lineY1 > 600)
-					&& (lineX2 < 0 || lineX2 > 800) && (lineY2 < 0 || lineY2 > 600))) {
-				boolean intersectsWithScreen = (doLinesIntersect(lineX1,
-						lineY1, lineX2, lineY2, 0, 0, 800, 0)
-						|| doLinesIntersect(lineX1, lineY1, lineX2, lineY2,
-								800, 0, 800, 600)
-						|| doLinesIntersect(lineX1, lineY1, lineX2, lineY2, 0,
-								0, 0, 600) || doLinesIntersect(lineX1, lineY1,
-						lineX2, lineY2, 0, 600, 800, 600));
-				if (!intersectsWithScreen) {
-					doDrawLine = false;
-				}
-			}
-			if (doDrawLine) {
-				g2.setStroke(new BasicStroke(radius / 20.f));
-				g.setColor(outlineColor);
-				g.drawLine((int) lineX1, (int) lineY1, (int) lineX2,
-						(int) lineY2);
-			}
-			long nextX = (long) (((double) kPrimaryNodeDistance * nodeSizePercent)
-					* Math.cos(currentAngle) * m_zoom)
-					+ x;
-			long nextY = (long) (((double) kPrimaryNodeDistance * nodeSizePercent)
-					* Math.sin(currentAngle) * m_zoom)
-					+ y;
-
-			// RECURSION
-			drawNode(g, nextX, nextY, children.get(i), depth + 1,
-					childNodeSizePercent, currentAngle + Math.PI, false);
+	/**
+	 * Removes a listener added with addUpdateListener().
+	 *
+	 * @param listener
+	 *            - The listener to remove
+	 */
+	public void removeUpdateListener(UpdateListener listener) {
+		m_updateListeners.remove(listener);
+	}
+
+	/**
+	 * Get the radius of a disc around the anchor that holds every node below
+	 * it, which is the whole tree while the anchor is the root.
+	 * 
+	 * @return - The radius at zoom 1.0, or 0.0 if the tree is empty
+	 */
+	public double getTreeRadius() {
+		if (m_layout.size() == 0)
+			return 0.0;
+		return m_layout.getExtent(m_anchor.getLast());
+	}
+
+	/**
+	 * Set the level of detail: subtrees whose bounding disc has a smaller
+	 * radius on the screen than this are drawn as a single disc in their most
+	 * common color instead of node by node. A subtree that small is a smudge
+	 * either way, and this bounds the shapes drawn in a frame however bushy
+	 * the tree is.
+	 * 
+	 * @param pixels
+	 *            - Radius in pixels, or 0 to draw every node
+	 */
+	public void setDetailThreshold(int pixels) {
+		if (pixels != m_detailThreshold) {
+			m_detailThreshold = Math.max(0, pixels);
+			// anything drawn before is out of date
+			m_treeVersion++;
 		}
 	}
 
 	/**
-	 * Returns true if the line segments (x1,y1,x2,y2) and (a1,b1,a2,b2)
-	 * intersect
+	 * Get the radius below which subtrees are drawn as a single glyph.
 	 * 
-	 * @param x1
-	 *            - X1 of first line
-	 * @param y1
-	 *            - Y1 of first line
-	 * @param x2
-	 *            - X2 of first line
-	 * @param y2
-	 *            - Y2 of first line
-	 * @param a1
-	 *            - X1 of second line
-	 * @param b1
-	 *            - Y1 of second line
-	 * @param a2
-	 *            - X2 of second line
-	 * @param b2
-	 *            - Y2 of second line
-	 * @return - True if the lines intersect, false if they don't or are
-	 *         parallel
-	 */
-	private static boolean doLinesIntersect(long x1, long y1, long x2, long y2,
-			long a1, long b1, long a2, long b2) {
-		long line1X = x2 - x1;
-		long line1Y = y2 - y1;
-		long line2X = a2 - a1;
-		long line2Y = b2 - b1;
-		double line1Dotline2Perp = line1X * line2Y - line1Y * line2X;
-
-		// if b dot d == 0, it means the lines are parallel so they have
-		// infinite intersection points
-		if (line1Dotline2Perp == 0)
-			return false;
+	 * @return - Radius in pixels, or 0 if every node is drawn
+	 */
+	public int getDetailThreshold() {
+		return m_detailThreshold;
+	}
 
-		long deltaX1 = a1 - x1;
-		long deltaY1 = b1 - y1;
-		double t = (deltaX1 * line2Y - deltaY1 * line2X) / line1Dotline2Perp;
-		if (t < 0 || t > 1)
-			return false;
+	/**
+	 * Set whether labels are shaped in the background. Frames then never wait
+	 * for text to be shaped: a label not shaped yet is left out, or drawn
+	 * scaled from another size, until it is ready. Off by default, so every
+	 * frame is complete.
+	 * 
+	 * @param async
+	 *            - True to shape labels in the background
+	 */
+	public void setAsyncLabels(boolean async) {
+		m_labels.setAsync(async);
+	}
 
-		double u = (deltaX1 * line1Y - deltaY1 * line1X) / line1Dotline2Perp;
-		if (u < 0 || u > 1)
-			return false;
+	/**
+	 * Get whether labels are shaped in the background.
+	 * 
+	 * @return - True if frames leave out labels not shaped yet
+	 */
+	public boolean isAsyncLabels() {
+		return m_labels.isAsync();
+	}
 
-		return true;
+	/**
+	 * Get the labels shared by everything that draws this tree.
+	 */
+	LabelCache getLabelCache() {
+		return m_labels;
+	}
+
+	/**
+	 * Get a number that changes whenever labels shaped in the background are
+	 * ready, so anything drawn with labels pending is out of date.
+	 */
+	int getLabelVersion() {
+		return m_labelVersion;
 	}
 
 	/**
-	 * Get current zoom factor.
+	 * Get a number that changes whenever the tree being drawn changes, so
+	 * anything drawn from an older version is out of date.
+	 * 
+	 * @return - The version of the tree
+	 */
+	public int getTreeVersion() {
+		return m_treeVersion;
+	}
+
+	/**
+	 * Get current zoom factor, relative to the anchor's size.
 	 * 
 	 * @return - Current zoom factor in range (0.0,infinity).
 	 */
@@ -321,7 +918,17 @@ public class TreeController<T> {
 	}
 
 	/**
-	 * Set the zoom factor.
+	 * Get the zoom relative to the root, as a logarithm since deep in a tree
+	 * it is too large for a double.
+	 * 
+	 * @return - Base 10 logarithm of the zoom factor relative to the root
+	 */
+	public double getLogZoom() {
+		return Math.log10(m_zoom) - m_anchorLogSize;
+	}
+
+	/**
+	 * Set the zoom factor, relative to the anchor's size.
 	 * 
 	 * @param zoom
 	 *            - Desired zoom amount, values less than or equal to zero are
@@ -329,11 +936,40 @@ public class TreeController<T> {
 	 */
 	public void setZoom(double zoom) {
 		if (zoom > 0)
-			m_zoom = zoom;
+			m_zoom = Math.min(zoom, kMaxZoomRadius / kPrimaryNodeRadius);
+	}
+
+	/**
+	 * Receives the stats of each frame drawn. Called on the thread that drew
+	 * the frame, usually the event dispatch thread, so it should return
+	 * quickly.
+	 */
+	public interface FrameListener {
+		/**
+		 * Called after a frame is drawn.
+		 *
+		 * @param stats
+		 *            - Counts for the frame, which are not changed afterwards
+		 */
+		void frameDrawn(FrameStats stats);
+	}
+
+	/**
+	 * Told when the tree being drawn has changed. However many changes are
+	 * made, the listener is only told once until they are applied by the
+	 * next frame, so it can simply ask for a repaint. Called on the thread
+	 * that changed the tree.
+	 */
+	public interface UpdateListener {
+		/**
+		 * Called after the first change to the tree since the last frame.
+		 */
+		void updatePending();
 	}
 
 	/**
-	 * Class Representing a circle with center (X,Y) and radius.
+	 * Class Representing a circle with center (X,Y) and radius, and the node it
+	 * was drawn for.
 	 * 
 	 * @author Elliot Hatch and Samuel Davidson
 	 */
@@ -341,6 +977,7 @@ public class TreeController<T> {
 		public int x;
 		public int y;
 		public int radius;
+		public Object node;
 
 		/**
 		 * Creates a circle with initial values
@@ -351,11 +988,14 @@ public class TreeController<T> {
 		 *            - Y coordinate of center
 		 * @param radius
 		 *            - Radius of circle
+		 * @param node
+		 *            - The node drawn as the circle
 		 */
-		Circle(int x, int y, int radius) {
+		Circle(int x, int y, int radius, Object node) {
 			this.x = x;
 			this.y = y;
 			this.radius = radius;
+			this.node = node;
 		}
 	}
 }
@@ -0,0 +1,390 @@
+package treevisualizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a .tree file that is still being written, like "tail -f". The
+ * parser, the nodes it has left open and its offset in the file are kept
+ * between updates, so each update only parses the bytes appended since the
+ * last one. The new nodes are built off to the side and handed over as an
+ * Update that grafts them onto the tree, through the Tree's methods so a
+ * TreeController only lays out and redraws what was added.
+ *
+ * If the file gets shorter, is replaced by another file, or the bytes already
+ * parsed change, it is parsed again from the start and the Update holds a
+ * new tree instead.
+ *
+ * The nodes are indexed for searching as they are parsed, in a SearchIndex
+ * that is replaced along with the tree.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class TreeFollower {
+	private static int kReadBufferSize = 64 * 1024;
+	// most of the file parsed by one update, so a long append, or the first
+	// load, is shown as it is parsed
+	private static int kMaxUpdateSize = 4 * 1024 * 1024;
+	// bytes at the start of the file and before the offset that are checked
+	// to find rewrites
+	private static int kCheckSize = 64;
+
+	private File m_file;
+	private WatchService m_watcher;
+
+	private TreeParser m_parser;
+	private Tree<String> m_tree;
+	private List<Tree.Node<String>> m_openNodes;
+	// search index ids of the open nodes
+	private int[] m_openIds;
+	private SearchIndex m_index;
+	// open nodes below this depth are in the tree handed out by an Update,
+	// and are only changed through it
+	private int m_liveDepth;
+	private Update m_update;
+
+	// what the file looked like after the last update
+	private Object m_fileKey;
+	private long m_size;
+	private FileTime m_modified;
+	private byte[] m_head;
+	private byte[] m_tail;
+
+	/**
+	 * Creates a TreeFollower for a file. Nothing is read until the first
+	 * update().
+	 *
+	 * @param file
+	 *            - .tree file to be followed, which need not exist yet
+	 */
+	public TreeFollower(File file) {
+		m_file = file;
+	}
+
+	/**
+	 * Get the file being followed.
+	 *
+	 * @return - The .tree file
+	 */
+	public File getFile() {
+		return m_file;
+	}
+
+	/**
+	 * Parses whatever has been written to the file since the last update.
+	 * The first update parses the file from the start.
+	 *
+	 * @return - The nodes appended, or a new tree if the file was parsed
+	 *         from the start. Null if the file has not changed, or does not
+	 *         exist.
+	 * @throws IOException
+	 *             - Throws if the file could not be read.
+	 * @throws TreeParseException
+	 *             - Throws if the file is malformed.
+	 */
+	public Update update() throws IOException {
+		Path path = m_file.toPath();
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException exc) {
+			// being replaced, wait for the new file
+			return null;
+		}
+		boolean replaced = m_fileKey != null
+				&& !m_fileKey.equals(attributes.fileKey());
+		// an update stops after kMaxUpdateSize bytes, so there may be more
+		// to parse even if the file has not changed since
+		boolean unparsed = m_parser != null && !m_parser.isDone()
+				&& m_parser.getOffset() < attributes.size();
+		if (m_parser != null && !replaced && !unparsed
+				&& attributes.size() == m_size
+				&& attributes.lastModifiedTime().equals(m_modified))
+			return null;
+
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		} catch (NoSuchFileException exc) {
+			return null;
+		}
+		try {
+			long size = channel.size();
+			boolean reload = m_parser == null || replaced
+					|| isRewritten(channel, size);
+			m_fileKey = attributes.fileKey();
+			m_modified = attributes.lastModifiedTime();
+			m_size = size;
+			if (reload)
+				return parse(channel, true);
+			try {
+				return parse(channel, false);
+			} catch (TreeParseException exc) {
+				// the file changed in a way the checks missed, or really is
+				// malformed, which parsing it again will tell
+				return parse(channel, true);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Waits for the file to change, using a WatchService on its directory.
+	 * Returns early for any change in the directory, and after the timeout
+	 * either way, since some file systems are not watched or are only
+	 * checked every few seconds.
+	 *
+	 * @param timeout
+	 *            - Longest time to wait in milliseconds
+	 * @throws InterruptedException
+	 *             - Throws if the thread is interrupted while waiting.
+	 */
+	public void awaitChange(long timeout) throws InterruptedException {
+		if (m_watcher == null) {
+			try {
+				Path directory = m_file.getAbsoluteFile().getParentFile()
+						.toPath();
+				m_watcher = FileSystems.getDefault().newWatchService();
+				directory.register(m_watcher,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+			} catch (IOException exc) {
+				// fall back to polling
+				close();
+				Thread.sleep(timeout);
+				return;
+			}
+		}
+		WatchKey key = m_watcher.poll(timeout, TimeUnit.MILLISECONDS);
+		if (key != null) {
+			key.pollEvents();
+			key.reset();
+		}
+	}
+
+	/**
+	 * Stops watching the file's directory.
+	 */
+	public void close() {
+		if (m_watcher != null) {
+			try {
+				m_watcher.close();
+			} catch (IOException exc) {
+				// nothing is being watched either way
+			}
+			m_watcher = null;
+		}
+	}
+
+	/**
+	 * Checks whether the bytes already parsed are still in the file.
+	 */
+	private boolean isRewritten(FileChannel channel, long size)
+			throws IOException {
+		long offset = m_parser.getOffset();
+		if (size < offset)
+			return true;
+		if (!Arrays.equals(m_head, read(channel, 0, m_head.length)))
+			return true;
+		return !Arrays.equals(m_tail,
+				read(channel, offset - m_tail.length, m_tail.length));
+	}
+
+	/**
+	 * Parses the file from the parser's offset, or from the start, up to
+	 * kMaxUpdateSize bytes.
+	 */
+	private Update parse(FileChannel channel, boolean reload)
+			throws IOException {
+		if (reload) {
+			m_parser = new TreeParser(new Grafter());
+			m_tree = new Tree<String>(null);
+			m_openNodes = new ArrayList<Tree.Node<String>>();
+			m_openIds = new int[64];
+			m_index = new SearchIndex();
+		}
+		m_update = new Update(m_tree, m_index);
+		if (reload)
+			m_update.m_reloaded = true;
+		m_liveDepth = reload ? 0 : m_openNodes.size();
+
+		long position = m_parser.getOffset();
+		long end = Math.min(m_size, position + kMaxUpdateSize);
+		ByteBuffer buffer = ByteBuffer.allocate(kReadBufferSize);
+		try {
+			while (position < end && !m_parser.isDone()) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - position));
+				int count = channel.read(buffer, position);
+				if (count <= 0)
+					break;
+				position += count;
+				buffer.flip();
+				m_parser.feed(buffer);
+			}
+		} catch (IOException exc) {
+			// start again next time
+			m_parser = null;
+			throw exc;
+		}
+
+		long offset = m_parser.getOffset();
+		m_head = read(channel, 0, (int) Math.min(kCheckSize, offset));
+		m_tail = read(channel, offset - Math.min(kCheckSize, offset),
+				(int) Math.min(kCheckSize, offset));
+
+		Update update = m_update;
+		m_update = null;
+		if (!update.m_reloaded && update.m_nodeCount == 0)
+			return null;
+		return update;
+	}
+
+	private static byte[] read(FileChannel channel, long position, int length)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) <= 0)
+				break;
+		}
+		if (buffer.hasRemaining())
+			return Arrays.copyOf(buffer.array(), buffer.position());
+		return buffer.array();
+	}
+
+	/**
+	 * Builds the nodes for tags parsed in an update. Nodes whose parent was
+	 * parsed in the same update are added to it directly, and the others are
+	 * kept to be grafted onto their parents when the update is applied.
+	 */
+	private class Grafter implements TreeParser.Handler {
+		@Override
+		public void openTag(TreeParser.Tag tag) {
+			String name = tag.getName();
+			int depth = m_openNodes.size();
+			Tree.Node<String> node;
+			if (depth == 0) {
+				// the parser stops once the root is closed, so this is the
+				// first tag. The tree had no root until now.
+				node = new Tree.Node<String>(name, null);
+				m_tree = new Tree<String>(null);
+				m_tree.setRootNode(node);
+				m_update.m_tree = m_tree;
+				m_update.m_reloaded = true;
+			} else if (depth <= m_liveDepth) {
+				Tree.Node<String> parent = m_openNodes.get(depth - 1);
+				node = new Tree.Node<String>(name, parent);
+				m_update.m_parents.add(parent);
+				m_update.m_children.add(node);
+			} else {
+				node = m_openNodes.get(depth - 1).addChild(name);
+			}
+			m_update.m_nodeCount++;
+			m_openNodes.add(node);
+			if (depth == m_openIds.length)
+				m_openIds = Arrays.copyOf(m_openIds, depth * 2);
+			m_openIds[depth] = m_index.add(depth > 0 ? m_openIds[depth - 1]
+					: -1, name);
+		}
+
+		@Override
+		public void closeTag(TreeParser.Tag tag) {
+			m_openNodes.remove(m_openNodes.size() - 1);
+			m_liveDepth = Math.min(m_liveDepth, m_openNodes.size());
+		}
+	}
+
+	/**
+	 * The result of one update. Updates must be applied in the order they
+	 * were made, on the thread that draws the tree.
+	 */
+	public static class Update {
+		private Tree<String> m_tree;
+		private SearchIndex m_index;
+		private boolean m_reloaded;
+		private int m_nodeCount;
+		// grafts, in file order
+		private List<Tree.Node<String>> m_parents;
+		private List<Tree.Node<String>> m_children;
+
+		private Update(Tree<String> tree, SearchIndex index) {
+			m_tree = tree;
+			m_index = index;
+			m_parents = new ArrayList<Tree.Node<String>>();
+			m_children = new ArrayList<Tree.Node<String>>();
+		}
+
+		/**
+		 * Returns true if the file was parsed from the start, so getTree()
+		 * is a new tree that replaces the old one.
+		 *
+		 * @return - True if the tree is new
+		 */
+		public boolean isReloaded() {
+			return m_reloaded;
+		}
+
+		/**
+		 * Get the tree this update is for.
+		 *
+		 * @return - The new tree if the file was parsed from the start, and
+		 *         otherwise the tree the nodes are grafted onto
+		 */
+		public Tree<String> getTree() {
+			return m_tree;
+		}
+
+		/**
+		 * Get the search index of the tree. Nodes are added to it as they are
+		 * parsed, so it can be ahead of the tree until the update is
+		 * applied.
+		 *
+		 * @return - Index of the tree from getTree()
+		 */
+		public SearchIndex getIndex() {
+			return m_index;
+		}
+
+		/**
+		 * Get the number of nodes parsed.
+		 *
+		 * @return - Number of opening tags in the update
+		 */
+		public int getNodeCount() {
+			return m_nodeCount;
+		}
+
+		/**
+		 * Grafts the nodes appended to the file onto the tree. A new tree is
+		 * already complete, and is left as it is.
+		 */
+		public void apply() {
+			for (int i = 0; i < m_children.size(); i++) {
+				Tree.Node<String> parent = m_parents.get(i);
+				m_tree.insertChild(parent, parent.getChildren().size(),
+						m_children.get(i));
+			}
+			m_parents.clear();
+			m_children.clear();
+		}
+	}
+}
@@ -0,0 +1,642 @@
+package treevisualizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cached positions and sizes of the nodes of a tree. The layout only depends
+ * on the structure of the tree, so it is computed once per node and drawing
+ * at any zoom or camera position is a scale and translation of the cached
+ * values.
+ *
+ * Each entry is stored relative to its parent: the angle of the edge from
+ * the parent, turned from the edge into the parent, and the entry's size as
+ * a fraction of the parent's. A node of size 1.0 has radius
+ * kPrimaryNodeRadius and its children are kPrimaryNodeDistance from it.
+ * Nothing is measured from the root, so entries thousands of levels deep are
+ * as precise as the root's children, and drawing can start from any entry.
+ *
+ * Entries are created lazily, the children of an entry all at once when they
+ * are first asked for, so only the parts of the tree that have been drawn are
+ * laid out. Since nothing depends on where a node is, the children of a
+ * shared node are laid out once and every entry of the node points to them:
+ * the layout of a fractal tree stays the size of the tree however far into
+ * it is drawn, and an entry may be reached by many paths. A LayoutPath picks
+ * out one of them.
+ *
+ * Several threads can draw from a layout at once. Laying out children and
+ * looking up labels are synchronized, and nothing else about an entry changes
+ * after it is created. getNode(), getNodeId(), getChildCount(), getScale(),
+ * getExtent(), getCos() and getSin() do not lock: the arrays they read are
+ * volatile, and when they grow the full copy is stored in the field. A
+ * thread that reached an entry through getFirstChild() sees it in the old
+ * array or the new one. The layout must not be cleared or updated while
+ * other threads are drawing.
+ *
+ * When nodes of the tree change, nodesChanged() lays out again only the
+ * children of the nodes that changed. The entries they had are left behind
+ * until the layout is cleared.
+ *
+ * The node of each entry is kept as the handle the TreeModel gave, or as an
+ * int when the tree is an IntTreeModel, so the ids of a CompactTree are not
+ * boxed while it is laid out and drawn.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class TreeLayout {
+	// a layout bigger than this is thrown away and started again, to bound
+	// the memory used by browsing around trees too big to lay out at once
+	private static int kMaxEntries = 4000000;
+	// children are never more than this fraction of their parent's size,
+	// which bounds how far a subtree can reach
+	private static double kMaxChildScale = 0.64;
+	// subtrees are summarized from at most this many of their top nodes
+	private static int kMaxSummaryNodes = 256;
+
+	private TreeModel<Object> m_model;
+	// the same model, if it is an IntTreeModel
+	private IntTreeModel m_intModel;
+	private int m_size;
+
+	// first child of the entries laid out for each shared node
+	private HashMap<Object, Integer> m_sharedChildren;
+	// an entry holding the summary of each shared node summarized
+	private HashMap<Object, Integer> m_sharedSummaries;
+
+	// nodes of the entries: handles, or ids if m_intModel is set, in which
+	// case m_node is null. This and the other volatile arrays are read
+	// without locking.
+	private volatile Object[] m_node;
+	private volatile int[] m_nodeId;
+	// labels are looked up the first time they are drawn
+	private String[] m_label;
+	// children of an entry are consecutive, -1 until they are laid out
+	private int[] m_firstChild;
+	private volatile int[] m_childCount;
+	// size of the entry relative to its parent
+	private volatile double[] m_scale;
+	// cosine and sine of the angle of the edge from the parent to the entry,
+	// relative to the edge into the parent
+	private volatile double[] m_cos;
+	private volatile double[] m_sin;
+	// radius of a disc around the entry that holds its entire subtree, for
+	// an entry of size 1.0
+	private volatile double[] m_extent;
+	// summary of the entry's subtree, counted when first asked for: its
+	// number of nodes and levels, 0 until counted, and the level with the
+	// most nodes, relative to the entry
+	private int[] m_subtreeSize;
+	private int[] m_subtreeDepth;
+	private byte[] m_subtreeLevel;
+	// queue of nodes while counting a subtree, reused by each count
+	private Object[] m_summaryNodes;
+	private int[] m_summaryNodeIds;
+
+	/**
+	 * Creates a layout for a tree. Only the root is laid out until more is
+	 * asked for.
+	 *
+	 * @param model
+	 *            - The tree
+	 */
+	@SuppressWarnings("unchecked")
+	public TreeLayout(TreeModel<?> model) {
+		// node handles are only ever passed back to the model they came from
+		m_model = (TreeModel<Object>) model;
+		if (model instanceof IntTreeModel)
+			m_intModel = (IntTreeModel) model;
+		m_sharedChildren = new HashMap<Object, Integer>();
+		m_sharedSummaries = new HashMap<Object, Integer>();
+		allocate(1024);
+		clear();
+	}
+
+	/**
+	 * Throws away every entry except the root, which is laid out again from
+	 * the tree. Call when the tree's structure changes.
+	 */
+	public synchronized void clear() {
+		// let go of the nodes, which a lazy tree may have dropped
+		if (m_node != null)
+			Arrays.fill(m_node, 0, m_size, null);
+		Arrays.fill(m_label, 0, m_size, null);
+		m_size = 0;
+		m_sharedChildren.clear();
+		m_sharedSummaries.clear();
+		if (m_intModel != null) {
+			int root = m_intModel.getRootId();
+			if (root >= 0)
+				addEntry(root, true, 1.0, 1.0, 0.0);
+			return;
+		}
+		Object root = m_model == null ? null : m_model.getRoot();
+		if (root != null) {
+			addEntry(root, true, 1.0, 1.0, 0.0);
+		}
+	}
+
+	/**
+	 * Updates the entries of nodes whose children or labels have changed in
+	 * the tree, wherever the nodes appear. The children of a changed node are
+	 * laid out again, and children it already had keep the layout of their
+	 * own subtrees. Entry numbers of the changed nodes, and of everything not
+	 * below them, stay the same.
+	 *
+	 * @param childrenChanged
+	 *            - Nodes whose children were added, removed or moved
+	 * @param labelsChanged
+	 *            - Nodes whose labels changed
+	 */
+	public synchronized void nodesChanged(Set<?> childrenChanged,
+			Set<?> labelsChanged) {
+		if (!childrenChanged.isEmpty()) {
+			for (Object node : childrenChanged)
+				m_sharedChildren.remove(node);
+			// any subtree above a change may be counted differently
+			m_sharedSummaries.clear();
+			Arrays.fill(m_subtreeSize, 0, m_size, 0);
+		}
+		// boxed ids are equal without being the same object
+		Map<Object, Integer> oldChildren = m_intModel != null ? new HashMap<Object, Integer>()
+				: new IdentityHashMap<Object, Integer>();
+		// entries added while laying out are already up to date
+		int size = m_size;
+		for (int entry = 0; entry < size; entry++) {
+			Object node = getNode(entry);
+			if (labelsChanged.contains(node))
+				m_label[entry] = null;
+			if (childrenChanged.contains(node))
+				relayoutChildren(entry, childrenChanged, oldChildren);
+		}
+	}
+
+	/**
+	 * Lays out the children of an entry again, if they have been laid out,
+	 * reusing the layout below children the entry already had.
+	 */
+	private void relayoutChildren(int entry, Set<?> childrenChanged,
+			Map<Object, Integer> oldChildren) {
+		int oldFirst = m_firstChild[entry];
+		int oldCount = m_childCount[entry];
+		m_childCount[entry] = getModelChildCount(entry);
+		m_extent[entry] = getExtent(m_childCount[entry], entry == 0);
+		m_firstChild[entry] = -1;
+		if (oldFirst < 0)
+			return;
+		int firstChild = m_size;
+		layoutChildren(entry);
+		// another entry of a shared node may have laid them out already
+		if (m_firstChild[entry] != firstChild)
+			return;
+		oldChildren.clear();
+		for (int child = oldFirst; child < oldFirst + oldCount; child++)
+			oldChildren.put(getNode(child), child);
+		for (int child = firstChild; child < m_size; child++) {
+			Object node = getNode(child);
+			Integer old = oldChildren.get(node);
+			if (old == null)
+				continue;
+			// a child whose own children changed is laid out when next drawn
+			if (!childrenChanged.contains(node))
+				m_firstChild[child] = m_firstChild[old];
+		}
+	}
+
+	/**
+	 * Get the number of entries laid out so far.
+	 *
+	 * @return - Number of entries. The root entry is 0, if there is one.
+	 */
+	public synchronized int size() {
+		return m_size;
+	}
+
+	/**
+	 * Returns true if the layout has grown past its limit and should be
+	 * cleared. Entry numbers change when the layout is cleared, so that
+	 * should only be done between frames, keeping paths with
+	 * LayoutPath.getIndexes().
+	 *
+	 * @return - True if the layout is too big
+	 */
+	public synchronized boolean isFull() {
+		return m_size > kMaxEntries;
+	}
+
+	/**
+	 * Get the tree node an entry lays out. The id of a node of an
+	 * IntTreeModel is boxed, which getNodeId() avoids.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - Handle of the node in the tree's TreeModel
+	 */
+	public Object getNode(int entry) {
+		if (m_node == null)
+			return Integer.valueOf(m_nodeId[entry]);
+		return m_node[entry];
+	}
+
+	/**
+	 * Returns true if the tree is an IntTreeModel, whose node ids can be got
+	 * with getNodeId().
+	 *
+	 * @return - True if entries keep int ids
+	 */
+	public boolean hasNodeIds() {
+		return m_intModel != null;
+	}
+
+	/**
+	 * Get the id of the tree node an entry lays out, when hasNodeIds().
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - Id of the node in the tree's IntTreeModel
+	 */
+	public int getNodeId(int entry) {
+		return m_nodeId[entry];
+	}
+
+	/**
+	 * Get the text displayed for an entry.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - Label of the entry's node
+	 */
+	public synchronized String getLabel(int entry) {
+		String label = m_label[entry];
+		if (label == null) {
+			if (m_intModel != null)
+				label = m_intModel.getLabel(m_nodeId[entry]);
+			else
+				label = m_model.getLabel(m_node[entry]);
+			m_label[entry] = label;
+		}
+		return label;
+	}
+
+	/**
+	 * Get the number of children of an entry's node.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - Number of children in the tree
+	 */
+	public int getChildCount(int entry) {
+		return m_childCount[entry];
+	}
+
+	/**
+	 * Get the first child of an entry, laying out its children if they have
+	 * not been yet. The other children follow it in order.
+	 *
+	 * @param entry
+	 *            - The entry, which must have children
+	 * @return - The first child entry
+	 */
+	public synchronized int getFirstChild(int entry) {
+		if (m_firstChild[entry] < 0)
+			layoutChildren(entry);
+		return m_firstChild[entry];
+	}
+
+	/**
+	 * Returns true if the children of an entry have been laid out.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - True if getFirstChild() will not create entries
+	 */
+	public synchronized boolean isLaidOut(int entry) {
+		return m_firstChild[entry] >= 0;
+	}
+
+	/**
+	 * Get the size of an entry relative to its parent. The entry is
+	 * kPrimaryNodeDistance times its parent's size from it.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - Size, where the parent is 1.0, or 1.0 for the root
+	 */
+	public double getScale(int entry) {
+		return m_scale[entry];
+	}
+
+	/**
+	 * Get the radius of a disc, centered on an entry, that contains the entry
+	 * and all of its descendants, whether or not they are laid out yet. If
+	 * the disc is off the screen, so is the whole subtree.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - The radius when the entry has size 1.0
+	 */
+	public double getExtent(int entry) {
+		return m_extent[entry];
+	}
+
+	/**
+	 * Get the number of nodes in an entry's subtree, counting the entry. Only
+	 * the top kMaxSummaryNodes nodes are counted, breadth first, so larger
+	 * subtrees, and subtrees of cycles, count as that many.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - Number of nodes, at least 1
+	 */
+	public synchronized int getSubtreeSize(int entry) {
+		summarize(entry);
+		return m_subtreeSize[entry];
+	}
+
+	/**
+	 * Get the number of levels in an entry's subtree, as far as
+	 * getSubtreeSize() counted.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - Number of levels, 1 for a leaf
+	 */
+	public synchronized int getSubtreeDepth(int entry) {
+		summarize(entry);
+		return m_subtreeDepth[entry];
+	}
+
+	/**
+	 * Get the level of an entry's subtree with the most nodes, of the ones
+	 * getSubtreeSize() counted. Nodes are colored by depth, so this gives the
+	 * color most of a subtree too small to see is drawn in.
+	 *
+	 * @param entry
+	 *            - The entry
+	 * @return - The level, where the entry is 0
+	 */
+	public synchronized int getSubtreeLevel(int entry) {
+		summarize(entry);
+		return m_subtreeLevel[entry];
+	}
+
+	/**
+	 * Counts the nodes of an entry's subtree in the tree, breadth first, up
+	 * to kMaxSummaryNodes of them. The subtree of a shared node is only
+	 * counted once.
+	 */
+	private void summarize(int entry) {
+		if (m_subtreeSize[entry] > 0)
+			return;
+		boolean isShared = entry != 0 && isSharedNode(entry);
+		if (isShared) {
+			Integer summarized = m_sharedSummaries.get(getNode(entry));
+			if (summarized != null) {
+				m_subtreeSize[entry] = m_subtreeSize[summarized];
+				m_subtreeDepth[entry] = m_subtreeDepth[summarized];
+				m_subtreeLevel[entry] = m_subtreeLevel[summarized];
+				return;
+			}
+		}
+
+		// no more than kMaxSummaryNodes are ever queued, so the queue is
+		// never wrapped around. Nodes are taken off at head, and the ones
+		// from head to levelEnd are the rest of the current level.
+		if (m_summaryNodeIds == null) {
+			m_summaryNodeIds = new int[kMaxSummaryNodes];
+			m_summaryNodes = new Object[kMaxSummaryNodes];
+		}
+		int[] ids = m_summaryNodeIds;
+		Object[] nodes = m_summaryNodes;
+		if (m_intModel != null)
+			ids[0] = m_nodeId[entry];
+		else
+			nodes[0] = m_node[entry];
+		int head = 0;
+		int tail = 1;
+		int size = 0;
+		int level = 0;
+		int mostNodes = 0;
+		int mostLevel = 0;
+		while (head < tail) {
+			int levelNodes = tail - head;
+			size += levelNodes;
+			if (levelNodes > mostNodes) {
+				mostNodes = levelNodes;
+				mostLevel = level;
+			}
+			level++;
+			for (int levelEnd = tail; head < levelEnd;) {
+				if (m_intModel != null) {
+					int levelNode = ids[head++];
+					int childCount = m_intModel.getChildCount(levelNode);
+					for (int child = 0; child < childCount
+							&& size + tail - head < kMaxSummaryNodes; child++)
+						ids[tail++] = m_intModel.getChildId(levelNode, child);
+				} else {
+					Object levelNode = nodes[head++];
+					int childCount = m_model.getChildCount(levelNode);
+					for (int child = 0; child < childCount
+							&& size + tail - head < kMaxSummaryNodes; child++)
+						nodes[tail++] = m_model.getChild(levelNode, child);
+				}
+			}
+		}
+		if (m_intModel == null)
+			Arrays.fill(nodes, 0, tail, null);
+		m_subtreeSize[entry] = size;
+		m_subtreeDepth[entry] = level;
+		m_subtreeLevel[entry] = (byte) Math.min(mostLevel, Byte.MAX_VALUE);
+		if (isShared)
+			m_sharedSummaries.put(getNode(entry), entry);
+	}
+
+	/**
+	 * Get the cosine of the angle of the edge from an entry's parent to the
+	 * entry, relative to the direction of the edge into the parent, or to
+	 * the X axis for children of the root.
+	 */
+	public double getCos(int entry) {
+		return m_cos[entry];
+	}
+
+	/**
+	 * Get the sine of the angle of the edge from an entry's parent to the
+	 * entry, relative to the direction of the edge into the parent.
+	 */
+	public double getSin(int entry) {
+		return m_sin[entry];
+	}
+
+	/**
+	 * Lays out the children of an entry around it, or points it at the
+	 * children already laid out for another entry of a shared node. Children
+	 * are spaced evenly around the entry, counting the edge to its parent as
+	 * one of them.
+	 */
+	private void layoutChildren(int entry) {
+		// the root entry is laid out differently from other entries of the
+		// root node, as it has no parent edge
+		boolean isRoot = entry == 0;
+		boolean isShared = !isRoot && isSharedNode(entry);
+		Object node = isShared ? getNode(entry) : null;
+		if (isShared) {
+			Integer sharedChildren = m_sharedChildren.get(node);
+			if (sharedChildren != null) {
+				m_firstChild[entry] = sharedChildren;
+				return;
+			}
+		}
+
+		int childCount = m_childCount[entry];
+		double childrenAngle = getChildrenAngle(childCount, isRoot);
+		double childScale = getChildScale(childrenAngle);
+		// the edge into the entry points away from its parent, so the edge
+		// back to the parent is half a turn around
+		double angleRadians = isRoot ? 0.0 : Math.PI;
+
+		int firstChild = m_size;
+		for (int i = 0; i < childCount; i++) {
+			double currentAngle = childrenAngle * (i + 1) + angleRadians;
+			double cos = Math.cos(currentAngle);
+			double sin = Math.sin(currentAngle);
+			if (m_intModel != null)
+				addEntry(m_intModel.getChildId(m_nodeId[entry], i), false,
+						childScale, cos, sin);
+			else
+				addEntry(m_model.getChild(m_node[entry], i), false,
+						childScale, cos, sin);
+		}
+		m_firstChild[entry] = firstChild;
+		if (isShared)
+			m_sharedChildren.put(node, firstChild);
+	}
+
+	/**
+	 * Get the angle between the edges to the children of a node.
+	 */
+	private static double getChildrenAngle(int childCount, boolean isRoot) {
+		// non-root nodes calculate angles as if the parent edge is a node
+		int numChildren = childCount + (isRoot ? 0 : 1);
+		double childrenAngle = (2.0 * Math.PI) / ((double) numChildren);
+		// if the angle is greater than 180 degrees, cap it out at 180.
+		// This forces the correct size of children when the root only has one
+		// child
+		if (childrenAngle > Math.PI)
+			childrenAngle = Math.PI;
+		return childrenAngle;
+	}
+
+	/**
+	 * Get the size of a node's children relative to the node, so that
+	 * neighbouring children do not overlap.
+	 */
+	private static double getChildScale(double childrenAngle) {
+		double childrenSideLength = 2.0 * TreeController.kPrimaryNodeDistance
+				* Math.sin(childrenAngle / 2.0);
+		double newDistance = childrenSideLength * 0.32;
+		return newDistance / TreeController.kPrimaryNodeDistance;
+	}
+
+	/**
+	 * Get the radius of the disc holding a subtree. Each generation is at
+	 * most kMaxChildScale the size of the one before, so the descendants of a
+	 * child are within a geometric series of edge lengths of it.
+	 */
+	static double getExtent(int childCount, boolean isRoot) {
+		double radius = TreeController.kPrimaryNodeRadius;
+		if (childCount == 0)
+			return radius;
+		double childScale = getChildScale(getChildrenAngle(childCount, isRoot));
+		double childExtent = childScale
+				* (TreeController.kPrimaryNodeRadius + TreeController.kPrimaryNodeDistance
+						/ (1.0 - kMaxChildScale));
+		return Math.max(radius, TreeController.kPrimaryNodeDistance
+				+ childExtent);
+	}
+
+	private void addEntry(Object node, boolean isRoot, double scale,
+			double cos, double sin) {
+		int entry = newEntry(m_model.getChildCount(node), isRoot, scale, cos,
+				sin);
+		m_node[entry] = node;
+	}
+
+	private void addEntry(int node, boolean isRoot, double scale,
+			double cos, double sin) {
+		int entry = newEntry(m_intModel.getChildCount(node), isRoot, scale,
+				cos, sin);
+		m_nodeId[entry] = node;
+	}
+
+	/**
+	 * Adds an entry, leaving its node to be set by the caller.
+	 */
+	private int newEntry(int childCount, boolean isRoot, double scale,
+			double cos, double sin) {
+		if (m_size == m_scale.length)
+			allocate(m_size * 2);
+		int entry = m_size++;
+		m_label[entry] = null;
+		m_firstChild[entry] = -1;
+		m_childCount[entry] = childCount;
+		m_scale[entry] = scale;
+		m_cos[entry] = cos;
+		m_sin[entry] = sin;
+		m_extent[entry] = getExtent(childCount, isRoot);
+		m_subtreeSize[entry] = 0;
+		return entry;
+	}
+
+	private int getModelChildCount(int entry) {
+		if (m_intModel != null)
+			return m_intModel.getChildCount(m_nodeId[entry]);
+		return m_model.getChildCount(m_node[entry]);
+	}
+
+	private boolean isSharedNode(int entry) {
+		if (m_intModel != null)
+			return m_intModel.isShared(m_nodeId[entry]);
+		return m_model.isShared(m_node[entry]);
+	}
+
+	private void allocate(int capacity) {
+		if (m_scale == null) {
+			if (m_intModel != null)
+				m_nodeId = new int[capacity];
+			else
+				m_node = new Object[capacity];
+			m_label = new String[capacity];
+			m_firstChild = new int[capacity];
+			m_childCount = new int[capacity];
+			m_scale = new double[capacity];
+			m_cos = new double[capacity];
+			m_sin = new double[capacity];
+			m_extent = new double[capacity];
+			m_subtreeSize = new int[capacity];
+			m_subtreeDepth = new int[capacity];
+			m_subtreeLevel = new byte[capacity];
+			return;
+		}
+		// each field is only written once its copy is complete, and being
+		// volatile, publishes the copied entries to threads reading without
+		// the lock
+		if (m_intModel != null)
+			m_nodeId = Arrays.copyOf(m_nodeId, capacity);
+		else
+			m_node = Arrays.copyOf(m_node, capacity);
+		m_label = Arrays.copyOf(m_label, capacity);
+		m_firstChild = Arrays.copyOf(m_firstChild, capacity);
+		m_childCount = Arrays.copyOf(m_childCount, capacity);
+		m_scale = Arrays.copyOf(m_scale, capacity);
+		m_cos = Arrays.copyOf(m_cos, capacity);
+		m_sin = Arrays.copyOf(m_sin, capacity);
+		m_extent = Arrays.copyOf(m_extent, capacity);
+		m_subtreeSize = Arrays.copyOf(m_subtreeSize, capacity);
+		m_subtreeDepth = Arrays.copyOf(m_subtreeDepth, capacity);
+		m_subtreeLevel = Arrays.copyOf(m_subtreeLevel, capacity);
+	}
+}
@@ -1,8 +1,15 @@
 package treevisualizer;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Class for loading .tree Files
@@ -11,56 +18,626 @@ import java.util.Scanner;
  * @version March 19, 2014
  */
 public class TreeLoader {
+	// how much of a mapped file is parsed between progress reports
+	private static int kMappedProgressStep = 4 * 1024 * 1024;
+	// smaller files are not worth splitting up to parse in parallel
+	private static long kParallelLoadSize = 256 * 1024;
+	private static int kChunksPerThread = 4;
 
 	/**
-	 * Constructs a tree with String data from a .tree File
+	 * Constructs a tree with String data from a .tree File. If the file has an
+	 * up to date .treeb companion, the tree is read from that instead.
 	 * 
 	 * @param file
 	 *            - .tree file to be loaded
 	 * @return - Fully constructed Tree<String>
 	 * @throws IOException
 	 *             - Throws if .tree file could not be read.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
 	 */
 	public static Tree<String> loadTreeFile(File file) throws IOException {
+		return loadTreeFile(file, null);
+	}
 
-		Scanner fileScanner = new Scanner(file);
-
-		Tree<String> tree = new Tree<String>(null);
-		fileScanner.useDelimiter("<");
-
-		if (fileScanner.hasNext()) {
-			// initialize root node
-			String nodeStr = fileScanner.next();
-			Scanner nodeScanner = new Scanner(nodeStr);
-			String id = nodeScanner.next();
-			String nodeName = nodeScanner.next();
-			nodeName = nodeName.substring(0, nodeName.length() - 1);
-			tree.getRootNode().setData(nodeName);
-			nodeScanner.close();
-			// add all the other nodes
-			Tree.Node<String> currentNode = tree.getRootNode();
-			while (fileScanner.hasNext()) {
-				nodeStr = fileScanner.next();
-				nodeScanner = new Scanner(nodeStr);
-				id = nodeScanner.next();
-				if (id.substring(0, 1).equals("/")) {
-					// end branch
-					if (currentNode == tree.getRootNode()) {
-						nodeScanner.close();
-						break;
-					}
-					currentNode = currentNode.getParent();
-					nodeScanner.close();
-					continue;
+	/**
+	 * Constructs a tree with String data from a .tree File, reporting each
+	 * node and the number of bytes read to a listener as it goes. If the file
+	 * has an up to date .treeb companion, the tree is read from that instead.
+	 * 
+	 * @param file
+	 *            - .tree file to be loaded
+	 * @param listener
+	 *            - Notified of loading progress, may be null
+	 * @return - Fully constructed Tree<String>
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read or the listener
+	 *             cancelled loading.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<String> loadTreeFile(File file,
+			LoadListener<? super String> listener) throws IOException {
+		TreeBinaryFile binary = TreeBinaryFile.openCompanion(file);
+		if (binary != null)
+			return readTree(binary, listener);
+		return parseTreeFile(file, listener);
+	}
+
+	/**
+	 * Reads a tree from a .treeb file and closes it.
+	 */
+	private static Tree<String> readTree(TreeBinaryFile binary,
+			LoadListener<? super String> listener) throws IOException {
+		try {
+			return binary.readTree(listener);
+		} finally {
+			binary.close();
+		}
+	}
+
+	/**
+	 * Constructs a tree with String data by parsing a .tree File as text,
+	 * whether or not it has a .treeb companion.
+	 * 
+	 * @param file
+	 *            - .tree file to be parsed
+	 * @return - Fully constructed Tree<String>
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<String> parseTreeFile(File file) throws IOException {
+		return parseTreeFile(file, null);
+	}
+
+	/**
+	 * Constructs a tree with String data by parsing a .tree File as text,
+	 * whether or not it has a .treeb companion, reporting each node and the
+	 * number of bytes read to a listener as it goes.
+	 * 
+	 * @param file
+	 *            - .tree file to be parsed
+	 * @param listener
+	 *            - Notified of loading progress, may be null
+	 * @return - Fully constructed Tree<String>
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read or the listener
+	 *             cancelled loading.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<String> parseTreeFile(File file,
+			LoadListener<? super String> listener) throws IOException {
+		InputStream in = new FileInputStream(file);
+		if (listener != null)
+			in = new ProgressInputStream(in, file.length(), listener);
+		try {
+			TreeBuilder<String> builder = new TreeBuilder<String>(listener) {
+				@Override
+				protected String createData(TreeParser.Tag tag) {
+					return tag.getName();
 				}
-				nodeName = nodeScanner.next();
-				nodeName = nodeName.substring(0, nodeName.length() - 1);
-				currentNode = currentNode.addChild(nodeName);
-				nodeScanner.close();
+			};
+			new TreeParser(builder).parse(in);
+			return builder.getTree();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Constructs a tree with String data from a .tree File, parsing pieces of
+	 * the file on all cores at once. Produces the same tree as
+	 * loadTreeFile().
+	 * 
+	 * The file is memory mapped and split into chunks that each begin with a
+	 * tag. Each chunk is parsed on its own into subtrees, keeping track of the
+	 * closing tags it has for nodes opened in earlier chunks. The chunks'
+	 * subtrees are then attached, in file order, to the nodes left open by
+	 * the chunks before them. Files with an up to date .treeb companion are
+	 * read from that instead, and small files are parsed with
+	 * parseTreeFile().
+	 * 
+	 * @param file
+	 *            - .tree file to be loaded
+	 * @return - Fully constructed Tree<String>
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<String> loadTreeFileParallel(File file)
+			throws IOException {
+		return loadTreeFileParallel(file, null);
+	}
+
+	/**
+	 * Constructs a tree with String data from a .tree File, parsing pieces of
+	 * the file on all cores at once and reporting progress to a listener as
+	 * each piece is stitched on. The chunks are parsed out of order, so
+	 * nodeLoaded() is only called when the file is read from its companion or
+	 * is too small to split up.
+	 * 
+	 * @param file
+	 *            - .tree file to be loaded
+	 * @param listener
+	 *            - Notified of loading progress, may be null
+	 * @return - Fully constructed Tree<String>
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read or the listener
+	 *             cancelled loading.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<String> loadTreeFileParallel(File file,
+			LoadListener<? super String> listener) throws IOException {
+		TreeBinaryFile binary = TreeBinaryFile.openCompanion(file);
+		if (binary != null)
+			return readTree(binary, listener);
+		return parseTreeFileParallel(file, listener);
+	}
+
+	/**
+	 * Constructs a tree with String data by parsing a .tree File as text on
+	 * all cores at once, like loadTreeFileParallel(), whether or not it has a
+	 * .treeb companion.
+	 * 
+	 * @param file
+	 *            - .tree file to be parsed
+	 * @return - Fully constructed Tree<String>
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<String> parseTreeFileParallel(File file)
+			throws IOException {
+		return parseTreeFileParallel(file, null);
+	}
+
+	/**
+	 * Constructs a tree with String data by parsing a .tree File as text on
+	 * all cores at once, like loadTreeFileParallel(), whether or not it has a
+	 * .treeb companion, and reports progress to a listener.
+	 * 
+	 * @param file
+	 *            - .tree file to be parsed
+	 * @param listener
+	 *            - Notified of loading progress, may be null
+	 * @return - Fully constructed Tree<String>
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read or the listener
+	 *             cancelled loading.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<String> parseTreeFileParallel(File file,
+			LoadListener<? super String> listener) throws IOException {
+		if (file.length() < kParallelLoadSize)
+			return parseTreeFile(file, listener);
+
+		MappedTreeFile mappedFile = new MappedTreeFile(file);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		long[] bounds = findChunkBounds(mappedFile, pool.getParallelism()
+				* kChunksPerThread);
+
+		List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+		for (int i = 0; i + 1 < bounds.length; i++)
+			tasks.add(new ChunkTask(mappedFile, bounds[i], bounds[i + 1]));
+		try {
+			for (ChunkTask task : tasks)
+				pool.execute(task);
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			for (int i = 0; i < tasks.size(); i++) {
+				chunks.add(tasks.get(i).join());
+				if (listener != null)
+					listener.progress(bounds[i + 1], bounds[bounds.length - 1]);
 			}
+			Tree<String> tree = stitchChunks(chunks);
+			if (tree != null)
+				return tree;
+		} catch (ChunkException exc) {
+			// fall through
+		} finally {
+			// stop parsing if the listener cancelled loading
+			for (ChunkTask task : tasks)
+				task.cancel(false);
+			// the names have been copied out of the mapping
+			mappedFile.close();
 		}
+		// the file is malformed, parse it again to find where
+		return parseTreeFile(file, listener);
+	}
+
+	/**
+	 * Splits a file into roughly equal chunks that each start with a '<'.
+	 * 
+	 * @return - Start offset of each chunk followed by the end of the file
+	 */
+	private static long[] findChunkBounds(MappedTreeFile file, int chunkCount) {
+		long length = file.length();
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		for (int i = 1; i < chunkCount; i++) {
+			long position = Math.max(length * i / chunkCount,
+					bounds.get(bounds.size() - 1) + 1);
+			while (position < length && file.get(position) != '<')
+				position++;
+			if (position >= length)
+				break;
+			bounds.add(position);
+		}
+		bounds.add(length);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = bounds.get(i);
+		return result;
+	}
 
-		fileScanner.close();
+	/**
+	 * Attaches the subtrees of parsed chunks to each other.
+	 * 
+	 * @return - The tree, or null if the chunks do not fit together
+	 */
+	private static Tree<String> stitchChunks(List<Chunk> chunks) {
+		Tree<String> tree = null;
+		// nodes left open by the chunks stitched so far
+		List<Tree.Node<String>> openNodes = new ArrayList<Tree.Node<String>>();
+		for (Chunk chunk : chunks) {
+			int baseDepth = openNodes.size();
+			for (int i = 0; i < chunk.m_roots.size(); i++) {
+				Tree.Node<String> node = chunk.m_roots.get(i);
+				int depth = baseDepth + chunk.m_rootDepths.get(i);
+				if (depth < 0) {
+					return null;
+				} else if (depth == 0) {
+					if (tree != null) {
+						// the root has been closed, ignore the rest of the file
+						return tree;
+					}
+					tree = new Tree<String>(null);
+					tree.setRootNode(node);
+				} else {
+					Tree.Node<String> parent = openNodes.get(depth - 1);
+					parent.addChild(node);
+					node.setParent(parent);
+				}
+			}
+
+			int depth = baseDepth + chunk.m_minDepth;
+			if (depth < 0)
+				return null;
+			// the root has been closed
+			if (depth == 0 && tree != null && chunk.m_openNodes.isEmpty())
+				return tree;
+			openNodes.subList(depth, openNodes.size()).clear();
+			openNodes.addAll(chunk.m_openNodes);
+		}
+		if (tree == null)
+			return new Tree<String>(null);
 		return tree;
 	}
+
+	/**
+	 * Constructs a CompactTree from a .tree File. The tree is built straight
+	 * from the parsed tags without creating a Node per tag.
+	 * 
+	 * @param file
+	 *            - .tree file to be loaded
+	 * @return - Fully constructed CompactTree
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static CompactTree loadCompactTreeFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			CompactTree.Builder builder = new CompactTree.Builder();
+			new TreeParser(builder).parse(in);
+			return builder.build();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Constructs a tree from a memory mapped .tree File. The file is parsed
+	 * directly out of the mapping and node names are left in it, so only the
+	 * structure of the tree is kept on the heap. Names are decoded each time
+	 * a node's data is converted to a String.
+	 * 
+	 * @param file
+	 *            - .tree file to be loaded, may be larger than 2GB
+	 * @return - Fully constructed Tree whose data are MappedTreeFile.Names
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<CharSequence> loadMappedTreeFile(File file)
+			throws IOException {
+		return loadMappedTreeFile(file, null);
+	}
+
+	/**
+	 * Constructs a tree from a memory mapped .tree File, reporting each node
+	 * and the number of bytes parsed to a listener as it goes.
+	 * 
+	 * @param file
+	 *            - .tree file to be loaded, may be larger than 2GB
+	 * @param listener
+	 *            - Notified of loading progress, may be null
+	 * @return - Fully constructed Tree whose data are MappedTreeFile.Names
+	 * @throws IOException
+	 *             - Throws if .tree file could not be read or the listener
+	 *             cancelled loading.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<CharSequence> loadMappedTreeFile(File file,
+			LoadListener<? super CharSequence> listener) throws IOException {
+		MappedTreeFile mappedFile = new MappedTreeFile(file);
+		boolean loaded = false;
+		try {
+			Tree<CharSequence> tree = loadMappedTreeFile(mappedFile, listener);
+			loaded = true;
+			return tree;
+		} finally {
+			if (!loaded)
+				mappedFile.close();
+		}
+	}
+
+	/**
+	 * Constructs a tree from a .tree file that has already been mapped, so
+	 * the caller can close the mapping once the tree is no longer used. The
+	 * tree's names read from the mapping, and cannot be decoded after it is
+	 * closed.
+	 * 
+	 * @param mappedFile
+	 *            - The mapped .tree file
+	 * @param listener
+	 *            - Notified of loading progress, may be null
+	 * @return - Fully constructed Tree whose data are MappedTreeFile.Names
+	 * @throws IOException
+	 *             - Throws if the listener cancelled loading.
+	 * @throws TreeParseException
+	 *             - Throws if the .tree file is malformed.
+	 */
+	public static Tree<CharSequence> loadMappedTreeFile(
+			final MappedTreeFile mappedFile,
+			LoadListener<? super CharSequence> listener) throws IOException {
+		TreeBuilder<CharSequence> builder = new TreeBuilder<CharSequence>(
+				listener) {
+			@Override
+			protected CharSequence createData(TreeParser.Tag tag) {
+				// the tag's bytes start just after its '<'
+				return mappedFile.createName(
+						tag.getOffset() + 1 + tag.getNameStart(),
+						tag.getNameEnd() - tag.getNameStart());
+			}
+		};
+		TreeParser parser = new TreeParser(builder);
+		for (int i = 0; i < mappedFile.getSegmentCount() && !parser.isDone(); i++) {
+			ByteBuffer segment = mappedFile.getSegment(i);
+			int end = segment.limit();
+			while (segment.position() < end && !parser.isDone()) {
+				segment.limit(Math.min(end, segment.position()
+						+ kMappedProgressStep));
+				parser.feed(segment);
+				if (listener != null)
+					listener.progress(parser.getOffset(), mappedFile.length());
+			}
+		}
+		parser.finish();
+		return builder.getTree();
+	}
+
+	/**
+	 * Builds a Tree from the tags reported by a TreeParser. The first opening
+	 * tag becomes the root node.
+	 * 
+	 * @param <T>
+	 *            - Data type created for each node
+	 */
+	private static abstract class TreeBuilder<T> implements TreeParser.Handler {
+		private Tree<T> m_tree;
+		private Tree.Node<T> m_currentNode;
+		private int m_depth;
+		private LoadListener<? super T> m_listener;
+
+		TreeBuilder(LoadListener<? super T> listener) {
+			m_listener = listener;
+		}
+
+		/**
+		 * Creates the data stored in the node for an opening tag.
+		 */
+		protected abstract T createData(TreeParser.Tag tag);
+
+		@Override
+		public void openTag(TreeParser.Tag tag) throws IOException {
+			T data = createData(tag);
+			if (m_tree == null) {
+				m_tree = new Tree<T>(data);
+				m_currentNode = m_tree.getRootNode();
+			} else {
+				m_currentNode = m_currentNode.addChild(data);
+				m_depth++;
+			}
+			if (m_listener != null)
+				m_listener.nodeLoaded(m_currentNode, m_depth);
+		}
+
+		@Override
+		public void closeTag(TreeParser.Tag tag) {
+			m_currentNode = m_currentNode.getParent();
+			m_depth--;
+		}
+
+		/**
+		 * Get the constructed tree. An empty file gives a tree with a null
+		 * root.
+		 */
+		Tree<T> getTree() {
+			if (m_tree == null)
+				return new Tree<T>(null);
+			return m_tree;
+		}
+	}
+
+	/**
+	 * Reports the number of bytes read from a stream to a LoadListener.
+	 */
+	static class ProgressInputStream extends FilterInputStream {
+		private long m_bytesRead;
+		private long m_length;
+		private LoadListener<?> m_listener;
+
+		ProgressInputStream(InputStream in, long length,
+				LoadListener<?> listener) {
+			super(in);
+			m_length = length;
+			m_listener = listener;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length)
+				throws IOException {
+			int count = super.read(bytes, offset, length);
+			if (count > 0) {
+				m_bytesRead += count;
+				m_listener.progress(m_bytesRead, m_length);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Receives progress reports while a tree is loaded. Methods are called on
+	 * the loading thread. Throwing an IOException (for example an
+	 * InterruptedIOException) from either method cancels loading.
+	 * 
+	 * @param <T>
+	 *            - Data type of the tree being loaded
+	 */
+	public interface LoadListener<T> {
+		/**
+		 * Called after a node is added to the tree. The node's children have
+		 * not been loaded yet.
+		 * 
+		 * @param node
+		 *            - The new node
+		 * @param depth
+		 *            - Depth of the node. Root is depth 0.
+		 * @throws IOException
+		 *             - Throw to cancel loading.
+		 */
+		void nodeLoaded(Tree.Node<? extends T> node, int depth)
+				throws IOException;
+
+		/**
+		 * Called periodically as the file is read.
+		 * 
+		 * @param bytesRead
+		 *            - Number of bytes of the file read so far
+		 * @param totalBytes
+		 *            - Length of the file
+		 * @throws IOException
+		 *             - Throw to cancel loading.
+		 */
+		void progress(long bytesRead, long totalBytes) throws IOException;
+	}
+
+	/**
+	 * Subtrees parsed from one chunk of a file. Nodes whose parent was opened
+	 * in an earlier chunk are roots of the chunk and are attached to their
+	 * parents when the chunks are stitched together.
+	 */
+	private static class Chunk implements TreeParser.Handler {
+		// roots in file order and the depth each was opened at, relative to
+		// the start of the chunk
+		private List<Tree.Node<String>> m_roots;
+		private List<Integer> m_rootDepths;
+		// nodes opened in this chunk that are still open
+		private List<Tree.Node<String>> m_openNodes;
+		private int m_depth;
+		private int m_minDepth;
+
+		Chunk() {
+			m_roots = new ArrayList<Tree.Node<String>>();
+			m_rootDepths = new ArrayList<Integer>();
+			m_openNodes = new ArrayList<Tree.Node<String>>();
+		}
+
+		@Override
+		public void openTag(TreeParser.Tag tag) {
+			Tree.Node<String> node;
+			if (m_openNodes.isEmpty()) {
+				node = new Tree.Node<String>(tag.getName(), null);
+				m_roots.add(node);
+				m_rootDepths.add(m_depth);
+			} else {
+				node = m_openNodes.get(m_openNodes.size() - 1).addChild(
+						tag.getName());
+			}
+			m_openNodes.add(node);
+			m_depth++;
+		}
+
+		@Override
+		public void closeTag(TreeParser.Tag tag) {
+			if (!m_openNodes.isEmpty())
+				m_openNodes.remove(m_openNodes.size() - 1);
+			m_depth--;
+			m_minDepth = Math.min(m_minDepth, m_depth);
+		}
+	}
+
+	/**
+	 * Parses one chunk of a mapped file.
+	 */
+	private static class ChunkTask extends RecursiveTask<Chunk> {
+		private static final long serialVersionUID = 1L;
+
+		private MappedTreeFile m_file;
+		private long m_start;
+		private long m_end;
+
+		ChunkTask(MappedTreeFile file, long start, long end) {
+			m_file = file;
+			m_start = start;
+			m_end = end;
+		}
+
+		@Override
+		protected Chunk compute() {
+			Chunk chunk = new Chunk();
+			TreeParser parser = new TreeParser(chunk);
+			parser.setFragment(true);
+			try {
+				for (ByteBuffer buffer : m_file.getRange(m_start, m_end))
+					parser.feed(buffer);
+				parser.finish();
+			} catch (IOException exc) {
+				throw new ChunkException(exc);
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Thrown out of a ChunkTask when its chunk could not be parsed.
+	 */
+	private static class ChunkException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ChunkException(IOException cause) {
+			super(cause);
+		}
+	}
 }
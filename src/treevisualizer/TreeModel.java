@@ -0,0 +1,60 @@
+package treevisualizer;
+
+/**
+ * Read-only view of a tree structure, used by TreeController to draw trees
+ * that are stored in different ways. Nodes are identified by handles of type
+ * N, which are only meaningful to the model that returned them.
+ * 
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ * @param <N>
+ *            - Type of the handles used to identify nodes
+ */
+public interface TreeModel<N> {
+	/**
+	 * Get the root node.
+	 * 
+	 * @return - Handle of the root node
+	 */
+	N getRoot();
+
+	/**
+	 * Get the number of children a node has.
+	 * 
+	 * @param node
+	 *            - Handle of the node
+	 * @return - Number of children
+	 */
+	int getChildCount(N node);
+
+	/**
+	 * Get a child of a node.
+	 * 
+	 * @param node
+	 *            - Handle of the parent node
+	 * @param index
+	 *            - Index of the child, in the range [0, getChildCount(node))
+	 * @return - Handle of the child node
+	 */
+	N getChild(N node, int index);
+
+	/**
+	 * Get the text displayed for a node.
+	 * 
+	 * @param node
+	 *            - Handle of the node
+	 * @return - The node's label
+	 */
+	String getLabel(N node);
+
+	/**
+	 * Returns true if a node can be reached from the root in more than one
+	 * way, as in a fractal tree that reuses nodes. A shared node is laid out
+	 * once and its children drawn from that layout wherever it appears.
+	 * 
+	 * @param node
+	 *            - Handle of the node
+	 * @return - True if the node may appear in more than one place
+	 */
+	boolean isShared(N node);
+}
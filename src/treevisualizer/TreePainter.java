@@ -0,0 +1,672 @@
+package treevisualizer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.util.Arrays;
+
+/**
+ * Draws a laid out tree for a TreeController. A painter keeps caches of the
+ * colors and strokes it draws with so that drawing allocates nothing once
+ * they are warm, which also means a painter must only be used by one thread
+ * at a time. Painters on different threads can draw the same layout at once.
+ * Labels come from a LabelCache, which painters can share.
+ *
+ * Drawing starts from an anchor entry whose position and size on the screen
+ * are given, and works out every other position by adding the edges between
+ * entries in screen coordinates. Precision therefore only depends on how far
+ * things are from the screen, never on how deep the anchor is in the tree.
+ * The direction of each edge is turned from the one before it, and the depth
+ * counted, on the way down, since shared entries of the layout appear at
+ * many angles and depths.
+ * 
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+class TreePainter {
+	private static int kMinimumRadiusText = 10;
+	private static int kMinimumRadiusDraw = 2;
+	// radius of a subtree's glyph, as a fraction of its bounding disc's
+	private static double kGlyphScale = 0.5;
+
+	// the hue of a node cycles every 7 levels, so there are only 7 of each
+	private static Color[] kFillColors = new Color[7];
+	private static Color[] kOutlineColors = new Color[7];
+	static {
+		for (int i = 0; i < 7; i++) {
+			float hue = (float) i / 7.0f;
+			kFillColors[i] = new Color(Color.HSBtoRGB(hue, 0.5f, 1.0f));
+			kOutlineColors[i] = new Color(Color.HSBtoRGB(hue, 1.0f, 0.8f));
+		}
+	}
+
+	// strokes are radius / 20 wide and cached for radii below this
+	private static int kCachedStrokeRadius = 2048;
+	// circles larger than this are drawn as arcs of polygons near the
+	// screen, since fillOval() takes ints and strays from a true circle by
+	// about a 4000th of the radius
+	private static int kMaxOvalRadius = 16384;
+	private static int kArcSegments = 32;
+	// circles this large are not indexed, as their coordinates may not fit
+	// in an int
+	private static int kMaxIndexedRadius = 1 << 29;
+	// lines with an end further than this from the screen are clipped to it
+	// before they are drawn
+	private static int kMaxLineCoordinate = 1 << 20;
+	// ancestors of the anchor larger than this are not drawn. Screen
+	// coordinates this big are still precise to a fraction of a pixel.
+	private static double kMaxAncestorRadius = 1e12;
+
+	// the tree and rectangle being drawn, and where to index circles, for
+	// one pass
+	private TreeLayout m_layout;
+	private int m_viewWidth;
+	private int m_viewHeight;
+	private int m_detailThreshold;
+	private HitGrid m_hits;
+
+	// entries on the way down to the node being drawn, by depth, from the
+	// ancestor of the anchor drawing started at
+	private int m_topDepth;
+	private int[] m_stack;
+
+	// while indexing, the circle nearest the middle of the screen that is
+	// at least kMinimumRadiusDraw, or else the largest circle, and the
+	// entries on the way down to it
+	private int m_nearestEntry;
+	private int m_nearestDepth;
+	private int[] m_nearestStack;
+	private double m_nearestX;
+	private double m_nearestY;
+	private double m_nearestZoom;
+	private double m_nearestDistance;
+	private boolean m_nearestDrawn;
+
+	// drawing caches, so a frame allocates nothing once they are warm
+	private BasicStroke[] m_strokes;
+	private BasicStroke m_largeStroke;
+	private LabelCache m_labels;
+	private int[] m_polygonX;
+	private int[] m_polygonY;
+	private double m_clipStart;
+	private double m_clipEnd;
+
+	// work done by the last paint()
+	private FrameStats m_stats;
+
+	/**
+	 * Creates a TreePainter.
+	 * 
+	 * @param labels
+	 *            - Where labels are shaped and kept
+	 */
+	TreePainter(LabelCache labels) {
+		m_labels = labels;
+		m_strokes = new BasicStroke[kCachedStrokeRadius];
+		m_polygonX = new int[kArcSegments * 2 + 2];
+		m_polygonY = new int[kArcSegments * 2 + 2];
+		m_stack = new int[64];
+		m_nearestStack = new int[64];
+		m_stats = new FrameStats();
+	}
+
+	/**
+	 * Draws the part of a tree in a rectangle, or only finds the circles that
+	 * would be drawn.
+	 * 
+	 * @param g
+	 *            - The graphics context in which to paint, or null to draw
+	 *            nothing.
+	 * @param layout
+	 *            - Layout of the tree
+	 * @param anchor
+	 *            - Path to the entry whose position is given
+	 * @param zoom
+	 *            - Zoom factor, relative to the anchor's size
+	 * @param x
+	 *            - X coordinate of the center of the anchor node.
+	 * @param y
+	 *            - Y coordinate of the center of the anchor node.
+	 * @param width
+	 *            - Width of the rectangle, which starts at (0,0)
+	 * @param height
+	 *            - Height of the rectangle
+	 * @param detailThreshold
+	 *            - Radius in pixels below which a subtree's bounding disc is
+	 *            drawn as one glyph, or 0 to draw every node
+	 * @param hits
+	 *            - Receives the circles drawn, or null
+	 */
+	void paint(Graphics g, TreeLayout layout, LayoutPath anchor, double zoom,
+			long x, long y, int width, int height, int detailThreshold,
+			HitGrid hits) {
+		m_layout = layout;
+		m_viewWidth = width;
+		m_viewHeight = height;
+		m_detailThreshold = detailThreshold;
+		m_hits = hits;
+		m_nearestEntry = -1;
+		m_stats.clear();
+		if (g != null)
+			m_labels.setContext(((Graphics2D) g).getFontRenderContext());
+		if (layout.size() > 0) {
+			// start from the ancestor of the anchor that holds everything on
+			// the screen, stopping short of ones too large to place precisely
+			int topDepth = anchor.size() - 1;
+			int top = anchor.getLast();
+			double topX = x;
+			double topY = y;
+			double topZoom = zoom;
+			double topCos = anchor.getCos();
+			double topSin = anchor.getSin();
+			while (topDepth > 0) {
+				double parentZoom = topZoom / layout.getScale(top);
+				if (TreeController.kPrimaryNodeRadius * parentZoom > kMaxAncestorRadius)
+					break;
+				double distance = TreeController.kPrimaryNodeDistance
+						* parentZoom;
+				topX -= distance * topCos;
+				topY -= distance * topSin;
+				topZoom = parentZoom;
+				// turn back to the edge into the parent, the same way
+				// LayoutPath does
+				double cos = layout.getCos(top);
+				double sin = layout.getSin(top);
+				double parentCos = topCos * cos + topSin * sin;
+				topSin = topSin * cos - topCos * sin;
+				topCos = parentCos;
+				topDepth--;
+				top = anchor.get(topDepth);
+			}
+			if (topDepth == 0) {
+				topCos = 1.0;
+				topSin = 0.0;
+			}
+			m_topDepth = topDepth;
+			if (topDepth >= m_stack.length) {
+				m_stack = new int[topDepth * 2];
+				m_nearestStack = new int[topDepth * 2];
+			}
+			drawNode(g, topX, topY, topZoom, topCos, topSin, topDepth, top);
+		}
+		m_layout = null;
+		m_hits = null;
+	}
+
+	/**
+	 * Get the work done by the last paint(). The counts are reused by the
+	 * next paint().
+	 *
+	 * @return - Counts of the nodes visited and shapes drawn
+	 */
+	FrameStats getStats() {
+		return m_stats;
+	}
+
+	/**
+	 * Get the entry found by the last paint() with a HitGrid that would make
+	 * the best anchor: the circle nearest the middle of the screen that is
+	 * large enough to draw, or the largest circle if none are.
+	 *
+	 * @return - The entry, or -1 if no circles were on the screen
+	 */
+	int getNearestEntry() {
+		return m_nearestEntry;
+	}
+
+	/**
+	 * Changes the path to the anchor given to the last paint() with a
+	 * HitGrid into the path to the getNearestEntry() circle.
+	 * 
+	 * @param path
+	 *            - A copy of the anchor's path, which becomes the entry's
+	 * @param layout
+	 *            - Layout of the tree
+	 */
+	void getNearestPath(LayoutPath path, TreeLayout layout) {
+		path.truncate(m_topDepth + 1, layout);
+		for (int depth = m_topDepth + 1; depth <= m_nearestDepth; depth++)
+			path.add(m_nearestStack[depth], layout);
+	}
+
+	/**
+	 * Get the X coordinate of the center of the getNearestEntry() circle.
+	 */
+	double getNearestX() {
+		return m_nearestX;
+	}
+
+	/**
+	 * Get the Y coordinate of the center of the getNearestEntry() circle.
+	 */
+	double getNearestY() {
+		return m_nearestY;
+	}
+
+	/**
+	 * Get the zoom of the getNearestEntry() circle, relative to its own size.
+	 */
+	double getNearestZoom() {
+		return m_nearestZoom;
+	}
+
+	/**
+	 * Draws a node and recursively draws its children. Sizes come from the
+	 * layout, scaled by the zoom, and each child is placed from its parent's
+	 * position on the screen.
+	 * 
+	 * @param g
+	 *            - The graphics context in which to paint, or null to only
+	 *            find the circles that would be drawn.
+	 * @param screenX
+	 *            - X coordinate of the center of the node.
+	 * @param screenY
+	 *            - Y coordinate of the center of the node.
+	 * @param zoom
+	 *            - Zoom factor, relative to the node's size
+	 * @param cos
+	 *            - Cosine of the direction of the edge into the node
+	 * @param sin
+	 *            - Sine of the direction of the edge into the node
+	 * @param depth
+	 *            - Depth of the node in the tree
+	 * @param entry
+	 *            - The layout entry of the node to draw.
+	 */
+	private void drawNode(Graphics g, double screenX, double screenY,
+			double zoom, double cos, double sin, int depth, int entry) {
+		// safe cast - every graphics object in swift is a graphics2D object
+		Graphics2D g2 = (Graphics2D) g;
+		TreeLayout layout = m_layout;
+		m_stats.countNode(depth);
+
+		// skip the whole subtree if its bounding disc is off the screen. The
+		// node's stroke is the widest in the subtree and may reach outside
+		// the disc by half its width.
+		double subtreeRadius = layout.getExtent(entry) * zoom;
+		double extent = subtreeRadius + TreeController.kPrimaryNodeRadius
+				* zoom / 40.0 + 1.0;
+		if (screenX + extent < 0 || screenX - extent > m_viewWidth
+				|| screenY + extent < 0 || screenY - extent > m_viewHeight) {
+			m_stats.countCulled();
+			return;
+		}
+
+		if (m_hits != null)
+			m_hits.addEntry(entry, screenX, screenY, zoom);
+
+		// every point is rounded the same way so the ends of an edge land
+		// consistently with the circles they join
+		long x = Math.round(screenX);
+		long y = Math.round(screenY);
+		long radius = (long) (TreeController.kPrimaryNodeRadius * zoom);
+
+		// half the width of the stroke, which the outline and edges reach
+		// past their shapes by
+		long pad = radius / 40 + 1;
+
+		boolean doDrawOval = true;
+		// don't draw shapes off the edge of the screen
+		if (x + radius + pad < 0 || x - radius - pad > m_viewWidth
+				|| y + radius + pad < 0 || y - radius - pad > m_viewHeight)
+			doDrawOval = false;
+
+		if (depth == m_stack.length) {
+			m_stack = Arrays.copyOf(m_stack, depth * 2);
+			m_nearestStack = Arrays.copyOf(m_nearestStack, depth * 2);
+		}
+		m_stack[depth] = entry;
+
+		Color fillColor = kFillColors[depth % 7];
+		Color outlineColor = kOutlineColors[depth % 7];
+		BasicStroke stroke = getStroke(radius);
+
+		// a subtree too small to make out is drawn as one disc, in the color
+		// of its level with the most nodes
+		int childCount = layout.getChildCount(entry);
+		boolean isGlyph = childCount > 0 && subtreeRadius < m_detailThreshold;
+		if (isGlyph) {
+			if (g != null) {
+				long glyphRadius = Math.max(radius,
+						(long) (subtreeRadius * kGlyphScale));
+				g.setColor(kFillColors[(depth + layout.getSubtreeLevel(entry)) % 7]);
+				g.fillOval((int) (x - glyphRadius), (int) (y - glyphRadius),
+						(int) glyphRadius * 2, (int) glyphRadius * 2);
+				m_stats.countGlyph();
+			}
+		} else if (doDrawOval && g != null && radius <= kMaxOvalRadius) {
+			m_stats.countOval();
+			g2.setStroke(stroke);
+			g.setColor(fillColor);
+			g.fillOval((int) (x - radius), (int) (y - radius),
+					(int) radius * 2, (int) radius * 2);
+			g.setColor(outlineColor);
+			g.drawOval((int) (x - radius), (int) (y - radius),
+					(int) radius * 2, (int) radius * 2);
+		} else if (doDrawOval && g != null) {
+			m_stats.countOval();
+			// the outline is a ring as wide as the stroke
+			double halfStroke = radius / 40.0;
+			g.setColor(fillColor);
+			fillRing(g, screenX, screenY, 0.0, radius);
+			g.setColor(outlineColor);
+			fillRing(g, screenX, screenY, radius - halfStroke, radius
+					+ halfStroke);
+		}
+		if (doDrawOval && m_hits != null) {
+			if (radius < kMaxIndexedRadius && layout.hasNodeIds())
+				m_hits.add((int) x, (int) y, (int) radius,
+						layout.getNodeId(entry));
+			else if (radius < kMaxIndexedRadius)
+				m_hits.add((int) x, (int) y, (int) radius,
+						layout.getNode(entry));
+			updateNearest(entry, depth, screenX, screenY, zoom, radius);
+		}
+
+		// don't draw the children if radius is smaller than the threshold,
+		// or they are part of a glyph
+		if (radius < kMinimumRadiusDraw || isGlyph) {
+			return;
+		}
+
+		// only draw text if radius is larger than the threshold
+		if (radius >= kMinimumRadiusText && radius <= kMaxOvalRadius
+				&& doDrawOval && g != null) {
+			drawLabel(g2, layout.getLabel(entry), x, y, radius);
+		}
+
+		// Children Drawing:
+
+		if (childCount == 0)
+			return;
+
+		// draw the edges and children nodes
+		double distance = TreeController.kPrimaryNodeDistance * zoom;
+		int firstChild = layout.getFirstChild(entry);
+		for (int child = firstChild; child < firstChild + childCount; child++) {
+			// edges run between the two circles along the angle to the
+			// child, which is turned from the edge into this node
+			double relativeCos = layout.getCos(child);
+			double relativeSin = layout.getSin(child);
+			double childCos = cos * relativeCos - sin * relativeSin;
+			double childSin = sin * relativeCos + cos * relativeSin;
+			double childZoom = zoom * layout.getScale(child);
+			double childX = screenX + distance * childCos;
+			double childY = screenY + distance * childSin;
+			long childRadius = (long) (TreeController.kPrimaryNodeRadius * childZoom);
+			long lineX1 = Math.round(screenX + radius * childCos);
+			long lineY1 = Math.round(screenY + radius * childSin);
+			long lineX2 = Math.round(childX - childRadius * childCos);
+			long lineY2 = Math.round(childY - childRadius * childSin);
+
+			// only draw edges that appear on the screen
+			boolean doDrawLine = g != null
+					&& isLineOnScreen(lineX1, lineY1, lineX2, lineY2, pad);
+			if (doDrawLine) {
+				g2.setStroke(stroke);
+				g.setColor(outlineColor);
+				drawLine(g, lineX1, lineY1, lineX2, lineY2, pad);
+			}
+
+			// RECURSION
+			drawNode(g, childX, childY, childZoom, childCos, childSin,
+					depth + 1, child);
+		}
+	}
+
+	/**
+	 * Keeps track of the best anchor while indexing.
+	 */
+	private void updateNearest(int entry, int depth, double screenX,
+			double screenY, double zoom, long radius) {
+		boolean drawn = radius >= kMinimumRadiusDraw;
+		double distance = Math.hypot(screenX - m_viewWidth / 2.0, screenY
+				- m_viewHeight / 2.0);
+		boolean better;
+		if (m_nearestEntry < 0)
+			better = true;
+		else if (drawn != m_nearestDrawn)
+			better = drawn;
+		else if (drawn)
+			better = distance < m_nearestDistance;
+		else
+			better = zoom > m_nearestZoom;
+		if (better) {
+			m_nearestEntry = entry;
+			m_nearestDepth = depth;
+			// the anchor's path has the entries above the top
+			System.arraycopy(m_stack, m_topDepth, m_nearestStack, m_topDepth,
+					depth - m_topDepth + 1);
+			m_nearestX = screenX;
+			m_nearestY = screenY;
+			m_nearestZoom = zoom;
+			m_nearestDistance = distance;
+			m_nearestDrawn = drawn;
+		}
+	}
+
+	/**
+	 * Fills the part of a ring, the area between two circles with the same
+	 * center, that is on the screen. For circles too large for fillOval(),
+	 * whose centers may be far off the screen, so only the short arcs near
+	 * the screen are drawn, as chords.
+	 */
+	private void fillRing(Graphics g, double x, double y, double inner,
+			double outer) {
+		// the screen fits in a disc of this radius around its middle
+		double middleX = m_viewWidth / 2.0;
+		double middleY = m_viewHeight / 2.0;
+		double reach = Math.hypot(middleX, middleY) + 1.0;
+		double distance = Math.hypot(middleX - x, middleY - y);
+		if (inner <= distance - reach && outer >= distance + reach) {
+			// the screen is entirely inside the ring
+			g.fillRect(0, 0, m_viewWidth, m_viewHeight);
+			return;
+		}
+		// only the part of the ring within reach of the screen matters, and
+		// it lies within this angle either side of the screen's direction
+		inner = Math.max(inner, distance - reach);
+		outer = Math.min(outer, distance + reach);
+		if (inner >= outer)
+			return;
+		double spread = distance > reach ? Math.asin(reach / distance)
+				: Math.PI;
+		double direction = Math.atan2(middleY - y, middleX - x);
+
+		int points = 0;
+		for (int i = 0; i <= kArcSegments; i++) {
+			double angle = direction - spread + 2.0 * spread * i
+					/ kArcSegments;
+			m_polygonX[points] = (int) Math.round(x + outer * Math.cos(angle));
+			m_polygonY[points] = (int) Math.round(y + outer * Math.sin(angle));
+			points++;
+		}
+		for (int i = kArcSegments; i >= 0; i--) {
+			double angle = direction - spread + 2.0 * spread * i
+					/ kArcSegments;
+			m_polygonX[points] = (int) Math.round(x + inner * Math.cos(angle));
+			m_polygonY[points] = (int) Math.round(y + inner * Math.sin(angle));
+			points++;
+		}
+		g.fillPolygon(m_polygonX, m_polygonY, points);
+	}
+
+	/**
+	 * Draws a line, first clipping it to the screen grown by a margin if an
+	 * end is too far off the screen to draw directly.
+	 */
+	private void drawLine(Graphics g, long x1, long y1, long x2, long y2,
+			long margin) {
+		if (Math.abs(x1) <= kMaxLineCoordinate
+				&& Math.abs(y1) <= kMaxLineCoordinate
+				&& Math.abs(x2) <= kMaxLineCoordinate
+				&& Math.abs(y2) <= kMaxLineCoordinate) {
+			g.drawLine((int) x1, (int) y1, (int) x2, (int) y2);
+			return;
+		}
+		// Liang-Barsky: narrow the part of the line kept, from start to end,
+		// against each edge of the screen in turn
+		double deltaX = x2 - x1;
+		double deltaY = y2 - y1;
+		m_clipStart = 0.0;
+		m_clipEnd = 1.0;
+		if (clip(-deltaX, x1 + margin)
+				&& clip(deltaX, m_viewWidth + margin - x1)
+				&& clip(-deltaY, y1 + margin)
+				&& clip(deltaY, m_viewHeight + margin - y1)) {
+			g.drawLine((int) Math.round(x1 + m_clipStart * deltaX),
+					(int) Math.round(y1 + m_clipStart * deltaY),
+					(int) Math.round(x1 + m_clipEnd * deltaX),
+					(int) Math.round(y1 + m_clipEnd * deltaY));
+		}
+	}
+
+	/**
+	 * Clips the line being drawn against one edge of the screen.
+	 * 
+	 * @return - False if none of the line is left
+	 */
+	private boolean clip(double direction, double distance) {
+		if (direction == 0.0)
+			return distance >= 0.0;
+		double t = distance / direction;
+		if (direction < 0.0) {
+			if (t > m_clipEnd)
+				return false;
+			m_clipStart = Math.max(m_clipStart, t);
+		} else {
+			if (t < m_clipStart)
+				return false;
+			m_clipEnd = Math.min(m_clipEnd, t);
+		}
+		return true;
+	}
+
+	/**
+	 * Get the stroke for the outline and edges of a node, which is a
+	 * twentieth of its radius wide.
+	 */
+	private BasicStroke getStroke(long radius) {
+		if (radius < kCachedStrokeRadius) {
+			BasicStroke stroke = m_strokes[(int) radius];
+			if (stroke == null) {
+				stroke = new BasicStroke(radius / 20.f);
+				m_strokes[(int) radius] = stroke;
+			}
+			return stroke;
+		}
+		// only the most recent of the rare larger strokes is kept
+		if (m_largeStroke == null || m_largeStroke.getLineWidth() != radius / 20.f)
+			m_largeStroke = new BasicStroke(radius / 20.f);
+		return m_largeStroke;
+	}
+
+	/**
+	 * Draws a node's label, scaled so it is as wide as the radius, from the
+	 * left of the middle of the circle. A label that has not been shaped at
+	 * its size yet is drawn from the measured one, scaled, and one that has
+	 * not been measured is left out. Both are counted as pending, so whatever
+	 * they were drawn on can be drawn again once they are ready.
+	 */
+	private void drawLabel(Graphics2D g, String text, long x, long y,
+			long radius) {
+		LabelCache.Label measured = m_labels.getMeasured(text);
+		if (measured == null) {
+			m_stats.countLabelPending();
+			return;
+		}
+		if (measured.getWidth() <= 0.0f)
+			return;
+		float fontSize = ((float) radius / measured.getWidth())
+				* LabelCache.kMeasureSize;
+		LabelCache.Label label = m_labels.getSized(text, fontSize);
+		g.setColor(Color.BLACK);
+		m_stats.countLabel();
+		if (label != null) {
+			label.draw(g, (int) (x - radius / 2),
+					(int) y + (int) Math.ceil(label.getAscent()) / 2);
+		} else {
+			m_stats.countLabelPending();
+			double scale = fontSize / LabelCache.kMeasureSize;
+			measured.draw(g, (int) (x - radius / 2), (int) y
+					+ (int) Math.ceil(measured.getAscent() * scale) / 2, scale);
+		}
+	}
+
+	/**
+	 * Returns true if any part of the line segment (x1,y1,x2,y2) is on the
+	 * screen, with the screen grown by a margin on every side.
+	 */
+	private boolean isLineOnScreen(long x1, long y1, long x2, long y2,
+			long margin) {
+		long left = -margin;
+		long top = -margin;
+		long right = m_viewWidth + margin;
+		long bottom = m_viewHeight + margin;
+		// reject segments whose bounding box misses the screen
+		if (Math.max(x1, x2) < left || Math.min(x1, x2) > right
+				|| Math.max(y1, y2) < top || Math.min(y1, y2) > bottom)
+			return false;
+		if ((x1 >= left && x1 <= right && y1 >= top && y1 <= bottom)
+				|| (x2 >= left && x2 <= right && y2 >= top && y2 <= bottom))
+			return true;
+		// both ends are off the screen, so the segment must cross an edge
+		return doLinesIntersect(x1, y1, x2, y2, left, top, right, top)
+				|| doLinesIntersect(x1, y1, x2, y2, right, top, right, bottom)
+				|| doLinesIntersect(x1, y1, x2, y2, left, top, left, bottom)
+				|| doLinesIntersect(x1, y1, x2, y2, left, bottom, right, bottom);
+	}
+
+	/**
+	 * Returns true if the line segments (x1,y1,x2,y2) and (a1,b1,a2,b2)
+	 * intersect
+	 * 
+	 * @param x1
+	 *            - X1 of first line
+	 * @param y1
+	 *            - Y1 of first line
+	 * @param x2
+	 *            - X2 of first line
+	 * @param y2
+	 *            - Y2 of first line
+	 * @param a1
+	 *            - X1 of second line
+	 * @param b1
+	 *            - Y1 of second line
+	 * @param a2
+	 *            - X2 of second line
+	 * @param b2
+	 *            - Y2 of second line
+	 * @return - True if the lines intersect, false if they don't or are
+	 *         parallel
+	 */
+	private boolean doLinesIntersect(double x1, double y1, double x2,
+			double y2, double a1, double b1, double a2, double b2) {
+		m_stats.countEdgeTest();
+		// doubles, since the products can overflow a long for lines from
+		// circles far off the screen
+		double line1X = x2 - x1;
+		double line1Y = y2 - y1;
+		double line2X = a2 - a1;
+		double line2Y = b2 - b1;
+		double line1Dotline2Perp = line1X * line2Y - line1Y * line2X;
+
+		// if b dot d == 0, it means the lines are parallel so they have
+		// infinite intersection points
+		if (line1Dotline2Perp == 0)
+			return false;
+
+		double deltaX1 = a1 - x1;
+		double deltaY1 = b1 - y1;
+		double t = (deltaX1 * line2Y - deltaY1 * line2X) / line1Dotline2Perp;
+		if (t < 0 || t > 1)
+			return false;
+
+		double u = (deltaX1 * line1Y - deltaY1 * line1X) / line1Dotline2Perp;
+		if (u < 0 || u > 1)
+			return false;
+
+		return true;
+	}
+}
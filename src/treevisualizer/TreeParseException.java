@@ -0,0 +1,51 @@
+package treevisualizer;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a .tree file is malformed. Carries the line and column of the
+ * offending input so the problem can be found in the file.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class TreeParseException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private int m_line;
+	private int m_column;
+
+	/**
+	 * Creates a TreeParseException for a position in the input.
+	 *
+	 * @param message
+	 *            - Description of the problem
+	 * @param line
+	 *            - Line number of the problem, starting at 1
+	 * @param column
+	 *            - Column number of the problem, starting at 1
+	 */
+	public TreeParseException(String message, int line, int column) {
+		super("line " + line + ", column " + column + ": " + message);
+		m_line = line;
+		m_column = column;
+	}
+
+	/**
+	 * Get the line the problem was found on.
+	 *
+	 * @return - Line number, starting at 1
+	 */
+	public int getLine() {
+		return m_line;
+	}
+
+	/**
+	 * Get the column the problem was found at.
+	 *
+	 * @return - Column number, starting at 1
+	 */
+	public int getColumn() {
+		return m_column;
+	}
+}
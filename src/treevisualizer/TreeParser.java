@@ -0,0 +1,401 @@
+package treevisualizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Single pass tokenizer for the .tree format. A .tree file is a stream of
+ * tags: an opening tag "&lt;id name&gt;" begins a node and a closing tag
+ * "&lt;/id &gt;" ends it. Nodes opened before a node is closed are its
+ * children.
+ *
+ * The parser is fed raw bytes in any sized pieces and reports every tag to a
+ * Handler as soon as its closing '&gt;' is read, so it never needs the whole
+ * file in memory and keeps no per-tag objects. Parsing stops once the root
+ * node is closed; anything after it is ignored.
+ *
+ * @author Elliot Hatch and Samuel Davidson
+ * @version March 19, 2014
+ */
+public class TreeParser {
+	public static final Charset kCharset = Charset.forName("UTF-8");
+
+	private static int kReadBufferSize = 64 * 1024;
+
+	private Handler m_handler;
+	private Tag m_tag;
+
+	private boolean m_inTag;
+	private boolean m_done;
+	private boolean m_fragment;
+	private int m_depth;
+	private int m_line;
+	private int m_column;
+	private long m_offset;
+
+	/**
+	 * Creates a TreeParser that reports tags to a handler.
+	 *
+	 * @param handler
+	 *            - Receives the opening and closing tags
+	 */
+	public TreeParser(Handler handler) {
+		m_handler = handler;
+		m_tag = new Tag();
+		m_line = 1;
+		m_column = 1;
+	}
+
+	/**
+	 * Makes the parser accept input that starts part way through a file, at
+	 * the beginning of a tag. Closing tags for nodes opened before the input
+	 * are allowed, making the depth negative, and parsing does not stop when
+	 * the depth returns to zero.
+	 * 
+	 * @param fragment
+	 *            - True to parse a fragment of a file
+	 */
+	void setFragment(boolean fragment) {
+		m_fragment = fragment;
+	}
+
+	/**
+	 * Reads the entire stream and parses it. The stream is read in large
+	 * blocks, so it does not need to be buffered. The stream is not closed.
+	 *
+	 * @param in
+	 *            - Stream of .tree data
+	 * @throws IOException
+	 *             - Throws if the stream could not be read or is malformed.
+	 */
+	public void parse(InputStream in) throws IOException {
+		byte[] buffer = new byte[kReadBufferSize];
+		int count;
+		while (!m_done && (count = in.read(buffer)) != -1) {
+			feed(buffer, 0, count);
+		}
+		finish();
+	}
+
+	/**
+	 * Parses the remaining bytes of a buffer, advancing its position.
+	 *
+	 * @param buffer
+	 *            - Bytes of .tree data following those already fed
+	 * @throws TreeParseException
+	 *             - Throws if the data is malformed.
+	 */
+	public void feed(ByteBuffer buffer) throws IOException {
+		if (buffer.hasArray()) {
+			int position = buffer.position();
+			feed(buffer.array(), buffer.arrayOffset() + position,
+					buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+		byte[] chunk = new byte[Math.min(kReadBufferSize, buffer.remaining())];
+		while (buffer.hasRemaining() && !m_done) {
+			int count = Math.min(chunk.length, buffer.remaining());
+			buffer.get(chunk, 0, count);
+			feed(chunk, 0, count);
+		}
+	}
+
+	/**
+	 * Parses a range of bytes.
+	 *
+	 * @param bytes
+	 *            - Bytes of .tree data following those already fed
+	 * @param offset
+	 *            - Index of the first byte to parse
+	 * @param length
+	 *            - Number of bytes to parse
+	 * @throws IOException
+	 *             - Throws if the data is malformed or the handler fails.
+	 */
+	public void feed(byte[] bytes, int offset, int length) throws IOException {
+		int end = offset + length;
+		for (int i = offset; i < end && !m_done; i++) {
+			byte b = bytes[i];
+			if (m_inTag) {
+				if (b == '>') {
+					m_inTag = false;
+					endTag();
+				} else if (b == '<') {
+					throw new TreeParseException("'<' inside of a tag", m_line,
+							m_column);
+				} else {
+					m_tag.append(b);
+				}
+			} else if (b == '<') {
+				m_inTag = true;
+				m_tag.begin(m_offset + (i - offset), m_line, m_column);
+			} else if (!isWhitespace(b)) {
+				throw new TreeParseException("text outside of a tag", m_line,
+						m_column);
+			}
+
+			if (b == '\n') {
+				m_line++;
+				m_column = 1;
+			} else {
+				m_column++;
+			}
+		}
+		m_offset += length;
+	}
+
+	/**
+	 * Signals the end of the input.
+	 *
+	 * @throws TreeParseException
+	 *             - Throws if the input ended in the middle of a tag.
+	 */
+	public void finish() throws TreeParseException {
+		if (m_inTag) {
+			throw new TreeParseException("unterminated tag", m_tag.getLine(),
+					m_tag.getColumn());
+		}
+	}
+
+	/**
+	 * Returns true once the root node has been closed. Any further input is
+	 * ignored.
+	 *
+	 * @return - True if the root node has been closed
+	 */
+	public boolean isDone() {
+		return m_done;
+	}
+
+	/**
+	 * Get the number of nodes currently open.
+	 *
+	 * @return - Depth of the most recently opened node that is still open.
+	 *         Relative to the start of the input for a fragment.
+	 */
+	public int getDepth() {
+		return m_depth;
+	}
+
+	/**
+	 * Get the number of bytes fed to the parser so far.
+	 *
+	 * @return - Byte offset of the next byte to be parsed
+	 */
+	public long getOffset() {
+		return m_offset;
+	}
+
+	/**
+	 * Splits the completed tag into its parts and passes it to the handler.
+	 */
+	private void endTag() throws IOException {
+		byte[] bytes = m_tag.m_bytes;
+		int length = m_tag.m_length;
+
+		int i = 0;
+		while (i < length && isWhitespace(bytes[i]))
+			i++;
+		if (i == length) {
+			throw new TreeParseException("empty tag", m_tag.getLine(),
+					m_tag.getColumn());
+		}
+
+		if (bytes[i] == '/') {
+			if (m_depth == 0 && !m_fragment) {
+				throw new TreeParseException("closing tag without a node",
+						m_tag.getLine(), m_tag.getColumn());
+			}
+			m_tag.m_closing = true;
+			m_tag.m_idStart = i + 1;
+			m_tag.m_idEnd = trimEnd(bytes, i + 1, length);
+			m_tag.m_nameStart = m_tag.m_idEnd;
+			m_tag.m_nameEnd = m_tag.m_idEnd;
+			m_depth--;
+			m_handler.closeTag(m_tag);
+			if (m_depth == 0 && !m_fragment)
+				m_done = true;
+			return;
+		}
+
+		m_tag.m_closing = false;
+		m_tag.m_idStart = i;
+		while (i < length && !isWhitespace(bytes[i]))
+			i++;
+		m_tag.m_idEnd = i;
+		while (i < length && isWhitespace(bytes[i]))
+			i++;
+		if (i == length) {
+			throw new TreeParseException("missing node name", m_tag.getLine(),
+					m_tag.getColumn());
+		}
+		m_tag.m_nameStart = i;
+		m_tag.m_nameEnd = trimEnd(bytes, i, length);
+		m_depth++;
+		m_handler.openTag(m_tag);
+	}
+
+	/**
+	 * Returns the end of a range with trailing whitespace removed.
+	 */
+	private static int trimEnd(byte[] bytes, int start, int end) {
+		while (end > start && isWhitespace(bytes[end - 1]))
+			end--;
+		return end;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+	}
+
+	/**
+	 * Receives tags from a TreeParser in the order they appear in the input.
+	 */
+	public interface Handler {
+		/**
+		 * Called when an opening tag is read.
+		 *
+		 * @param tag
+		 *            - The tag. Only valid until this method returns.
+		 * @throws IOException
+		 *             - Implementations may throw to stop parsing.
+		 */
+		void openTag(Tag tag) throws IOException;
+
+		/**
+		 * Called when a closing tag is read.
+		 *
+		 * @param tag
+		 *            - The tag. Only valid until this method returns.
+		 * @throws IOException
+		 *             - Implementations may throw to stop parsing.
+		 */
+		void closeTag(Tag tag) throws IOException;
+	}
+
+	/**
+	 * A tag read by the parser. The same instance is reused for every tag, so
+	 * handlers must copy anything they want to keep.
+	 */
+	public static class Tag {
+		private byte[] m_bytes;
+		private int m_length;
+		private boolean m_closing;
+		private int m_idStart, m_idEnd;
+		private int m_nameStart, m_nameEnd;
+		private long m_offset;
+		private int m_line, m_column;
+
+		Tag() {
+			m_bytes = new byte[64];
+		}
+
+		private void begin(long offset, int line, int column) {
+			m_length = 0;
+			m_offset = offset;
+			m_line = line;
+			m_column = column;
+		}
+
+		private void append(byte b) {
+			if (m_length == m_bytes.length) {
+				byte[] bytes = new byte[m_bytes.length * 2];
+				System.arraycopy(m_bytes, 0, bytes, 0, m_length);
+				m_bytes = bytes;
+			}
+			m_bytes[m_length++] = b;
+		}
+
+		/**
+		 * Returns true if this is a closing tag.
+		 *
+		 * @return - True for "&lt;/id &gt;", false for "&lt;id name&gt;"
+		 */
+		public boolean isClosing() {
+			return m_closing;
+		}
+
+		/**
+		 * Get the raw bytes between the '&lt;' and '&gt;' of the tag.
+		 *
+		 * @return - Buffer holding the tag, valid up to getLength()
+		 */
+		public byte[] getBytes() {
+			return m_bytes;
+		}
+
+		/**
+		 * Get the number of bytes between the '&lt;' and '&gt;' of the tag.
+		 *
+		 * @return - Length of the tag contents
+		 */
+		public int getLength() {
+			return m_length;
+		}
+
+		public int getIdStart() {
+			return m_idStart;
+		}
+
+		public int getIdEnd() {
+			return m_idEnd;
+		}
+
+		public int getNameStart() {
+			return m_nameStart;
+		}
+
+		public int getNameEnd() {
+			return m_nameEnd;
+		}
+
+		/**
+		 * Decodes the node name of an opening tag.
+		 *
+		 * @return - The node name
+		 */
+		public String getName() {
+			return new String(m_bytes, m_nameStart, m_nameEnd - m_nameStart,
+					kCharset);
+		}
+
+		/**
+		 * Decodes the id of the tag.
+		 *
+		 * @return - The id, without the '/' of a closing tag
+		 */
+		public String getId() {
+			return new String(m_bytes, m_idStart, m_idEnd - m_idStart, kCharset);
+		}
+
+		/**
+		 * Get the byte offset of the tag's '&lt;' in the input.
+		 *
+		 * @return - Offset from the start of the input
+		 */
+		public long getOffset() {
+			return m_offset;
+		}
+
+		/**
+		 * Get the line of the tag's '&lt;' in the input.
+		 *
+		 * @return - Line number, starting at 1
+		 */
+		public int getLine() {
+			return m_line;
+		}
+
+		/**
+		 * Get the column of the tag's '&lt;' in the input.
+		 *
+		 * @return - Column number, starting at 1
+		 */
+		public int getColumn() {
+			return m_column;
+		}
+	}
+}
@@ -2,12 +2,28 @@ package treevisualizer;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.VolatileImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.DecimalFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
@@ -23,6 +39,28 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 	
 	private static double kZoomRate = 0.1;
 	private static double kPanDuration = 1.0;
+	// frames per second of animations when the display's rate is unknown
+	private static int kDefaultFrameRate = 60;
+	// text files at least this big are parsed on every core at once
+	private static long kParallelLoadSize = 16L * 1024 * 1024;
+	// files at least this big are memory mapped instead of read onto the heap
+	static long kMappedLoadSize = 64L * 1024 * 1024;
+	// files at least this big are read lazily as they are viewed
+	static long kLazyLoadSize = 512L * 1024 * 1024;
+	// text files at least this big get a .treeb companion for faster reloads
+	private static long kCompanionSize = 1024 * 1024;
+	// deepest level of a loading tree that is shown before loading finishes
+	private static int kPreviewDepth = 3;
+	// longest time between checks of a followed file, in milliseconds
+	private static long kFollowInterval = 500;
+	// most search results listed
+	private static int kMaxSearchResults = 200;
+	// nodes found by a search that are smaller than this radius in pixels,
+	// or further than this many panel sizes from the middle, are flown to
+	// from a view centered on them, as flying there would take too long
+	private static double kMinFlyRadius = 2.0;
+	private static double kMaxFlyDistance = 4.0;
+	static Color kBackgroundColor = new Color(80, 80, 90, 255);
 
 	private int lastMouseX, lastMouseY;
 	private double m_targetCameraX, m_targetCameraY;
@@ -31,21 +69,49 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 	private double m_beginZoom;
 	private double m_targetZoom;
 
-	private TreeController<String> m_treeController;
+	private TreeController<CharSequence> m_treeController;
+	private TileRenderer m_tileRenderer;
 
 	private JFrame m_frame;
 	private JButton m_quitButton;
 	private JButton m_loadButton;
+	private JToggleButton m_followButton;
 	private JButton m_resetButton;
+	private JToggleButton m_statsButton;
 	private JLabel m_zoomLabel;
 	private JSlider m_zoomSlider;
+	private JTextField m_findField;
+	private JPanel m_resultsPanel;
+	private JLabel m_resultsLabel;
+	private JList<String> m_resultsList;
 
-	private Timer m_zoomSliderUpdateTimer;
 	private boolean m_zoomSliderPressed;
 
 	private double m_panInterpolateTime;
-
-	private Timer m_panUpdateTimer;
+	private boolean m_panning;
+
+	private RenderLoop m_renderLoop;
+	private VolatileImage m_backBuffer;
+
+	private LoadWorker m_loadWorker;
+	// the tree shown before the load in progress, shown again if the load
+	// fails or is cancelled after replacing it with a preview
+	private TreeModel<?> m_previousTree;
+	private SearchIndex m_previousIndex;
+	private FollowWorker m_followWorker;
+	// the mapped file the loaded tree reads from, closed once another tree
+	// replaces it, or null if the tree does not read from one
+	private Closeable m_treeMapping;
+
+	// index of the tree being viewed, or null if it is not indexed
+	private SearchIndex m_searchIndex;
+	private SearchWorker m_searchWorker;
+	// the index the listed results are from, and their node ids
+	private SearchIndex m_resultsIndex;
+	private int[] m_resultNodes;
+
+	private RenderMetrics m_metrics;
+	private long m_lastPaintNanos;
 
 	/**
 	 * The application entry point.
@@ -62,7 +128,6 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 		TreeVisualizer panel = new TreeVisualizer(frame);
 		frame.add(panel, BorderLayout.CENTER);
 
-		frame.setResizable(false);
 		frame.pack();
 		frame.setVisible(true);
 	}
@@ -74,19 +139,28 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 	 *            - The frame containing this JPanel
 	 */
 	public TreeVisualizer(JFrame frame) {
-		setMinimumSize(new Dimension(800, 600));
+		setMinimumSize(new Dimension(400, 300));
 		setPreferredSize(new Dimension(800, 600));
 
 		// Create stuff for the JMenuBar
 		m_loadButton = new JButton("Load Tree");
 		m_loadButton.addActionListener(this);
 
+		m_followButton = new JToggleButton("Follow");
+		m_followButton.setToolTipText("Load a tree file and keep loading "
+				+ "what is appended to it");
+		m_followButton.addActionListener(this);
+
 		m_quitButton = new JButton("Quit");
 		m_quitButton.addActionListener(this);
 
 		m_resetButton = new JButton("Reset");
 		m_resetButton.addActionListener(this);
 
+		m_statsButton = new JToggleButton("Stats");
+		m_statsButton.setToolTipText("Show frame times and counts");
+		m_statsButton.addActionListener(this);
+
 		m_zoomSlider = new JSlider();
 		m_zoomSlider.addChangeListener(this);
 		m_zoomSlider.addMouseListener(this);
@@ -99,16 +173,60 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 
 		m_zoomLabel = new JLabel("1.00x");
 
+		m_findField = new JTextField(12);
+		m_findField.setMaximumSize(new Dimension(200, 100));
+		m_findField.setToolTipText("Find nodes by name, and press Enter to "
+				+ "fly to the first");
+		m_findField.addActionListener(this);
+		m_findField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				search();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				search();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+
 		JMenuBar menuBar = new JMenuBar();
 		menuBar.add(m_loadButton);
+		menuBar.add(m_followButton);
 		menuBar.add(m_quitButton);
 		menuBar.add(new JLabel("Zoom:"));
 		menuBar.add(m_zoomSlider);
 		menuBar.add(m_zoomLabel);
 		menuBar.add(m_resetButton);
+		menuBar.add(m_statsButton);
+		menuBar.add(new JLabel("Find:"));
+		menuBar.add(m_findField);
+
+		// Search results, shown beside the tree while there are any
+		m_resultsLabel = new JLabel();
+		m_resultsList = new JList<String>();
+		m_resultsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		m_resultsList.addListSelectionListener(new ListSelectionListener() {
+			@Override
+			public void valueChanged(ListSelectionEvent e) {
+				if (!e.getValueIsAdjusting())
+					flyToResult(m_resultsList.getSelectedIndex());
+			}
+		});
+		JScrollPane resultsScroller = new JScrollPane(m_resultsList);
+		resultsScroller.setPreferredSize(new Dimension(220, 0));
+		m_resultsPanel = new JPanel(new BorderLayout());
+		m_resultsPanel.add(m_resultsLabel, BorderLayout.NORTH);
+		m_resultsPanel.add(resultsScroller, BorderLayout.CENTER);
+		m_resultsPanel.setVisible(false);
 
 		m_frame = frame;
 		frame.add(menuBar, BorderLayout.NORTH);
+		frame.add(m_resultsPanel, BorderLayout.EAST);
 
 		this.addMouseListener(this);
 		this.addMouseMotionListener(this);
@@ -121,9 +239,35 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 		m_targetCameraY = 0;
 		m_targetZoom = 1.0;
 
-		m_zoomSliderUpdateTimer = new Timer(1000 / 30, this);
-
-		m_panUpdateTimer = new Timer(1000 / 30, this);
+		// Animation frames are drawn by the render loop, into a back buffer
+		// of our own, so Swing's would only be copied again. Swing buffers
+		// a component if any of its ancestors is double buffered, so the
+		// window's panes are not; the bars around the tree buffer
+		// themselves instead.
+		setDoubleBuffered(false);
+		frame.getRootPane().setDoubleBuffered(false);
+		((JComponent) frame.getContentPane()).setDoubleBuffered(false);
+		menuBar.setDoubleBuffered(true);
+		m_renderLoop = new RenderLoop();
+		// the refresh rate can change when the panel moves to another screen
+		addPropertyChangeListener("graphicsConfiguration",
+				new PropertyChangeListener() {
+					@Override
+					public void propertyChange(PropertyChangeEvent evt) {
+						m_renderLoop.updateFrameRate();
+					}
+				});
+
+		// Frame stats, also readable over JMX
+		m_metrics = new RenderMetrics();
+		try {
+			m_metrics.register();
+		} catch (InstanceAlreadyExistsException exc) {
+			// another TreeVisualizer in this process got there first
+		} catch (JMException exc) {
+			System.out.println("Could not register render metrics!");
+			System.out.println(exc);
+		}
 
 		// Creates an example tree.
 		displayExampleTree();
@@ -131,38 +275,145 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 	}
 
 	/**
-	 * The paint method for drawing the panel.
+	 * Finds the refresh rate of the screen the panel is shown on, once it
+	 * has one.
+	 */
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		m_renderLoop.updateFrameRate();
+	}
+
+	/**
+	 * The paint method for drawing the panel. The whole panel is drawn into a
+	 * VolatileImage, which can be kept in video memory, and then copied to
+	 * the screen in one blit. If the image loses its contents while drawing,
+	 * it is drawn again.
 	 * 
 	 * @param g
 	 *            a graphics object
 	 */
 	public void paint(Graphics g) {
-		// safe cast - every graphics object in swift is a graphics2D object
-		// Graphics2D g2 = (Graphics2D) g;
+		long start = System.nanoTime();
+		// the tree is drawn to the whole panel, which can be resized
+		int width = getWidth();
+		int height = getHeight();
+		if (width <= 0 || height <= 0)
+			return;
+
+		boolean complete;
+		if (!validateBackBuffer(width, height)) {
+			// not displayable yet, so there is nothing to accelerate
+			complete = paintFrame(g, width, height);
+		} else {
+			do {
+				Graphics2D bufferGraphics = m_backBuffer.createGraphics();
+				complete = paintFrame(bufferGraphics, width, height);
+				bufferGraphics.dispose();
+			} while (m_backBuffer.contentsLost()
+					&& validateBackBuffer(width, height));
+			g.drawImage(m_backBuffer, 0, 0, null);
+		}
+		// paint again while tiles at a new zoom are still being drawn
+		if (!complete)
+			repaint();
+		m_lastPaintNanos = System.nanoTime() - start;
+	}
 
-		int upperLeftX = g.getClipBounds().x;
-		int upperLeftY = g.getClipBounds().y;
-		int visibleWidth = g.getClipBounds().width;
-		int visibleHeight = g.getClipBounds().height;
+	/**
+	 * Makes sure the back buffer exists, matches the panel's size and
+	 * screen, and has not lost its surface, creating or restoring it if
+	 * needed. Either way its contents must be drawn again.
+	 * 
+	 * @return - False if there is no back buffer, because the panel is not
+	 *         displayable
+	 */
+	private boolean validateBackBuffer(int width, int height) {
+		if (m_backBuffer != null
+				&& (m_backBuffer.getWidth() != width
+						|| m_backBuffer.getHeight() != height || m_backBuffer
+						.validate(getGraphicsConfiguration()) == VolatileImage.IMAGE_INCOMPATIBLE)) {
+			m_backBuffer.flush();
+			m_backBuffer = null;
+		}
+		if (m_backBuffer == null)
+			m_backBuffer = createVolatileImage(width, height);
+		return m_backBuffer != null;
+	}
 
+	/**
+	 * Draws the tree and the text over it.
+	 * 
+	 * @return - False if some of the tree was drawn from another zoom level
+	 *         and should be painted again
+	 */
+	private boolean paintFrame(Graphics g, int width, int height) {
 		// Clear the background.
-		g.setColor(new Color(80, 80, 90, 255));
-		g.fillRect(upperLeftX, upperLeftY, visibleWidth, visibleHeight);
-		// Draw the actual tree
-		m_treeController
-				.draw(g, (long) m_cameraX + 400, (long) m_cameraY + 300);
+		g.setColor(kBackgroundColor);
+		g.fillRect(0, 0, width, height);
+		// Bring the tiles up to date with changes to the tree, which can
+		// move the anchor
+		m_tileRenderer.applyChanges();
+		// Keep the camera relative to a node near the middle of the screen,
+		// so it stays precise however deep it zooms
+		if (m_treeController.updateAnchor())
+			reanchorCamera();
+		// Draw the actual tree from cached tiles
+		boolean complete = m_tileRenderer.draw(g, (long) m_cameraX + width
+				/ 2, (long) m_cameraY + height / 2, width, height);
 
 		float fontSize = 12.0f;
-		Font font = g.getFont().deriveFont(fontSize);
+		Font font = getFont().deriveFont(fontSize);
 		g.setFont(font);
 
 		// Draw the controls text.
 		int textHeight = g.getFontMetrics().getHeight()
 				+ g.getFontMetrics().getLeading();
+		int textY = height - 49;
 		g.setColor(Color.WHITE);
-		g.drawString("Pan: Drag Left Mouse", 21, 551);
-		g.drawString("Zoom: Scroll Mouse Wheel", 21, 551 + textHeight);
-		g.drawString("Zoom to Node: Double Click Node", 21, 551 + textHeight * 2);
+		g.drawString("Pan: Drag Left Mouse", 21, textY);
+		g.drawString("Zoom: Scroll Mouse Wheel", 21, textY + textHeight);
+		g.drawString("Zoom to Node: Double Click Node", 21, textY + textHeight
+				* 2);
+
+		if (m_statsButton.isSelected())
+			drawStats(g, 261, textY, textHeight);
+		return complete;
+	}
+
+	/**
+	 * Draws the counts of the last frame and recent frame times, in the
+	 * current font and color.
+	 * 
+	 * @param g
+	 *            - The graphics context in which to paint.
+	 * @param x
+	 *            - X coordinate of the text
+	 * @param y
+	 *            - Baseline of the first line
+	 * @param textHeight
+	 *            - Distance between lines
+	 */
+	private void drawStats(Graphics g, int x, int y, int textHeight) {
+		DecimalFormat df = new DecimalFormat();
+		df.setMinimumFractionDigits(2);
+		df.setMaximumFractionDigits(2);
+		FrameStats stats = m_metrics.getLastFrame();
+		g.drawString("Frame: " + df.format(stats.getFrameNanos() / 1e6)
+				+ " ms (paint " + df.format(m_lastPaintNanos / 1e6)
+				+ " ms)   p50 " + df.format(m_metrics.getFrameTimeP50())
+				+ "   p95 " + df.format(m_metrics.getFrameTimeP95())
+				+ "   p99 " + df.format(m_metrics.getFrameTimeP99()), x, y);
+		g.drawString("Nodes: " + stats.getNodesVisited() + " visited, "
+				+ stats.getNodesCulled() + " culled, depth "
+				+ stats.getMaxDepth(), x, y + textHeight);
+		g.drawString("Drawn: " + stats.getOvalsDrawn() + " ovals, "
+				+ stats.getGlyphsDrawn() + " glyphs, "
+				+ stats.getLabelsDrawn() + " labels ("
+				+ stats.getLabelsPending() + " pending), "
+				+ stats.getTilesDrawn() + " tiles, "
+				+ stats.getEdgesTested() + " edge tests", x, y + textHeight
+				* 2);
 	}
 
 	/**
@@ -184,7 +435,7 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 		m_targetZoom = m_treeController.getZoom();
 
 		m_panInterpolateTime = 0.0;
-		m_panUpdateTimer.stop();
+		m_panning = false;
 
 		lastMouseX = e.getX();
 		lastMouseY = e.getY();
@@ -203,7 +454,7 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 		// Adjusts the slider if pressed.
 		if (e.getSource() == m_zoomSlider) {
 			m_zoomSliderPressed = true;
-			m_zoomSliderUpdateTimer.restart();
+			m_renderLoop.animate();
 		}
 	}
 
@@ -223,7 +474,7 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 	// Double clicking on nodes handling.
 	public void mouseClicked(MouseEvent e) {
 		if (e.getClickCount() == 2) {
-			TreeController<String>.Circle circle = m_treeController
+			TreeController<CharSequence>.Circle circle = m_treeController
 					.getCircleAtPoint(e.getX(), e.getY());
 			if (circle != null) {
 				double targetZoom = m_treeController.getZoom()
@@ -238,7 +489,6 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 	public void mouseReleased(MouseEvent e) {
 		m_zoomSlider.setValue(50);
 		m_zoomSliderPressed = false;
-		m_zoomSliderUpdateTimer.stop();
 	}
 
 	@Override
@@ -257,36 +507,63 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 			if (returnVal == JFileChooser.CANCEL_OPTION) {
 
 			} else if (returnVal == JFileChooser.APPROVE_OPTION) {
-				Tree<String> tree = null;
-				try {
-					tree = TreeLoader
-							.loadTreeFile(fileGetter.getSelectedFile());
-				} catch (IOException exc) {
-					System.out.println("Could not load Tree file!");
-					System.out.println(exc);
-				}
-				if (tree != null) {
-					m_treeController.setTree(tree);
-					resetView();
-				}
+				stopFollowing();
+				cancelLoading();
+				m_previousTree = m_treeController.getTreeModel();
+				m_previousIndex = m_searchIndex;
+				m_loadWorker = new LoadWorker(fileGetter.getSelectedFile());
+				m_loadWorker.execute();
 			}
-		} else if (e.getSource() == m_zoomSliderUpdateTimer) // Trigger that
-																// updates
-																// slider zoom
-																// every 1/30 of
-																// a second.
-		{
-
-			zoomView((double) (m_zoomSlider.getValue() - 50) / 50.0, 0, 0);
-			if (m_zoomSliderPressed) {
-				m_zoomSliderUpdateTimer.restart();
+		} else if (e.getSource() == m_followButton) { // Follow Button.
+			if (!m_followButton.isSelected()) {
+				stopFollowing();
+				return;
 			}
-		} else if (e.getSource() == m_panUpdateTimer) // Trigger that updates
-														// the camera panning
-														// every 1/30 of a
-														// second.
-		{
-			m_panInterpolateTime += m_panUpdateTimer.getDelay() / 1000.0;
+			JFileChooser fileGetter = new JFileChooser();
+			fileGetter.setFileFilter(new FileNameExtensionFilter(
+					"tree files (*.tree)", "tree"));
+			fileGetter.setDialogTitle("Follow tree file");
+			if (fileGetter.showOpenDialog(null) != JFileChooser.APPROVE_OPTION) {
+				m_followButton.setSelected(false);
+				return;
+			}
+			cancelLoading();
+			stopFollowing();
+			m_followWorker = new FollowWorker(fileGetter.getSelectedFile());
+			m_followWorker.execute();
+			m_followButton.setSelected(true);
+		} else if (e.getSource() == m_resetButton) { // Reset Button.
+			resetView();
+		} else if (e.getSource() == m_statsButton) { // Stats Button.
+			repaint();
+		} else if (e.getSource() == m_findField) { // Enter in Find.
+			if (m_resultNodes != null && m_resultNodes.length > 0) {
+				if (m_resultsList.getSelectedIndex() == 0)
+					flyToResult(0);
+				else
+					m_resultsList.setSelectedIndex(0);
+			}
+		}
+
+	}
+
+	/**
+	 * Moves any animation of the camera, and zooming by the slider, on by
+	 * some time. Called by the render loop on the event dispatch thread
+	 * before each frame.
+	 * 
+	 * @param seconds
+	 *            - Time since the last frame
+	 * @return - True if there is more to animate
+	 */
+	private boolean stepAnimation(double seconds) {
+		if (m_zoomSliderPressed) {
+			// the slider's rate was set for 30 steps a second
+			zoomView((double) (m_zoomSlider.getValue() - 50) / 50.0 * seconds
+					* 30.0, 0, 0);
+		}
+		if (m_panning) {
+			m_panInterpolateTime += seconds;
 			if (m_panInterpolateTime > kPanDuration)
 				m_panInterpolateTime = kPanDuration;
 
@@ -299,10 +576,7 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 				m_treeController.setZoom(interpolateCos(m_beginZoom,
 						m_targetZoom, m_panInterpolateTime / kPanDuration));
 
-			DecimalFormat df = new DecimalFormat();
-			df.setMinimumFractionDigits(2);
-			df.setMaximumFractionDigits(2);
-			m_zoomLabel.setText(df.format(m_treeController.getZoom()) + "x");
+			updateZoomLabel();
 
 			// update pan
 			if (useSpringy) {
@@ -316,16 +590,10 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 				m_cameraY = interpolateCos(m_beginCameraY, m_targetCameraY,
 						m_panInterpolateTime / kPanDuration);
 			}
-			repaint();
-			if (m_panInterpolateTime < kPanDuration) {
-				m_panUpdateTimer.restart();
-			} else {
-				m_panUpdateTimer.stop();
-			}
-		} else if (e.getSource() == m_resetButton) { // Reset Button.
-			resetView();
+			if (m_panInterpolateTime >= kPanDuration)
+				m_panning = false;
 		}
-
+		return m_panning || m_zoomSliderPressed;
 	}
 
 	/**
@@ -364,7 +632,8 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 	}
 
 	/**
-	 * Begin a smooth camera pan to a point
+	 * Begin a smooth camera pan that brings a point to the middle of the
+	 * panel
 	 * 
 	 * @param x
 	 *            - X coordinate
@@ -372,14 +641,27 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 	 *            - Y coordinate
 	 */
 	public void panCameraToPoint(int x, int y) {
-		m_targetCameraX = m_cameraX - (x - 400);
-		m_targetCameraY = m_cameraY - (y - 300);
+		panCameraToPoint((double) x, (double) y);
+	}
+
+	/**
+	 * Begin a smooth camera pan that brings a point to the middle of the
+	 * panel
+	 * 
+	 * @param x
+	 *            - X coordinate, which can be between pixels
+	 * @param y
+	 *            - Y coordinate
+	 */
+	public void panCameraToPoint(double x, double y) {
+		m_targetCameraX = m_cameraX - (x - getWidth() / 2);
+		m_targetCameraY = m_cameraY - (y - getHeight() / 2);
 		m_beginCameraX = m_cameraX;
 		m_beginCameraY = m_cameraY;
 
 		m_panInterpolateTime = 0;
-		m_panUpdateTimer.restart();
-
+		m_panning = true;
+		m_renderLoop.animate();
 	}
 
 	/**
@@ -402,16 +684,12 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 		m_targetZoom = m_treeController.getZoom();
 
 		m_panInterpolateTime = 0.0;
-		m_panUpdateTimer.stop();
+		m_panning = false;
 
 		double oldZoom = m_treeController.getZoom();
 		double deltaZoom = zoomAmount * kZoomRate * oldZoom;
 		m_treeController.setZoom(oldZoom + deltaZoom);
-
-		DecimalFormat df = new DecimalFormat();
-		df.setMinimumFractionDigits(2);
-		df.setMaximumFractionDigits(2);
-		m_zoomLabel.setText(df.format(m_treeController.getZoom()) + "x");
+		updateZoomLabel();
 
 		m_cameraX = m_cameraX / oldZoom * m_treeController.getZoom();
 		m_cameraY = m_cameraY / oldZoom * m_treeController.getZoom();
@@ -433,31 +711,238 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 		m_targetZoom = m_treeController.getZoom();
 		m_treeController.setZoom(m_beginZoom);
 
-		m_panInterpolateTime = 0;
-		m_panUpdateTimer.restart();
-
 		m_targetCameraX = m_targetCameraX / m_beginZoom * m_targetZoom;
 		m_targetCameraY = m_targetCameraY / m_beginZoom * m_targetZoom;
 
 		m_panInterpolateTime = 0;
-		m_panUpdateTimer.restart();
+		m_panning = true;
+		m_renderLoop.animate();
+	}
+
+	/**
+	 * Begin a smooth pan and zoom of the camera to a node, which need not be
+	 * drawn yet. The node becomes the anchor first, so it is reached
+	 * precisely however deep it is. A node that is too small or far to fly
+	 * to from the current view is flown to from one centered on it instead.
+	 * 
+	 * @param path
+	 *            - Child indexes on the way down from the root, as returned
+	 *            by SearchIndex.getPath()
+	 * @return - False if the tree does not have the path
+	 */
+	public boolean flyToNode(int[] path) {
+		Ellipse2D circle = m_treeController.locateNode(path);
+		if (circle == null)
+			return false;
+		double distance = Math.hypot(m_cameraX + circle.getCenterX(),
+				m_cameraY + circle.getCenterY());
+		boolean jump = circle.getWidth() / 2.0 < kMinFlyRadius
+				|| distance > kMaxFlyDistance
+						* Math.max(getWidth(), getHeight());
+
+		m_treeController.moveAnchorTo(path);
+		if (m_treeController.updateAnchor())
+			reanchorCamera();
+		if (jump) {
+			m_treeController.setZoom(kMinFlyRadius
+					/ TreeController.kPrimaryNodeRadius);
+			m_cameraX = 0;
+			m_cameraY = 0;
+			updateZoomLabel();
+		}
+		// the node is the anchor, so is drawn at the camera's position with
+		// zoom 1.0 bringing it to full size
+		panCameraToPoint(m_cameraX + getWidth() / 2, m_cameraY + getHeight()
+				/ 2);
+		zoomCameraSmooth(1.0);
+		return true;
+	}
+
+	/**
+	 * Replaces the index searched by the Find box, and searches it again.
+	 * 
+	 * @param index
+	 *            - Index of the tree being viewed, or null if it is not
+	 *            indexed
+	 */
+	private void setSearchIndex(SearchIndex index) {
+		m_searchIndex = index;
+		m_findField.setEnabled(index != null);
+		search();
+	}
+
+	/**
+	 * Searches for the text in the Find box on a background thread. Any
+	 * search still running is cancelled, and its results never shown.
+	 */
+	private void search() {
+		if (m_searchWorker != null)
+			m_searchWorker.cancel(true);
+		m_searchWorker = null;
+		String query = m_findField.getText();
+		if (m_searchIndex == null || query.isEmpty()) {
+			showResults(null, null, null);
+			return;
+		}
+		m_searchWorker = new SearchWorker(m_searchIndex, query);
+		m_searchWorker.execute();
+	}
+
+	/**
+	 * Lists search results beside the tree, or hides the list.
+	 * 
+	 * @param index
+	 *            - Index the results are from
+	 * @param results
+	 *            - Results to list, or null to hide the list
+	 * @param labels
+	 *            - Text listed for each result
+	 */
+	private void showResults(SearchIndex index, SearchIndex.Results results,
+			String[] labels) {
+		m_resultsIndex = index;
+		m_resultNodes = null;
+		if (results == null) {
+			m_resultsList.setListData(new String[0]);
+			m_resultsPanel.setVisible(false);
+		} else {
+			m_resultNodes = new int[results.getCount()];
+			for (int i = 0; i < m_resultNodes.length; i++)
+				m_resultNodes[i] = results.getNode(i);
+			m_resultsList.setListData(labels);
+			if (results.getTotal() > results.getCount())
+				m_resultsLabel.setText(" First " + results.getCount() + " of "
+						+ results.getTotal() + " matches");
+			else
+				m_resultsLabel.setText(" " + results.getTotal()
+						+ (results.getTotal() == 1 ? " match" : " matches"));
+			m_resultsPanel.setVisible(true);
+		}
+		m_frame.validate();
+	}
+
+	/**
+	 * Flies to a listed search result.
+	 * 
+	 * @param result
+	 *            - Index of the result in the list, or -1 for none
+	 */
+	private void flyToResult(int result) {
+		if (result < 0 || m_resultNodes == null
+				|| result >= m_resultNodes.length
+				|| m_resultsIndex != m_searchIndex)
+			return;
+		flyToNode(m_resultsIndex.getPath(m_resultNodes[result]));
+	}
+
+	/**
+	 * Cancels the load in progress, if there is one, showing the tree from
+	 * before it again if the load's preview had replaced it.
+	 */
+	private void cancelLoading() {
+		LoadWorker worker = m_loadWorker;
+		if (worker == null)
+			return;
+		m_loadWorker = null;
+		worker.cancel(true);
+		if (worker.hasPreview())
+			restorePreviousTree();
+		m_previousTree = null;
+		m_previousIndex = null;
+	}
+
+	/**
+	 * Closes the mapped file the loaded tree read from, once another tree is
+	 * shown instead.
+	 */
+	private void closeTreeMapping() {
+		closeMapping(m_treeMapping);
+		m_treeMapping = null;
+	}
+
+	/**
+	 * Closes a mapped file a tree reads from, if there is one.
+	 */
+	private static void closeMapping(Closeable mapping) {
+		if (mapping == null)
+			return;
+		try {
+			mapping.close();
+		} catch (IOException exc) {
+			// the mapping is dropped either way
+		}
+	}
+
+	/**
+	 * Shows the tree from before the last load again.
+	 */
+	private void restorePreviousTree() {
+		m_treeController.setTreeModel(m_previousTree);
+		setSearchIndex(m_previousIndex);
+		resetView();
+	}
+
+	/**
+	 * Stops following a tree file. The tree loaded so far stays in view.
+	 */
+	private void stopFollowing() {
+		if (m_followWorker != null)
+			m_followWorker.cancel(true);
+		m_followWorker = null;
+		m_followButton.setSelected(false);
 	}
 
 	/**
 	 * Resets the camera view.
 	 */
 	public void resetView() {
+		m_treeController.resetAnchor();
 		m_treeController.setZoom(1.0);
 		m_cameraX = 0;
 		m_cameraY = 0;
 		m_targetCameraX = 0;
 		m_targetCameraY = 0;
 		m_targetZoom = 1.0;
+		updateZoomLabel();
+		repaint();
+	}
+
+	/**
+	 * Moves the camera, and the begin and target of any pan, to match the
+	 * TreeController's new anchor, so the view does not change.
+	 */
+	private void reanchorCamera() {
+		double offsetX = m_treeController.getAnchorOffsetX();
+		double offsetY = m_treeController.getAnchorOffsetY();
+		double scale = m_treeController.getAnchorScale();
+		// the controller has already changed its zoom
+		double zoom = m_treeController.getZoom() / scale;
+		m_cameraX += offsetX * zoom;
+		m_cameraY += offsetY * zoom;
+		m_beginCameraX += offsetX * m_beginZoom;
+		m_beginCameraY += offsetY * m_beginZoom;
+		m_targetCameraX += offsetX * m_targetZoom;
+		m_targetCameraY += offsetY * m_targetZoom;
+		m_beginZoom *= scale;
+		m_targetZoom *= scale;
+	}
+
+	/**
+	 * Shows the zoom relative to the root, in scientific notation once it
+	 * gets large.
+	 */
+	private void updateZoomLabel() {
 		DecimalFormat df = new DecimalFormat();
 		df.setMinimumFractionDigits(2);
 		df.setMaximumFractionDigits(2);
-		m_zoomLabel.setText(df.format(m_treeController.getZoom()) + "x");
-		repaint();
+		double logZoom = m_treeController.getLogZoom();
+		if (logZoom < 6.0) {
+			m_zoomLabel.setText(df.format(Math.pow(10.0, logZoom)) + "x");
+		} else {
+			long exponent = (long) Math.floor(logZoom);
+			m_zoomLabel.setText(df.format(Math.pow(10.0, logZoom - exponent))
+					+ "e" + exponent + "x");
+		}
 	}
 
 	@Override
@@ -512,6 +997,425 @@ public class TreeVisualizer extends JPanel implements MouseMotionListener,
 				.addChild("A").addChild("L").addChild("S").addChild("A")
 				.addChild("R").addChild("E").addChild("F").addChild("U")
 				.addChild("N").addChild("!").addChild(nodeFractal);
-		m_treeController = new TreeController<String>(tree);
+		m_treeController = new TreeController<CharSequence>(tree);
+		m_treeController.addFrameListener(m_metrics);
+		// frames never wait for text to be shaped
+		m_treeController.setAsyncLabels(true);
+		// changes to the tree are drawn in the next frame
+		m_treeController.addUpdateListener(new TreeController.UpdateListener() {
+			@Override
+			public void updatePending() {
+				repaint();
+			}
+		});
+		m_tileRenderer = new TileRenderer(m_treeController, kBackgroundColor);
+		m_tileRenderer.setParallel(Runtime.getRuntime().availableProcessors() > 1);
+		setSearchIndex(SearchIndex.build(tree));
+	}
+
+	/**
+	 * Draws frames while something is animating, paced to the display's
+	 * refresh rate, and stops otherwise. Each frame is animated and painted
+	 * on the event dispatch thread and then flushed to the screen. Frames are
+	 * due at fixed times measured with System.nanoTime(), and the Swing Timer
+	 * is set for each one to wait until the next is due, so the rate is not
+	 * limited to whole milliseconds between frames. A frame that is late is
+	 * drawn straight away, but once the loop falls more than a frame behind
+	 * the frames missed are skipped instead of drawn to catch up.
+	 */
+	private class RenderLoop implements ActionListener {
+		private Timer m_timer;
+		// only read and written on the event dispatch thread
+		private long m_framePeriod;
+		private long m_nextFrameTime;
+		private long m_lastFrameTime;
+
+		RenderLoop() {
+			m_framePeriod = 1000000000L / kDefaultFrameRate;
+			m_timer = new Timer(0, this);
+			m_timer.setRepeats(false);
+			// a coalescing Timer drops a tick that fires while the last frame
+			// is still being drawn, which would stop the loop
+			m_timer.setCoalesce(false);
+		}
+
+		/**
+		 * Starts drawing frames, if the loop is not already.
+		 */
+		void animate() {
+			if (!m_timer.isRunning()) {
+				m_lastFrameTime = System.nanoTime();
+				m_nextFrameTime = m_lastFrameTime;
+				m_timer.setInitialDelay(0);
+				m_timer.start();
+			}
+		}
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			long now = System.nanoTime();
+			boolean more = stepAnimation((now - m_lastFrameTime) / 1e9);
+			m_lastFrameTime = now;
+			paintImmediately(0, 0, getWidth(), getHeight());
+			Toolkit.getDefaultToolkit().sync();
+			if (more)
+				scheduleFrame();
+		}
+
+		/**
+		 * Sets the Timer to fire when the next frame is due.
+		 */
+		private void scheduleFrame() {
+			long now = System.nanoTime();
+			m_nextFrameTime += m_framePeriod;
+			// more than a frame behind, so the frames missed are skipped
+			if (now - m_nextFrameTime > m_framePeriod)
+				m_nextFrameTime = now;
+			// the Timer takes milliseconds, and the deadline keeps the
+			// rounding from adding up over frames
+			long delay = Math.max(0, (m_nextFrameTime - now + 500000) / 1000000);
+			m_timer.setInitialDelay((int) delay);
+			m_timer.start();
+		}
+
+		/**
+		 * Finds the refresh rate of the screen the panel is on. Must be called
+		 * on the event dispatch thread.
+		 */
+		void updateFrameRate() {
+			GraphicsConfiguration config = getGraphicsConfiguration();
+			int rate = DisplayMode.REFRESH_RATE_UNKNOWN;
+			if (config != null)
+				rate = config.getDevice().getDisplayMode().getRefreshRate();
+			if (rate == DisplayMode.REFRESH_RATE_UNKNOWN)
+				rate = kDefaultFrameRate;
+			m_framePeriod = 1000000000L / rate;
+		}
+	}
+
+	/**
+	 * Loads a .tree file on a background thread while a ProgressMonitor shows
+	 * how much of the file has been read. Very large files are opened as a
+	 * LazyTree instead, which only reads nodes as they are viewed, and large
+	 * ones are parsed on every core at once. Otherwise the top levels of the
+	 * tree are copied into a preview tree on the event dispatch thread as
+	 * they are parsed, so they can be viewed before loading finishes. The loaded tree
+	 * replaces the preview once it is complete, and is indexed for searching
+	 * before then. A memory mapped tree is only indexed by the first search,
+	 * and a LazyTree is not indexed at all.
+	 */
+	private class LoadWorker extends
+			SwingWorker<TreeModel<?>, Tree.Node<? extends CharSequence>>
+			implements TreeLoader.LoadListener<CharSequence>,
+			PropertyChangeListener {
+		private File m_file;
+		private ProgressMonitor m_monitor;
+		// built in the background, and read once it is done
+		private SearchIndex m_index;
+		// the mapped file the loaded tree reads from, set in the background
+		// and closed by whichever thread finds the load cancelled
+		private volatile Closeable m_mapping;
+
+		// preview nodes by the loaded node they copy
+		private Tree<CharSequence> m_previewTree;
+		private IdentityHashMap<Tree.Node<?>, Tree.Node<CharSequence>> m_previewNodes;
+
+		LoadWorker(File file) {
+			m_file = file;
+			m_previewNodes = new IdentityHashMap<Tree.Node<?>, Tree.Node<CharSequence>>();
+			m_monitor = new ProgressMonitor(TreeVisualizer.this, "Loading "
+					+ file.getName(), null, 0, 100);
+			addPropertyChangeListener(this);
+		}
+
+		@Override
+		protected TreeModel<?> doInBackground() throws IOException {
+			if (m_file.length() >= kLazyLoadSize) {
+				LazyTree tree = LazyTree.open(m_file, this);
+				setMapping(tree);
+				return tree;
+			}
+			if (m_file.length() >= kMappedLoadSize) {
+				MappedTreeFile mappedFile = new MappedTreeFile(m_file);
+				setMapping(mappedFile);
+				Tree<CharSequence> tree = TreeLoader.loadMappedTreeFile(
+						mappedFile, this);
+				// indexing would copy every name onto the heap, so it waits
+				// for the first search
+				m_index = SearchIndex.buildLater(tree);
+				return tree;
+			}
+
+			Tree<String> tree;
+			if (m_file.length() >= kParallelLoadSize
+					&& Runtime.getRuntime().availableProcessors() > 1)
+				tree = TreeLoader.loadTreeFileParallel(m_file, this);
+			else
+				tree = TreeLoader.loadTreeFile(m_file, this);
+			m_index = SearchIndex.build(tree);
+			if (m_file.length() >= kCompanionSize) {
+				TreeBinaryFile companion = TreeBinaryFile.openCompanion(m_file);
+				if (companion == null)
+					writeCompanion();
+				else
+					companion.close();
+			}
+			return tree;
+		}
+
+		/**
+		 * Keeps the mapped file the tree being loaded reads from, closing it
+		 * if the load has been cancelled already, as done() may have run
+		 * before it was kept.
+		 */
+		private void setMapping(Closeable mapping) throws IOException {
+			m_mapping = mapping;
+			if (isCancelled()) {
+				closeMapping(mapping);
+				throw new InterruptedIOException("Loading cancelled");
+			}
+		}
+
+		/**
+		 * Writes the file's .treeb companion on a thread of its own, so the
+		 * tree is shown without waiting for it.
+		 */
+		private void writeCompanion() {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						TreeBinaryFile.writeCompanion(m_file);
+					} catch (IOException exc) {
+						// without a companion the next load is just slower
+					}
+				}
+			}, "TreeVisualizer companion");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			thread.start();
+		}
+
+		@Override
+		public void nodeLoaded(Tree.Node<? extends CharSequence> node,
+				int depth) throws IOException {
+			checkCancelled();
+			if (depth <= kPreviewDepth)
+				publish(node);
+		}
+
+		@Override
+		public void progress(long bytesRead, long totalBytes)
+				throws IOException {
+			checkCancelled();
+			if (totalBytes > 0)
+				setProgress((int) (bytesRead * 100 / totalBytes));
+		}
+
+		private void checkCancelled() throws InterruptedIOException {
+			if (isCancelled())
+				throw new InterruptedIOException("Loading cancelled");
+		}
+
+		@Override
+		protected void process(List<Tree.Node<? extends CharSequence>> nodes) {
+			if (isCancelled())
+				return;
+			for (Tree.Node<? extends CharSequence> node : nodes) {
+				Tree.Node<CharSequence> previewNode;
+				if (m_previewTree == null) {
+					m_previewTree = new Tree<CharSequence>(node.getData());
+					previewNode = m_previewTree.getRootNode();
+					m_treeController.setTree(m_previewTree);
+					setSearchIndex(null);
+					resetView();
+				} else {
+					// parents are always loaded, and published, before their
+					// children. Only the parents' children are laid out
+					// again in the next frame.
+					Tree.Node<CharSequence> parent = m_previewNodes.get(node
+							.getParent());
+					previewNode = m_previewTree.insertChild(parent, parent
+							.getChildren().size(), node.getData());
+				}
+				m_previewNodes.put(node, previewNode);
+			}
+			repaint();
+		}
+
+		@Override
+		public void propertyChange(PropertyChangeEvent e) {
+			if ("progress".equals(e.getPropertyName())) {
+				m_monitor.setProgress((Integer) e.getNewValue());
+				if (m_monitor.isCanceled())
+					cancel(true);
+			}
+		}
+
+		@Override
+		protected void done() {
+			m_monitor.close();
+			// a worker cancelled by cancelLoading() has been dealt with, and
+			// another load may have started since
+			if (m_loadWorker != this) {
+				closeMapping(m_mapping);
+				return;
+			}
+			m_loadWorker = null;
+
+			TreeModel<?> tree = null;
+			if (!isCancelled()) {
+				try {
+					tree = get();
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException exc) {
+					System.out.println("Could not load Tree file!");
+					System.out.println(exc.getCause());
+				}
+			}
+			if (tree != null) {
+				m_treeController.setTreeModel(tree);
+				setSearchIndex(m_index);
+				closeTreeMapping();
+				m_treeMapping = m_mapping;
+				// keep the view of the preview if there was one
+				if (m_previewTree == null)
+					resetView();
+				repaint();
+			} else {
+				closeMapping(m_mapping);
+				if (m_previewTree != null)
+					restorePreviousTree();
+			}
+			m_previousTree = null;
+			m_previousIndex = null;
+		}
+
+		/**
+		 * Returns true if the preview tree has replaced the one shown before
+		 * loading started.
+		 */
+		boolean hasPreview() {
+			return m_previewTree != null;
+		}
+	}
+
+	/**
+	 * Searches a SearchIndex on a background thread, so typing in the Find
+	 * box never waits for a search, and lists the results when it is done
+	 * unless another search has started since.
+	 */
+	private class SearchWorker extends SwingWorker<String[], Void> {
+		private SearchIndex m_index;
+		private String m_query;
+		private SearchIndex.Results m_results;
+
+		SearchWorker(SearchIndex index, String query) {
+			m_index = index;
+			m_query = query;
+		}
+
+		@Override
+		protected String[] doInBackground() {
+			m_results = m_index.search(m_query, kMaxSearchResults);
+			// each result is listed with its parent, to tell apart nodes
+			// with the same name
+			String[] labels = new String[m_results.getCount()];
+			for (int i = 0; i < labels.length; i++) {
+				int node = m_results.getNode(i);
+				int parent = m_index.getParent(node);
+				labels[i] = m_index.getName(node);
+				if (parent >= 0)
+					labels[i] += "  (in " + m_index.getName(parent) + ")";
+			}
+			return labels;
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled() || m_searchWorker != this)
+				return;
+			m_searchWorker = null;
+			try {
+				showResults(m_index, m_results, get());
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException exc) {
+				System.out.println("Could not search Tree!");
+				System.out.println(exc.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Follows a tree file while it is written, with a TreeFollower. The file
+	 * is loaded from the start, and then each time it changes only what was
+	 * appended is parsed in the background. The new nodes are grafted onto
+	 * the tree on the event dispatch thread, so only they are laid out and
+	 * drawn, and the camera stays where it is. If the file is rewritten, the
+	 * new tree replaces the old one, keeping the view where the new tree
+	 * allows. The follower indexes the nodes for searching as it parses them.
+	 */
+	private class FollowWorker extends SwingWorker<Void, TreeFollower.Update> {
+		private TreeFollower m_follower;
+		private boolean m_loaded;
+
+		FollowWorker(File file) {
+			m_follower = new TreeFollower(file);
+		}
+
+		@Override
+		protected Void doInBackground() throws IOException {
+			try {
+				while (!isCancelled()) {
+					TreeFollower.Update update;
+					while ((update = m_follower.update()) != null
+							&& !isCancelled())
+						publish(update);
+					m_follower.awaitChange(kFollowInterval);
+				}
+			} catch (InterruptedException exc) {
+				// cancelled
+			} finally {
+				m_follower.close();
+			}
+			return null;
+		}
+
+		@Override
+		protected void process(List<TreeFollower.Update> updates) {
+			if (isCancelled())
+				return;
+			for (TreeFollower.Update update : updates) {
+				if (update.isReloaded()) {
+					m_treeController.setTree(update.getTree());
+					setSearchIndex(update.getIndex());
+					closeTreeMapping();
+					if (!m_loaded)
+						resetView();
+					m_loaded = true;
+				} else {
+					update.apply();
+				}
+			}
+			repaint();
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled())
+				return;
+			try {
+				get();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException exc) {
+				System.out.println("Could not follow Tree file!");
+				System.out.println(exc.getCause());
+			}
+			if (m_followWorker == this)
+				stopFollowing();
+		}
 	}
-}
\ No newline at end of file
+}